@@ -7,6 +7,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -29,7 +32,22 @@ public class RocksDBConfig {
     @Value("${raft.rocksdb.options.max-write-buffer-number:3}")
     private int maxWriteBufferNumber;
 
+    /**
+     * Column family for the MySQL outbox (write events staged with each ledger mutation)
+     */
+    public static final String CF_OUTBOX = "outbox";
+
+    /**
+     * Column family for MySQL rows that failed permanently (dead letters)
+     */
+    public static final String CF_DEADLETTER = "deadletter";
+
+    // Column families opened in every instance, besides the default one
+    private static final List<String> COLUMN_FAMILIES = List.of(CF_OUTBOX, CF_DEADLETTER);
+
     private final ConcurrentMap<String, RocksDB> rocksDBInstances = new ConcurrentHashMap<>();
+    // Keyed by "<dbName>/<columnFamily>"
+    private final ConcurrentMap<String, ColumnFamilyHandle> columnFamilyHandles = new ConcurrentHashMap<>();
 
     static {
         // 載入 RocksDB 原生函式庫
@@ -52,8 +70,20 @@ public class RocksDBConfig {
             try {
                 Options options = createRocksDBOptions();
                 String dbPath = rocksdbPath + "/" + name;
-                RocksDB db = RocksDB.open(options, dbPath);
-                log.info("RocksDB opened successfully at path: {}", dbPath);
+
+                DBOptions dbOptions = new DBOptions(options).setCreateMissingColumnFamilies(true);
+                ColumnFamilyOptions cfOptions = new ColumnFamilyOptions(options);
+                List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+                descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, cfOptions));
+                for (String cf : COLUMN_FAMILIES) {
+                    descriptors.add(new ColumnFamilyDescriptor(cf.getBytes(StandardCharsets.UTF_8), cfOptions));
+                }
+                List<ColumnFamilyHandle> handles = new ArrayList<>();
+                RocksDB db = RocksDB.open(dbOptions, dbPath, descriptors, handles);
+                for (int i = 0; i < COLUMN_FAMILIES.size(); i++) {
+                    columnFamilyHandles.put(name + "/" + COLUMN_FAMILIES.get(i), handles.get(i + 1));
+                }
+                log.info("RocksDB opened successfully at path: {} with column families {}", dbPath, COLUMN_FAMILIES);
                 return db;
             } catch (RocksDBException e) {
                 log.error("Failed to open RocksDB at path: {}/{}", rocksdbPath, name, e);
@@ -62,6 +92,18 @@ public class RocksDBConfig {
         });
     }
 
+    /**
+     * 獲取指定實例的 column family
+     */
+    public ColumnFamilyHandle getColumnFamily(String dbName, String columnFamily) throws RocksDBException {
+        getRocksDB(dbName);
+        ColumnFamilyHandle handle = columnFamilyHandles.get(dbName + "/" + columnFamily);
+        if (handle == null) {
+            throw new IllegalArgumentException("Unknown column family: " + columnFamily);
+        }
+        return handle;
+    }
+
     /**
      * 創建 RocksDB 選項配置
      */
@@ -97,6 +139,8 @@ public class RocksDBConfig {
      */
     @PreDestroy
     public void cleanup() {
+        columnFamilyHandles.values().forEach(ColumnFamilyHandle::close);
+        columnFamilyHandles.clear();
         rocksDBInstances.forEach((name, db) -> {
             try {
                 db.close();
@@ -1,9 +1,14 @@
 package com.example.ledger.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
 import org.springframework.stereotype.Service;
 
 /**
@@ -45,6 +50,63 @@ public class RocksDBService {
         delete("default", key);
     }
 
+    public void put(String dbName, ColumnFamilyHandle columnFamily, byte[] key, byte[] value) throws RocksDBException {
+        config.getRocksDB(dbName).put(columnFamily, key, value);
+    }
+
+    public byte[] get(String dbName, ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        return config.getRocksDB(dbName).get(columnFamily, key);
+    }
+
+    public void delete(String dbName, ColumnFamilyHandle columnFamily, byte[] key) throws RocksDBException {
+        config.getRocksDB(dbName).delete(columnFamily, key);
+    }
+
+    public ColumnFamilyHandle columnFamily(String columnFamily) throws RocksDBException {
+        return config.getColumnFamily("default", columnFamily);
+    }
+
+    /**
+     * Atomically apply a batch of mutations (possibly spanning column families)
+     */
+    public void write(WriteBatch batch) throws RocksDBException {
+        try (WriteOptions options = new WriteOptions()) {
+            config.getRocksDB("default").write(options, batch);
+        }
+    }
+
+    public Snapshot getSnapshot() throws RocksDBException {
+        return config.getRocksDB("default").getSnapshot();
+    }
+
+    public void releaseSnapshot(Snapshot snapshot) throws RocksDBException {
+        config.getRocksDB("default").releaseSnapshot(snapshot);
+    }
+
+    /**
+     * Point lookups in the default column family with the given read options
+     * (e.g. a snapshot); values are null for missing keys
+     */
+    public java.util.List<byte[]> multiGet(ReadOptions options, java.util.List<byte[]> keys) throws RocksDBException {
+        return config.getRocksDB("default").multiGetAsList(options, keys);
+    }
+
+    public void deleteRange(String columnFamily, byte[] beginKey, byte[] endKey) throws RocksDBException {
+        config.getRocksDB("default").deleteRange(columnFamily(columnFamily), beginKey, endKey);
+    }
+
+    /**
+     * Delete every key in [beginKey, endKey) of the default column family with a range tombstone
+     */
+    public void deleteRange(byte[] beginKey, byte[] endKey) throws RocksDBException {
+        config.getRocksDB("default").deleteRange(beginKey, endKey);
+    }
+
+    public RocksIterator newIterator(String dbName, ColumnFamilyHandle columnFamily) throws RocksDBException {
+        RocksDB db = config.getRocksDB(dbName);
+        return db.newIterator(columnFamily);
+    }
+
     public RocksIterator newIterator(String dbName) throws RocksDBException {
         RocksDB db = config.getRocksDB(dbName);
         return db.newIterator();
@@ -72,6 +134,22 @@ public class RocksDBService {
         }
     }
 
+    public void putBytes(String key, byte[] value) {
+        try {
+            put(key.getBytes(), value);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to put key: " + key, e);
+        }
+    }
+
+    public byte[] getBytes(String key) {
+        try {
+            return get(key.getBytes());
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to get key: " + key, e);
+        }
+    }
+
     public void delete(String key) {
         try {
             delete(key.getBytes());
@@ -80,6 +158,44 @@ public class RocksDBService {
         }
     }
 
+    /**
+     * Visit every key/value whose key starts with the given prefix, seeking
+     * directly to the prefix instead of scanning the whole keyspace
+     */
+    public void scanPrefix(String prefix, java.util.function.BiConsumer<String, String> visitor) {
+        scanPrefixBytes(prefix, (key, value) -> visitor.accept(new String(key), new String(value)));
+    }
+
+    /**
+     * Same as {@link #scanPrefix} but hands out raw key/value bytes, for binary records
+     */
+    public void scanPrefixBytes(String prefix, java.util.function.BiConsumer<byte[], byte[]> visitor) {
+        byte[] prefixBytes = prefix.getBytes();
+        try (RocksIterator iterator = newIterator()) {
+            for (iterator.seek(prefixBytes); iterator.isValid(); iterator.next()) {
+                byte[] key = iterator.key();
+                if (!startsWith(key, prefixBytes)) {
+                    break;
+                }
+                visitor.accept(key, iterator.value());
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to scan prefix: " + prefix, e);
+        }
+    }
+
+    public static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Get all keys that start with given prefix
      */
@@ -0,0 +1,47 @@
+package com.example.ledger.controller;
+
+import com.example.ledger.service.AccountBusinessService;
+import com.example.ledger.state.AccountHistoryIndex;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/account")
+@Tag(name = "Account API", description = "账户流水查询接口")
+public class AccountController {
+
+    @Autowired
+    private AccountBusinessService accountBusinessService;
+
+    @Value("${ledger.history.max.page.size:500}")
+    private int maxPageSize;
+
+    @GetMapping("/{accountId}/history")
+    @Operation(summary = "查询账户流水", description = "按时间倒序分页查询账户交易流水 (accountId 形如 UserA:available)，使用 nextCursor 翻页")
+    public ResponseEntity<AccountHistoryIndex.Page> getHistory(
+            @PathVariable String accountId,
+            @Parameter(description = "上一页返回的 nextCursor，首页留空")
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit) {
+
+        if (limit < 1 || limit > maxPageSize) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!accountBusinessService.accountExists(accountId)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(accountBusinessService.getHistory(accountId, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid history request for {}: {}", accountId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
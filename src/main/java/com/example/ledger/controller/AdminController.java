@@ -2,8 +2,13 @@ package com.example.ledger.controller;
 
 import com.example.ledger.config.RocksDBService;
 import com.example.ledger.service.AccountBusinessService;
+import com.example.ledger.service.AdmissionControl;
 import com.example.ledger.service.AsyncMySQLBatchWriter;
+import com.example.ledger.service.BalanceCheckpointer;
 import com.example.ledger.service.IdempotencyService;
+import com.example.ledger.service.LedgerService;
+import com.example.ledger.service.MySQLDeadLetterStore;
+import com.example.ledger.state.HotBalanceCache;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
@@ -11,12 +16,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Slf4j
 @RestController
@@ -35,14 +42,73 @@ public class AdminController {
     
     @Autowired
     private AccountBusinessService accountBusinessService;
+    
+    @Autowired
+    private AdmissionControl admissionControl;
+    
+    @Autowired
+    private LedgerService ledgerService;
+    
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
+    
+    @Autowired
+    private MySQLDeadLetterStore mySQLDeadLetterStore;
+
+    @Autowired
+    private BalanceCheckpointer balanceCheckpointer;
 
     @GetMapping("/metrics/mysql-writer")
-    @Operation(summary = "Get MySQL writer metrics", description = "Retrieve performance metrics from the AsyncMySQLBatchWriter")
+    @Operation(summary = "Get MySQL writer metrics", description = "Retrieve performance metrics, adaptive batch setpoints and balance checkpoint state of the MySQL writer")
     public ResponseEntity<Map<String, Object>> getMySQLWriterMetrics() {
         log.info("Getting MySQL writer metrics");
         
         Map<String, Object> metrics = new HashMap<>();
         metrics.put("metrics", asyncMySQLBatchWriter.getMetrics());
+        metrics.put("setpoints", asyncMySQLBatchWriter.getBatchSetpoints());
+        metrics.put("balanceCheckpoint", balanceCheckpointer.getStats());
+        metrics.put("timestamp", System.currentTimeMillis());
+        
+        return ResponseEntity.ok(metrics);
+    }
+
+    @GetMapping("/mysql/dead-letters")
+    @Operation(summary = "List MySQL dead letters", description = "Rows the MySQL writer isolated as permanently failing, in log order")
+    public ResponseEntity<Map<String, Object>> getMySQLDeadLetters(@RequestParam(defaultValue = "100") int limit) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("count", mySQLDeadLetterStore.count());
+        result.put("deadLetters", mySQLDeadLetterStore.list(limit).stream()
+                .map(MySQLDeadLetterStore::describe)
+                .collect(Collectors.toList()));
+        result.put("timestamp", System.currentTimeMillis());
+        
+        return ResponseEntity.ok(result);
+    }
+
+    @PostMapping("/mysql/dead-letters/replay")
+    @Operation(summary = "Replay MySQL dead letters", description = "Re-write dead-lettered rows to MySQL; rows that fail again are kept")
+    public ResponseEntity<Map<String, Object>> replayMySQLDeadLetters(@RequestParam(defaultValue = "1000") int limit) {
+        log.info("Replaying up to {} MySQL dead letters", limit);
+        Map<String, Object> result = new HashMap<>(asyncMySQLBatchWriter.replayDeadLetters(limit));
+        result.put("timestamp", System.currentTimeMillis());
+        
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/metrics/admission")
+    @Operation(summary = "Get admission control metrics", description = "Queue depth, pending proposals, rejections and MySQL writer lag")
+    public ResponseEntity<Map<String, Object>> getAdmissionMetrics() {
+        Map<String, Object> metrics = new HashMap<>(admissionControl.getMetrics());
+        metrics.put("commandQueueDepth", ledgerService.getCommandQueueDepth());
+        metrics.put("timestamp", System.currentTimeMillis());
+        
+        return ResponseEntity.ok(metrics);
+    }
+
+    @GetMapping("/metrics/balance-cache")
+    @Operation(summary = "Get hot balance cache metrics", description = "Size, hits, misses and evictions of the off-heap balance cache")
+    public ResponseEntity<Map<String, Object>> getBalanceCacheMetrics() {
+        Map<String, Object> metrics = new HashMap<>(hotBalanceCache.getStats());
         metrics.put("timestamp", System.currentTimeMillis());
         
         return ResponseEntity.ok(metrics);
@@ -69,10 +135,11 @@ public class AdminController {
             
             // Check account metadata key
             String accountKey = "account:" + accountId;
-            String accountValue = rocksDBService.get(accountKey);
+            byte[] accountRecord = rocksDBService.getBytes(accountKey);
             result.put("accountKey", accountKey);
-            result.put("accountValue", accountValue);
-            result.put("accountExists", accountValue != null);
+            result.put("accountValue", accountRecord != null ? accountBusinessService.getAccount(accountId) : null);
+            result.put("accountRecordBytes", accountRecord != null ? accountRecord.length : 0);
+            result.put("accountExists", accountRecord != null);
             
             // Check account existence via service
             boolean serviceExists = accountBusinessService.accountExists(accountId);
@@ -1,16 +1,22 @@
 package com.example.ledger.controller;
 
 import com.example.ledger.model.Account;
+import com.example.ledger.service.LedgerOverloadException;
 import com.example.ledger.service.LedgerService;
 import com.example.ledger.service.AccountBusinessService;
+import com.example.ledger.state.BulkCreateAccountsCommand;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -81,6 +87,36 @@ public class BalanceController {
             });
     }
 
+    @PostMapping("/create/bulk")
+    @Operation(summary = "批量创建账户", description = "一次创建大量 (userId, accountType) 账户，缺失的账户按块作为 BULK_CREATE 命令提交")
+    public CompletableFuture<ResponseEntity<LedgerService.BulkCreateResult>> bulkCreateAccounts(
+            @RequestBody BulkCreateAccountRequest request) {
+        
+        List<BulkCreateAccountsCommand.NewAccount> accounts = new ArrayList<>();
+        if (request.getAccounts() != null) {
+            for (CreateAccountRequest account : request.getAccounts()) {
+                accounts.add(new BulkCreateAccountsCommand.NewAccount(account.getUserId(), account.getAccountType()));
+            }
+        }
+        log.info("Bulk creating {} accounts", accounts.size());
+        
+        // Failed commands leave their accounts uncreated; the body says how many, and a retry skips the rest
+        return ledgerService.bulkCreateAccounts(accounts)
+            .thenApply(result -> ResponseEntity.status(result.getStatusCode()).body(result))
+            .exceptionally(ex -> {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                log.error("Bulk account creation failed: {}", cause.getMessage());
+                if (cause instanceof LedgerOverloadException overload) {
+                    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(overload.getRetryAfterSeconds()))
+                        .build();
+                }
+                return cause instanceof IllegalArgumentException
+                    ? ResponseEntity.badRequest().build()
+                    : ResponseEntity.status(500).build();
+            });
+    }
+
     // DTOs
     public static class AccountBalanceResponse {
         private String userId;
@@ -108,6 +144,13 @@ public class BalanceController {
         public void setAccountType(Account.AccountType accountType) { this.accountType = accountType; }
     }
 
+    public static class BulkCreateAccountRequest {
+        private List<CreateAccountRequest> accounts;
+
+        public List<CreateAccountRequest> getAccounts() { return accounts; }
+        public void setAccounts(List<CreateAccountRequest> accounts) { this.accounts = accounts; }
+    }
+
     public static class CreateAccountResponse {
         private boolean success;
         private String message;
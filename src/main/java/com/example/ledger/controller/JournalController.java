@@ -0,0 +1,125 @@
+package com.example.ledger.controller;
+
+import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.model.LedgerOperation;
+import com.example.ledger.model.Transaction;
+import com.example.ledger.service.LedgerOverloadException;
+import com.example.ledger.service.LedgerService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/journal")
+@Tag(name = "Journal API", description = "多分录日记账过账接口")
+public class JournalController {
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @PostMapping
+    @Operation(summary = "过账日记账", description = "将一笔平衡的多分录日记账（一借多贷、手续费、分账）作为一条命令原子过账")
+    public CompletableFuture<ResponseEntity<TransferController.TransferResponse>> postJournal(
+            @RequestBody JournalRequest request,
+            @Parameter(description = "日记账幂等性键，必填")
+            @RequestHeader(value = "Idempotency-Key", required = true) String idempotencyKey) {
+
+        if (idempotencyKey == null || idempotencyKey.trim().isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                .body(new TransferController.TransferResponse(false, "Idempotency-Key header is mandatory for journal postings")));
+        }
+        if (request.getEntries() == null || request.getEntries().isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                .body(new TransferController.TransferResponse(false, "Journal must have at least one entry")));
+        }
+
+        List<Transaction.DoubleEntry> entries = new ArrayList<>(request.getEntries().size());
+        for (JournalEntry entry : request.getEntries()) {
+            if (entry.getFromUserId() == null || entry.getFromType() == null
+                    || entry.getToUserId() == null || entry.getToType() == null) {
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest()
+                    .body(new TransferController.TransferResponse(false, "Every entry needs both accounts")));
+            }
+            entries.add(new Transaction.DoubleEntry(entry.getFromUserId(), entry.getFromType(),
+                entry.getToUserId(), entry.getToType(), entry.getAmount(), entry.getDescription()));
+        }
+        Transaction journal = Transaction.create(request.getDescription(), entries);
+
+        log.info("Posting journal {} with {} entries, idempotencyKey: {}",
+            journal.getTransactionId(), entries.size(), idempotencyKey);
+
+        return ledgerService.postJournal(LedgerOperation.applyTransaction(journal), idempotencyKey.trim())
+            .thenApply(JournalController::outcomeResponse)
+            .exceptionally(ex -> {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof LedgerOverloadException overload) {
+                    return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(overload.getRetryAfterSeconds()))
+                        .body(new TransferController.TransferResponse(false, overload.getMessage()));
+                }
+                if (cause instanceof IllegalArgumentException) {
+                    return ResponseEntity.badRequest()
+                        .body(new TransferController.TransferResponse(false, cause.getMessage()));
+                }
+                return ResponseEntity.status(500)
+                    .body(new TransferController.TransferResponse(false, "Journal posting error: " + cause.getMessage()));
+            });
+    }
+
+    private static ResponseEntity<TransferController.TransferResponse> outcomeResponse(CommandOutcome outcome) {
+        return ResponseEntity.status(outcome.getStatusCode())
+            .body(new TransferController.TransferResponse(outcome.isSuccess(), outcome.getMessage()));
+    }
+
+    // DTOs
+    public static class JournalRequest {
+        private String description;
+        private List<JournalEntry> entries;
+
+        public String getDescription() { return description; }
+        public void setDescription(String description) { this.description = description; }
+
+        public List<JournalEntry> getEntries() { return entries; }
+        public void setEntries(List<JournalEntry> entries) { this.entries = entries; }
+    }
+
+    public static class JournalEntry {
+        private String fromUserId;
+        private Account.AccountType fromType;
+        private String toUserId;
+        private Account.AccountType toType;
+        private BigDecimal amount;
+        private String description;
+
+        public String getFromUserId() { return fromUserId; }
+        public void setFromUserId(String fromUserId) { this.fromUserId = fromUserId; }
+
+        public Account.AccountType getFromType() { return fromType; }
+        public void setFromType(Account.AccountType fromType) { this.fromType = fromType; }
+
+        public String getToUserId() { return toUserId; }
+        public void setToUserId(String toUserId) { this.toUserId = toUserId; }
+
+        public Account.AccountType getToType() { return toType; }
+        public void setToType(Account.AccountType toType) { this.toType = toType; }
+
+        public BigDecimal getAmount() { return amount; }
+        public void setAmount(BigDecimal amount) { this.amount = amount; }
+
+        public String getDescription() { return description; }
+        public void setDescription(String description) { this.description = description; }
+    }
+}
@@ -1,16 +1,24 @@
 package com.example.ledger.controller;
 
 import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.service.LedgerOverloadException;
 import com.example.ledger.service.LedgerService;
 import com.example.ledger.service.IdempotencyService;
+import com.example.ledger.service.TransferStreamService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -26,6 +34,9 @@ public class TransferController {
     
     @Autowired
     private IdempotencyService idempotencyService;
+    
+    @Autowired
+    private TransferStreamService transferStreamService;
 
     @PostMapping("/single")
     @Operation(summary = "单笔转账", description = "执行单笔复式记账转账，支持幂等性")
@@ -45,39 +56,75 @@ public class TransferController {
         
         // Check if this request has already been processed
         IdempotencyService.IdempotencyResult existingResult = idempotencyService.checkIdempotency(finalIdempotencyKey);
-        if (existingResult != null) {
+        if (existingResult != null && !existingResult.isProcessing()) {
             log.info("Returning cached result for idempotency key: {}", finalIdempotencyKey);
-            return CompletableFuture.completedFuture(
-                ResponseEntity.status(existingResult.getStatusCode())
-                    .body(new TransferResponse(existingResult.isSuccess(), existingResult.getMessage()))
-            );
+            return CompletableFuture.completedFuture(cachedResponse(existingResult));
+        }
+        
+        // Single flight: a duplicate of a request still in flight waits for its result
+        // instead of proposing the transfer again
+        CompletableFuture<CommandOutcome> inFlight = new CompletableFuture<>();
+        CompletableFuture<CommandOutcome> leader = idempotencyService.joinInFlight(finalIdempotencyKey, inFlight);
+        if (leader != null) {
+            log.info("Coalescing duplicate transfer with in-flight request for idempotency key: {}", finalIdempotencyKey);
+            return leader.thenApply(TransferController::outcomeResponse)
+                .exceptionally(ex -> unwrap(ex) instanceof LedgerOverloadException overload
+                    ? tooManyRequests(overload)
+                    : ResponseEntity.status(404).body(new TransferResponse(false, unwrap(ex).getMessage())));
+        }
+        // The previous holder may have finished between the check and the registration
+        existingResult = idempotencyService.checkIdempotency(finalIdempotencyKey);
+        if (existingResult != null && !existingResult.isProcessing()) {
+            idempotencyService.leaveInFlight(finalIdempotencyKey, inFlight);
+            inFlight.cancel(false);
+            return CompletableFuture.completedFuture(cachedResponse(existingResult));
         }
         
         // Mark request as processing
         idempotencyService.markProcessing(finalIdempotencyKey);
         
-        return ledgerService.transfer(
+        return ledgerService.transferWithOutcome(
             request.getFromUserId(), request.getFromType(),
             request.getToUserId(), request.getToType(),
             request.getAmount(), request.getDescription(), finalIdempotencyKey
-        ).thenApply(success -> {
-            ResponseEntity<TransferResponse> response;
-            if (success) {
-                response = ResponseEntity.ok(new TransferResponse(true, "Transfer completed successfully"));
-                idempotencyService.storeResult(finalIdempotencyKey, true, "Transfer completed successfully", 200);
-            } else {
-                response = ResponseEntity.badRequest().body(new TransferResponse(false, "Transfer failed"));
-                idempotencyService.storeResult(finalIdempotencyKey, false, "Transfer failed", 400);
+        ).whenComplete((outcome, ex) -> {
+            // Record the result before releasing the key, so later duplicates find it cached
+            try {
+                if (ex == null) {
+                    // The outcome is applied by the state machine (or replayed from its stored marker)
+                    idempotencyService.storeResult(finalIdempotencyKey, outcome);
+                } else if (unwrap(ex) instanceof LedgerOverloadException) {
+                    // Not processed: let the client retry with the same idempotency key
+                    idempotencyService.discard(finalIdempotencyKey);
+                } else {
+                    idempotencyService.storeResult(finalIdempotencyKey, false, unwrap(ex).getMessage(), 404);
+                }
+            } finally {
+                idempotencyService.leaveInFlight(finalIdempotencyKey, inFlight);
+                if (ex == null) {
+                    inFlight.complete(outcome);
+                } else {
+                    inFlight.completeExceptionally(unwrap(ex));
+                }
             }
-            return response;
-        }).exceptionally(ex -> {
-            String msg = ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage();
-            ResponseEntity<TransferResponse> response = ResponseEntity.status(404)
-                .body(new TransferResponse(false, msg));
-            idempotencyService.storeResult(finalIdempotencyKey, false, msg, 404);
-            return response;
+        }).thenApply(TransferController::outcomeResponse).exceptionally(ex -> {
+            Throwable cause = unwrap(ex);
+            if (cause instanceof LedgerOverloadException overload) {
+                return tooManyRequests(overload);
+            }
+            return ResponseEntity.status(404).body(new TransferResponse(false, cause.getMessage()));
         });
     }
+    
+    private static ResponseEntity<TransferResponse> outcomeResponse(CommandOutcome outcome) {
+        return ResponseEntity.status(outcome.getStatusCode())
+            .body(new TransferResponse(outcome.isSuccess(), outcome.getMessage()));
+    }
+    
+    private static ResponseEntity<TransferResponse> cachedResponse(IdempotencyService.IdempotencyResult result) {
+        return ResponseEntity.status(result.getStatusCode())
+            .body(new TransferResponse(result.isSuccess(), result.getMessage()));
+    }
 
     @PostMapping("/batch")
     @Operation(summary = "批量转账", description = "执行多笔原子性复式记账转账")
@@ -96,22 +143,33 @@ public class TransferController {
             );
         }
         
-        return ledgerService.batchTransfer(request.getTransfers(), idempotencyKey.trim())
-            .thenApply(success -> {
-                if (success) {
-                    return ResponseEntity.ok(new TransferResponse(true, "Batch transfer completed successfully"));
-                } else {
-                    return ResponseEntity.badRequest().body(new TransferResponse(false, "Batch transfer failed"));
+        // One BATCH_TRANSFER command: all legs are applied atomically, or none
+        return ledgerService.batchTransferWithOutcome(request.getTransfers(), idempotencyKey.trim())
+            .thenApply(TransferController::outcomeResponse)
+            .exceptionally(ex -> {
+                Throwable cause = unwrap(ex);
+                if (cause instanceof LedgerOverloadException overload) {
+                    return tooManyRequests(overload);
                 }
-            }).exceptionally(ex -> {
-                String msg = ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage();
-                if (msg.contains("idempotentId is mandatory")) {
+                String msg = cause.getMessage();
+                if (cause instanceof IllegalArgumentException) {
                     return ResponseEntity.badRequest().body(new TransferResponse(false, msg));
                 }
                 return ResponseEntity.status(500).body(new TransferResponse(false, "Batch transfer error: " + msg));
             });
     }
 
+    @PostMapping(value = "/stream", consumes = {"application/x-ndjson", "application/json"}, produces = "application/x-ndjson")
+    @Operation(summary = "流式批量转账", description = "逐行读取 NDJSON 转账记录并流水线提交，逐条返回结果，最后一行为汇总")
+    public void streamTransfers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Written on the request thread: the body is read and the results are
+        // written as records complete, without an async request timeout
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        transferStreamService.ingest(request.getInputStream(), response.getOutputStream());
+    }
+
     @PostMapping("/demo")
     @Operation(summary = "演示转账", description = "演示你的用例：UserA.Available -> 10 -> UserB.Available 和 UserA.Available -> 20 -> Bank.Available")
     public CompletableFuture<ResponseEntity<TransferResponse>> demoTransfer(
@@ -156,6 +214,17 @@ public class TransferController {
         });
     }
 
+    private static Throwable unwrap(Throwable ex) {
+        return ex.getCause() != null ? ex.getCause() : ex;
+    }
+    
+    private static ResponseEntity<TransferResponse> tooManyRequests(LedgerOverloadException overload) {
+        log.warn("Transfer rejected by admission control: {}", overload.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(overload.getRetryAfterSeconds()))
+            .body(new TransferResponse(false, overload.getMessage()));
+    }
+
     // DTOs
     public static class SingleTransferRequest {
         private String fromUserId;
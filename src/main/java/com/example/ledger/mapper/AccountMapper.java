@@ -2,6 +2,8 @@ package com.example.ledger.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.ledger.model.Account;
+import com.example.ledger.service.WriteEvent;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -40,4 +42,55 @@ public interface AccountMapper extends BaseMapper<Account> {
 
     @Update("UPDATE account SET balance = #{balance} WHERE account_id = #{accountId}")
     int updateBalanceByAccountId(@Param("accountId") String accountId, @Param("balance") BigDecimal balance);
-} 
\ No newline at end of file
+
+    /**
+     * 批量寫入餘額 (multi-row upsert): 新帳戶插入, 已存在帳戶只更新餘額
+     * 參數直接取自 writer 的 BALANCE 事件
+     */
+    @Insert("<script>" +
+            "INSERT INTO account (account_id, user_id, account_type, balance) VALUES " +
+            "<foreach collection='accounts' item='a' separator=','>" +
+            "(#{a.accountId}, #{a.userId}, #{a.accountType}, #{a.balance})" +
+            "</foreach>" +
+            " ON DUPLICATE KEY UPDATE balance = VALUES(balance)" +
+            "</script>")
+    int upsertBalances(@Param("accounts") List<WriteEvent> accounts);
+
+    /**
+     * 確保帳戶存在 (僅插入缺少的帳戶, 不改動已存在帳戶的餘額)
+     */
+    @Insert("<script>" +
+            "INSERT IGNORE INTO account (account_id, user_id, account_type) VALUES " +
+            "<foreach collection='accounts' item='a' separator=','>" +
+            "(#{a.accountId}, #{a.userId}, #{a.accountType})" +
+            "</foreach>" +
+            "</script>")
+    int insertMissingAccounts(@Param("accounts") List<Account> accounts);
+
+    /**
+     * H2 版本的批量寫入餘額 (MERGE INTO, 依主鍵 account_id)
+     */
+    @Insert("<script>" +
+            "MERGE INTO account (account_id, user_id, account_type, balance) KEY (account_id) VALUES " +
+            "<foreach collection='accounts' item='a' separator=','>" +
+            "(#{a.accountId}, #{a.userId}, #{a.accountType}, #{a.balance})" +
+            "</foreach>" +
+            "</script>")
+    int mergeBalances(@Param("accounts") List<WriteEvent> accounts);
+
+    /**
+     * H2 版本的確保帳戶存在 (未列出 balance, 已存在帳戶的餘額不變).
+     * Only inserts: an existing row is not written, so it is not locked against
+     * the partition that owns its balance
+     */
+    @Insert("<script>" +
+            "INSERT INTO account (account_id, user_id, account_type) " +
+            "SELECT s.account_id, s.user_id, s.account_type FROM (VALUES " +
+            "<foreach collection='accounts' item='a' separator=','>" +
+            "(CAST(#{a.accountId} AS VARCHAR), CAST(#{a.userId} AS VARCHAR), CAST(#{a.accountType} AS VARCHAR))" +
+            "</foreach>" +
+            ") AS s(account_id, user_id, account_type) " +
+            "WHERE NOT EXISTS (SELECT 1 FROM account t WHERE t.account_id = s.account_id)" +
+            "</script>")
+    int mergeMissingAccounts(@Param("accounts") List<Account> accounts);
+}
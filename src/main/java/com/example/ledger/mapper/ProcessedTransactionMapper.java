@@ -2,6 +2,8 @@ package com.example.ledger.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.service.WriteEvent;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
@@ -59,4 +61,32 @@ public interface ProcessedTransactionMapper extends BaseMapper<ProcessedTransact
      */
     @Select("SELECT * FROM processed_transaction WHERE idempotent_id = #{idempotentId} AND deleted = 0")
     ProcessedTransaction findByIdempotentId(@Param("idempotentId") String idempotentId);
-} 
\ No newline at end of file
+
+    /**
+     * 批量插入交易 (multi-row INSERT); 已存在的交易 (outbox 重放) 直接忽略
+     * 參數直接取自 writer 的 TRANSACTION 事件
+     */
+    @Insert("<script>" +
+            "INSERT IGNORE INTO processed_transaction " +
+            "(transaction_id, from_account_id, to_account_id, amount, description, idempotent_id, processed_at, status) VALUES " +
+            "<foreach collection='transactions' item='t' separator=','>" +
+            "(#{t.transactionId}, #{t.fromAccountId}, #{t.toAccountId}, #{t.amount}, #{t.description}, " +
+            "#{t.idempotentId}, #{t.processedAt}, #{t.status})" +
+            "</foreach>" +
+            "</script>")
+    int insertBatch(@Param("transactions") List<WriteEvent> transactions);
+
+    /**
+     * H2 版本的批量插入交易 (MERGE INTO); 交易 ID 由日誌位置決定, 重放時寫入相同內容
+     */
+    @Insert("<script>" +
+            "MERGE INTO processed_transaction " +
+            "(transaction_id, from_account_id, to_account_id, amount, description, idempotent_id, processed_at, status) " +
+            "KEY (transaction_id) VALUES " +
+            "<foreach collection='transactions' item='t' separator=','>" +
+            "(#{t.transactionId}, #{t.fromAccountId}, #{t.toAccountId}, #{t.amount}, #{t.description}, " +
+            "#{t.idempotentId}, #{t.processedAt}, #{t.status})" +
+            "</foreach>" +
+            "</script>")
+    int mergeBatch(@Param("transactions") List<WriteEvent> transactions);
+}
@@ -0,0 +1,42 @@
+package com.example.ledger.mapper;
+
+import com.example.ledger.model.SyncCheckpoint;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+/**
+ * MySQL 同步檢查點 (每個寫入分區最後持久化的 outbox 位置)
+ */
+@Mapper
+public interface SyncCheckpointMapper {
+
+    @Insert("INSERT IGNORE INTO ledger_sync_checkpoint (partition_count, partition_id, last_index, last_leg) " +
+            "VALUES (#{partitionCount}, #{partitionId}, 0, -1)")
+    int ensureCheckpoint(@Param("partitionCount") int partitionCount, @Param("partitionId") int partitionId);
+
+    /**
+     * H2 版本的 ensureCheckpoint (只列主鍵, 已存在的檢查點不變)
+     */
+    @Insert("MERGE INTO ledger_sync_checkpoint (partition_count, partition_id) KEY (partition_count, partition_id) " +
+            "VALUES (#{partitionCount}, #{partitionId})")
+    int mergeCheckpoint(@Param("partitionCount") int partitionCount, @Param("partitionId") int partitionId);
+
+    /**
+     * 鎖定並讀取分區檢查點 (同一交易內寫入資料後再推進)
+     */
+    @Select("SELECT partition_count, partition_id, last_index, last_leg, updated_at FROM ledger_sync_checkpoint " +
+            "WHERE partition_count = #{partitionCount} AND partition_id = #{partitionId} FOR UPDATE")
+    SyncCheckpoint lockCheckpoint(@Param("partitionCount") int partitionCount, @Param("partitionId") int partitionId);
+
+    @Update("UPDATE ledger_sync_checkpoint SET last_index = #{lastIndex}, last_leg = #{lastLeg} " +
+            "WHERE partition_count = #{partitionCount} AND partition_id = #{partitionId}")
+    int advanceCheckpoint(@Param("partitionCount") int partitionCount, @Param("partitionId") int partitionId,
+                          @Param("lastIndex") long lastIndex, @Param("lastLeg") int lastLeg);
+
+    @Select("SELECT partition_count, partition_id, last_index, last_leg, updated_at FROM ledger_sync_checkpoint " +
+            "WHERE partition_count = #{partitionCount} AND partition_id = #{partitionId}")
+    SyncCheckpoint findCheckpoint(@Param("partitionCount") int partitionCount, @Param("partitionId") int partitionId);
+}
@@ -0,0 +1,99 @@
+package com.example.ledger.model;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Result of applying a ledger command, handed back to the proposer.
+ *
+ * For a TRANSFER with an idempotency key the outcome is also the value of its
+ * {@code idem:} marker, written in the same RocksDB batch as the balances, so
+ * every replica can answer a retry from local state. Encoded as
+ * {@code v1|status|success|appliedAtMillis|fromBalance|toBalance|message};
+ * markers written before outcomes were stored hold {@code 1} and decode as a
+ * completed transfer.
+ */
+@Getter
+public final class CommandOutcome {
+
+    private static final String VERSION = "v1";
+
+    private final int statusCode;
+    private final boolean success;
+    private final String message;
+    private final BigDecimal fromBalance;
+    private final BigDecimal toBalance;
+    private final long appliedAtMillis;
+    // True when the outcome was read back from a marker instead of produced by this command
+    private final boolean replayed;
+    // Rows the command actually changed (e.g. accounts a BULK_CREATE created); not encoded
+    private final int affectedCount;
+
+    private CommandOutcome(int statusCode, boolean success, String message, BigDecimal fromBalance,
+                           BigDecimal toBalance, long appliedAtMillis, boolean replayed) {
+        this(statusCode, success, message, fromBalance, toBalance, appliedAtMillis, replayed, 0);
+    }
+
+    private CommandOutcome(int statusCode, boolean success, String message, BigDecimal fromBalance,
+                           BigDecimal toBalance, long appliedAtMillis, boolean replayed, int affectedCount) {
+        this.statusCode = statusCode;
+        this.success = success;
+        this.message = message;
+        this.fromBalance = fromBalance;
+        this.toBalance = toBalance;
+        this.appliedAtMillis = appliedAtMillis;
+        this.replayed = replayed;
+        this.affectedCount = affectedCount;
+    }
+
+    public static CommandOutcome applied() {
+        return new CommandOutcome(200, true, "OK", null, null, System.currentTimeMillis(), false);
+    }
+
+    public static CommandOutcome failed(String message) {
+        return new CommandOutcome(400, false, message, null, null, System.currentTimeMillis(), false);
+    }
+
+    public static CommandOutcome transferred(BigDecimal fromBalance, BigDecimal toBalance, long appliedAtMillis) {
+        return new CommandOutcome(200, true, "Transfer completed successfully",
+                fromBalance, toBalance, appliedAtMillis, false);
+    }
+
+    public static CommandOutcome completed(String message, long appliedAtMillis) {
+        return new CommandOutcome(200, true, message, null, null, appliedAtMillis, false);
+    }
+
+    public static CommandOutcome completed(String message, int affectedCount, long appliedAtMillis) {
+        return new CommandOutcome(200, true, message, null, null, appliedAtMillis, false, affectedCount);
+    }
+
+    public static CommandOutcome rejected(String message, long appliedAtMillis) {
+        return new CommandOutcome(400, false, message, null, null, appliedAtMillis, false);
+    }
+
+    public byte[] encode() {
+        return String.join("|", VERSION, Integer.toString(statusCode), success ? "1" : "0",
+                Long.toString(appliedAtMillis),
+                fromBalance != null ? fromBalance.toPlainString() : "",
+                toBalance != null ? toBalance.toPlainString() : "",
+                message != null ? message : "").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Outcome stored in an idempotency marker, flagged as a replay
+     */
+    public static CommandOutcome decode(byte[] value) {
+        String text = new String(value, StandardCharsets.UTF_8);
+        String[] fields = text.split("\\|", 7);
+        if (fields.length != 7 || !VERSION.equals(fields[0])) {
+            // Legacy marker: only successful transfers were marked
+            return new CommandOutcome(200, true, "Transfer completed successfully", null, null, 0L, true);
+        }
+        return new CommandOutcome(Integer.parseInt(fields[1]), "1".equals(fields[2]), fields[6],
+                fields[4].isEmpty() ? null : new BigDecimal(fields[4]),
+                fields[5].isEmpty() ? null : new BigDecimal(fields[5]),
+                Long.parseLong(fields[3]), true);
+    }
+}
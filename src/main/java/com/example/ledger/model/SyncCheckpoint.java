@@ -0,0 +1,26 @@
+package com.example.ledger.model;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Last outbox entry (command position + leg) persisted to MySQL by one writer partition
+ */
+@Data
+@TableName("ledger_sync_checkpoint")
+public class SyncCheckpoint {
+    private Integer partitionCount;
+    private Integer partitionId;
+    private Long lastIndex;
+    private Integer lastLeg;
+    private LocalDateTime updatedAt;
+
+    /**
+     * Whether the outbox entry at (position, leg) is at or below this checkpoint
+     */
+    public boolean covers(long position, int leg) {
+        return position < lastIndex || (position == lastIndex && leg <= lastLeg);
+    }
+}
@@ -57,15 +57,20 @@ public class Transaction {
     }
     
     // 验证交易平衡性（复式记账必须平衡）
+    // Each entry debits and credits the same amount, so the journal balances by
+    // construction; what can go wrong is the entries themselves: every amount
+    // must be positive and move between two distinct accounts.
     public boolean isBalanced() {
-        BigDecimal totalDebits = BigDecimal.ZERO;
-        BigDecimal totalCredits = BigDecimal.ZERO;
-        
+        if (entries == null || entries.isEmpty()) {
+            return false;
+        }
         for (DoubleEntry entry : entries) {
-            totalDebits = totalDebits.add(entry.getAmount());
-            totalCredits = totalCredits.add(entry.getAmount());
+            if (entry.getAmount() == null || entry.getAmount().signum() <= 0
+                    || entry.getFromAccountId() == null || entry.getToAccountId() == null
+                    || entry.getFromAccountId().equals(entry.getToAccountId())) {
+                return false;
+            }
         }
-        
-        return totalDebits.compareTo(totalCredits) == 0;
+        return true;
     }
-} 
\ No newline at end of file
+}
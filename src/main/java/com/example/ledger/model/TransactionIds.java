@@ -0,0 +1,58 @@
+package com.example.ledger.model;
+
+/**
+ * Time-ordered 128-bit transaction IDs, encoded as 26 Crockford base32 characters.
+ *
+ * Layout, most significant first: a 4-bit kind, a 60-bit epoch-millis time
+ * and a 64-bit position whose low 16 bits are the leg of the command (batch
+ * transfers carry one command with many legs). The time field has the same
+ * meaning in both modes, so IDs sort by time first:
+ * <ul>
+ *   <li>Raft: time = the command's proposal timestamp, position = log index &lt;&lt; 16 | leg.
+ *       Both come from the log entry, so every replica derives the same ID, and
+ *       the log index keeps IDs of one millisecond unique and in log order;</li>
+ *   <li>standalone: time = apply time, position = apply sequence &lt;&lt; 16 | leg.</li>
+ * </ul>
+ * The kind keeps the two modes apart. The encoding is fixed width and sorts like
+ * the number, so new {@code processed_transaction} keys append to the end of the
+ * primary key index instead of landing on random pages like UUIDs (a new leader
+ * with a slower clock can step back by the skew, but no further).
+ */
+public final class TransactionIds {
+
+    public static final int LENGTH = 26;
+
+    private static final long KIND_RAFT = 1L;
+    private static final long KIND_STANDALONE = 2L;
+    public static final int MAX_LEGS = 1 << 16;
+
+    private static final long TIME_MASK = (1L << 60) - 1;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private TransactionIds() {
+    }
+
+    public static String raft(long proposedAtMillis, long index, int leg) {
+        return encode(KIND_RAFT, proposedAtMillis, index, leg);
+    }
+
+    public static String standalone(long epochMillis, long applySequence, int leg) {
+        return encode(KIND_STANDALONE, epochMillis, applySequence, leg);
+    }
+
+    private static String encode(long kind, long timeMillis, long position, int leg) {
+        if (position < 0 || position >>> 48 != 0 || leg < 0 || leg >= MAX_LEGS) {
+            throw new IllegalArgumentException("Position " + position + " / leg " + leg + " out of range");
+        }
+        long hi = kind << 60 | (timeMillis & TIME_MASK);
+        long lo = position << 16 | leg;
+        char[] chars = new char[LENGTH];
+        // 130 bits of output for 128 bits of input: the first character carries 3 bits
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (lo & 31)];
+            lo = lo >>> 5 | hi << 59;
+            hi >>>= 5;
+        }
+        return new String(chars);
+    }
+}
@@ -2,8 +2,12 @@ package com.example.ledger.service;
 
 import com.example.ledger.config.RocksDBService;
 import com.example.ledger.model.Account;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.ledger.state.AccountExistenceIndex;
+import com.example.ledger.state.AccountHistoryIndex;
+import com.example.ledger.state.AccountRecordCodec;
+import com.example.ledger.state.HotBalanceCache;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -16,21 +20,36 @@ public class AccountBusinessService {
     private RocksDBService rocksDBService;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private HotBalanceCache hotBalanceCache;
+
+    @Autowired
+    private AccountExistenceIndex accountExistenceIndex;
+
+    @Autowired
+    private AccountRecordCodec accountRecordCodec;
+
+    @Autowired
+    private AccountHistoryIndex accountHistoryIndex;
 
     private static final String ACCOUNT_PREFIX = "account:";
 
     /**
-     * Get account data from RocksDB
+     * Get account data from RocksDB. The balance comes from the balance key
+     * (or the hot balance cache); legacy JSON records are re-encoded on read.
      */
     public Account getAccount(String accountId) {
         try {
             String accountKey = ACCOUNT_PREFIX + accountId;
-            String accountJson = rocksDBService.get(accountKey);
-            if (accountJson != null) {
-                return objectMapper.readValue(accountJson, Account.class);
+            byte[] record = rocksDBService.getBytes(accountKey);
+            if (record == null) {
+                return null;
             }
-            return null;
+            if (accountRecordCodec.isLegacy(record)) {
+                rocksDBService.putBytes(accountKey, accountRecordCodec.migrate(record));
+            }
+            Account account = accountRecordCodec.decode(accountId, record);
+            account.setBalance(getAccountBalance(accountId));
+            return account;
         } catch (Exception e) {
             log.error("Failed to get account: {}", accountId, e);
             return null;
@@ -38,12 +57,22 @@ public class AccountBusinessService {
     }
 
     /**
-     * Get account balance from RocksDB
+     * Get account balance, served from the hot balance cache when possible
      */
     public BigDecimal getAccountBalance(String accountId) {
         try {
+            BigDecimal cached = hotBalanceCache.get(accountId);
+            if (cached != null) {
+                return cached;
+            }
+            long token = hotBalanceCache.populationToken(accountId);
             String balanceValue = rocksDBService.get(accountId);
-            return balanceValue != null ? new BigDecimal(balanceValue) : BigDecimal.ZERO;
+            if (balanceValue == null) {
+                return BigDecimal.ZERO;
+            }
+            BigDecimal balance = new BigDecimal(balanceValue);
+            hotBalanceCache.populate(accountId, balance, token);
+            return balance;
         } catch (Exception e) {
             log.error("Failed to get balance for account: {}", accountId, e);
             return BigDecimal.ZERO;
@@ -63,6 +92,7 @@ public class AccountBusinessService {
     public void updateAccountBalance(String accountId, BigDecimal newBalance) {
         try {
             rocksDBService.put(accountId, newBalance.toString());
+            hotBalanceCache.put(accountId, newBalance);
             log.debug("Updated balance for account {}: {}", accountId, newBalance);
         } catch (Exception e) {
             log.error("Failed to update balance for account: {}", accountId, e);
@@ -71,21 +101,23 @@ public class AccountBusinessService {
     }
 
     /**
-     * Check if account exists in RocksDB
+     * Check if account exists, using the in-memory existence index
      */
     public boolean accountExists(String accountId) {
-        String accountKey = ACCOUNT_PREFIX + accountId;
-        log.debug("Checking account existence - accountId: {}, looking for key: {}", accountId, accountKey);
-        
-        Account account = getAccount(accountId);
-        boolean exists = account != null;
-        
+        boolean exists = accountExistenceIndex.exists(accountId);
         log.debug("Account existence check result - accountId: {}, exists: {}", accountId, exists);
-        
-        // Also check if balance exists (for debugging)
-        String balanceValue = rocksDBService.get(accountId);
-        log.debug("Balance check - accountId: {}, balance: {}", accountId, balanceValue);
-        
         return exists;
     }
-} 
\ No newline at end of file
+
+    /**
+     * One page of an account's transaction history from the RocksDB index, newest first
+     */
+    public AccountHistoryIndex.Page getHistory(String accountId, String cursor, int limit) {
+        try {
+            return accountHistoryIndex.page(accountId, cursor, limit);
+        } catch (RocksDBException e) {
+            log.error("Failed to read history for account: {}", accountId, e);
+            throw new RuntimeException("Failed to read account history", e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.ledger.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AIMD controller for one MySQL writer partition's batch size and linger time.
+ *
+ * After every committed batch the partition reports the rows it wrote, the
+ * commit latency and the occupancy of its queue (ring or partition queue):
+ * <ul>
+ *   <li>commit latency above the target halves the batch size (multiplicative decrease);</li>
+ *   <li>a full batch or a backlog grows it by one step (additive increase);</li>
+ *   <li>a backlog halves the linger time so the partition drains sooner, while small
+ *       batches committed well under the target lengthen it so that low-rate periods
+ *       still accumulate useful batches.</li>
+ * </ul>
+ * Setpoints are written by the owning writer thread only and read by the metrics endpoint.
+ */
+public class AdaptiveBatchController {
+
+    private static final double BACKLOG_OCCUPANCY = 0.5;
+
+    private final int partition;
+    private final boolean adaptive;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long minLingerMs;
+    private final long maxLingerMs;
+    private final long targetLatencyNanos;
+
+    private volatile int batchSize;
+    private volatile long lingerMs;
+    private volatile long lastLatencyNanos;
+    private volatile double lastOccupancy;
+    private volatile long increases;
+    private volatile long decreases;
+
+    /**
+     * Fixed setpoints: the largest batch, flushed as soon as the queue is drained
+     */
+    public static AdaptiveBatchController fixed(int partition, int batchSize) {
+        return new AdaptiveBatchController(partition, false, batchSize, batchSize, 0, 0, 0);
+    }
+
+    public AdaptiveBatchController(int partition, boolean adaptive, int minBatchSize, int maxBatchSize,
+                                   long minLingerMs, long maxLingerMs, long targetLatencyMs) {
+        this.partition = partition;
+        this.adaptive = adaptive;
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, maxBatchSize));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.minLingerMs = Math.max(0, Math.min(minLingerMs, maxLingerMs));
+        this.maxLingerMs = Math.max(0, maxLingerMs);
+        this.targetLatencyNanos = targetLatencyMs * 1_000_000L;
+        this.batchSize = adaptive ? this.minBatchSize : this.maxBatchSize;
+        this.lingerMs = this.minLingerMs;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * Feed back one committed batch
+     */
+    public void onBatchCommitted(int rows, long latencyNanos, double occupancy) {
+        lastLatencyNanos = latencyNanos;
+        lastOccupancy = occupancy;
+        if (!adaptive) {
+            return;
+        }
+        boolean backlog = occupancy >= BACKLOG_OCCUPANCY;
+        int size = batchSize;
+        if (latencyNanos > targetLatencyNanos) {
+            batchSize = Math.max(minBatchSize, size / 2);
+            decreases++;
+        } else if ((rows >= size || backlog) && size < maxBatchSize) {
+            batchSize = Math.min(maxBatchSize, size + minBatchSize);
+            increases++;
+        }
+
+        long linger = lingerMs;
+        if (backlog || rows >= size) {
+            lingerMs = Math.max(minLingerMs, linger / 2);
+        } else if (rows < size / 4 && latencyNanos < targetLatencyNanos / 2) {
+            lingerMs = Math.min(maxLingerMs, linger + Math.max(1, minLingerMs));
+        }
+    }
+
+    public Map<String, Object> getSetpoints() {
+        Map<String, Object> setpoints = new LinkedHashMap<>();
+        setpoints.put("partition", partition);
+        setpoints.put("adaptive", adaptive);
+        setpoints.put("batchSize", batchSize);
+        setpoints.put("lingerMs", lingerMs);
+        setpoints.put("lastCommitLatencyMs", lastLatencyNanos / 1_000_000.0);
+        setpoints.put("lastOccupancy", lastOccupancy);
+        setpoints.put("increases", increases);
+        setpoints.put("decreases", decreases);
+        return setpoints;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.ledger.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end admission control for ledger commands.
+ *
+ * Bounds the number of proposals that are queued or in flight (standalone
+ * command queue and Raft pending tasks alike), rejects the excess with a
+ * {@link LedgerOverloadException}, and slows new proposals down while the
+ * MySQL writer is lagging behind the state machine.
+ */
+@Slf4j
+@Component
+public class AdmissionControl {
+
+    @Value("${ledger.admission.max-pending-proposals:10000}")
+    private int maxPendingProposals;
+
+    @Value("${ledger.admission.retry-after-seconds:1}")
+    private long retryAfterSeconds;
+
+    @Value("${ledger.admission.writer-lag-threshold:50000}")
+    private long writerLagThreshold;
+
+    @Value("${ledger.admission.writer-lag-max-delay-ms:200}")
+    private long writerLagMaxDelayMs;
+
+    @Autowired
+    private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final AtomicInteger pendingProposals = new AtomicInteger(0);
+    private Counter admittedCounter;
+    private Counter rejectedCounter;
+    private Counter throttledCounter;
+
+    @PostConstruct
+    public void registerMetrics() {
+        admittedCounter = Counter.builder("ledger.admission.admitted")
+                .description("Proposals admitted by admission control")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("ledger.admission.rejected")
+                .description("Proposals rejected because the ledger was saturated")
+                .register(meterRegistry);
+        throttledCounter = Counter.builder("ledger.admission.throttled")
+                .description("Proposals delayed because the MySQL writer was lagging")
+                .register(meterRegistry);
+        Gauge.builder("ledger.admission.pending", pendingProposals, AtomicInteger::get)
+                .description("Proposals queued or in flight")
+                .register(meterRegistry);
+        Gauge.builder("ledger.admission.rejection.ratio", this, AdmissionControl::rejectionRatio)
+                .description("Share of proposals rejected since startup")
+                .register(meterRegistry);
+        Gauge.builder("ledger.mysql.writer.lag", asyncMySQLBatchWriter, AsyncMySQLBatchWriter::getPendingEventCount)
+                .description("Write events not yet persisted to MySQL")
+                .register(meterRegistry);
+
+        log.info("Admission control initialized: maxPendingProposals={}, writerLagThreshold={}, writerLagMaxDelayMs={}",
+                maxPendingProposals, writerLagThreshold, writerLagMaxDelayMs);
+    }
+
+    /**
+     * Reserve a proposal slot. Every successful call must be paired with {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = pendingProposals.get();
+            if (current >= maxPendingProposals) {
+                rejectedCounter.increment();
+                return false;
+            }
+            if (pendingProposals.compareAndSet(current, current + 1)) {
+                admittedCounter.increment();
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        pendingProposals.decrementAndGet();
+    }
+
+    /**
+     * Record a rejection that happened downstream of {@link #tryAcquire()},
+     * e.g. a full command queue or a busy Raft node.
+     */
+    public LedgerOverloadException reject(String reason) {
+        rejectedCounter.increment();
+        return overloaded(reason);
+    }
+
+    public LedgerOverloadException overloaded(String reason) {
+        return new LedgerOverloadException(reason, retryAfterSeconds);
+    }
+
+    /**
+     * Delay to apply before proposing, growing linearly with how far the
+     * MySQL writer lag exceeds the configured threshold.
+     */
+    public long throttleDelayMs() {
+        long lag = asyncMySQLBatchWriter.getPendingEventCount();
+        if (writerLagThreshold <= 0 || lag <= writerLagThreshold) {
+            return 0;
+        }
+        throttledCounter.increment();
+        long excess = lag - writerLagThreshold;
+        return Math.min(writerLagMaxDelayMs, Math.max(1, excess * writerLagMaxDelayMs / writerLagThreshold));
+    }
+
+    public int getPendingProposals() {
+        return pendingProposals.get();
+    }
+
+    private double rejectionRatio() {
+        double rejected = rejectedCounter.count();
+        double total = rejected + admittedCounter.count();
+        return total > 0 ? rejected / total : 0.0;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("pendingProposals", pendingProposals.get());
+        metrics.put("maxPendingProposals", maxPendingProposals);
+        metrics.put("admitted", (long) admittedCounter.count());
+        metrics.put("rejected", (long) rejectedCounter.count());
+        metrics.put("throttled", (long) throttledCounter.count());
+        metrics.put("rejectionRatio", rejectionRatio());
+        metrics.put("writerLag", asyncMySQLBatchWriter.getPendingEventCount());
+        metrics.put("writerLagThreshold", writerLagThreshold);
+        return metrics;
+    }
+}
@@ -1,29 +1,48 @@
 package com.example.ledger.service;
 
-import com.example.ledger.mapper.AccountMapper;
-import com.example.ledger.mapper.ProcessedTransactionMapper;
+import com.example.ledger.config.RocksDBService;
 import com.example.ledger.model.Account;
-import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.model.SyncCheckpoint;
+import com.example.ledger.state.AccountHandleRegistry;
 import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.LifecycleAware;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.TimeoutHandler;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -32,6 +51,10 @@ import java.util.concurrent.atomic.AtomicLong;
 @Slf4j
 @Component
 public class AsyncMySQLBatchWriter {
+    // Fills a pre-allocated ring slot field by field; the caller's record stays reusable
+    private static final EventTranslatorOneArg<WriteEvent, WriteEvent> COPY_TRANSLATOR =
+            (slot, sequence, source) -> slot.copyFrom(source);
+    
     // Configurable batch size and flush interval
     @Value("${mysql.batch.size:16384}")
     private int batchSize;
@@ -39,6 +62,20 @@ public class AsyncMySQLBatchWriter {
     @Value("${mysql.batch.interval.ms:100}")
     private long batchIntervalMs;
     
+    // Adaptive setpoints: batch size moves within [min.size, mysql.batch.size] and
+    // linger within [min.linger.ms, mysql.batch.interval.ms] to hold the commit latency target
+    @Value("${mysql.batch.adaptive.enabled:true}")
+    private boolean adaptiveBatching;
+    
+    @Value("${mysql.batch.adaptive.min.size:64}")
+    private int adaptiveMinBatchSize;
+    
+    @Value("${mysql.batch.adaptive.min.linger.ms:5}")
+    private long adaptiveMinLingerMs;
+    
+    @Value("${mysql.batch.adaptive.target.latency.ms:50}")
+    private long adaptiveTargetLatencyMs;
+    
     @Value("${mysql.writer.thread.count:4}")
     private int writerThreadCount;
     
@@ -47,9 +84,31 @@ public class AsyncMySQLBatchWriter {
     
     @Value("${mysql.use.ring.buffer:true}")
     private boolean useRingBuffer;
+    
+    @Value("${mysql.queue.capacity:100000}")
+    private int queueCapacity;
+    
+    // Rows per multi-row INSERT statement (bounds the statement / packet size)
+    @Value("${mysql.batch.statement.rows:1000}")
+    private int statementRows;
+    
+    // Upper bound for the backoff between attempts of a transiently failing batch
+    @Value("${mysql.writer.retry.max.backoff.ms:5000}")
+    private long maxRetryBackoffMs;
+    
+    // First retry delay of a transient failure; doubles per attempt (full jitter)
+    @Value("${mysql.writer.retry.base.backoff.ms:50}")
+    private long retryBaseBackoffMs;
+    
+    // How often nodes that are not writing drop outbox entries behind the sync checkpoints
+    @Value("${mysql.outbox.prune.interval.ms:30000}")
+    private long outboxPruneIntervalMs;
+    
+    @Value("${raft.enabled:false}")
+    private boolean raftEnabled;
 
-    // Traditional queue-based approach (used if useRingBuffer=false)
-    private final LinkedBlockingQueue<WriteEvent> queue = new LinkedBlockingQueue<>(100_000);
+    // Traditional queue-based approach (used if useRingBuffer=false), one queue per partition
+    private LinkedBlockingQueue<WriteEvent>[] queues;
     
     // Thread pool for batch processing
     private ExecutorService executorService;
@@ -58,19 +117,78 @@ public class AsyncMySQLBatchWriter {
     private Disruptor<WriteEvent> disruptor;
     private RingBuffer<WriteEvent> ringBuffer;
     
+    // Batch size / linger controller per partition
+    private AdaptiveBatchController[] batchControllers;
+    
     // Metrics
     private final AtomicLong totalEventsProcessed = new AtomicLong(0);
     private final AtomicLong totalBatchesProcessed = new AtomicLong(0);
+    private final AtomicLong eventSequence = new AtomicLong(0);
+    private final AtomicLong balanceEventsReceived = new AtomicLong(0);
+    private final AtomicLong balanceRowsWritten = new AtomicLong(0);
+    private final AtomicLong retryCount = new AtomicLong(0);
+    private final AtomicLong deadLetterCount = new AtomicLong(0);
     private volatile boolean running = true;
+    // Whether this node persists to MySQL: always in standalone mode, only while leader with Raft
+    private volatile boolean writing = false;
+    private ScheduledExecutorService outboxPruner;
 
+    // Where rows and checkpoints go: MySQL by default (mysql.writer.sink)
     @Autowired
-    private AccountMapper accountMapper;
+    private PersistenceSink persistenceSink;
     
     @Autowired
-    private ProcessedTransactionMapper transactionMapper;
+    private MySQLOutbox mySQLOutbox;
+    
+    @Autowired
+    private MySQLDeadLetterStore mySQLDeadLetterStore;
+    
+    @Autowired
+    private RocksDBService rocksDBService;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    @Autowired
+    private AccountHandleRegistry accountHandleRegistry;
+    
+    // Accounts whose MySQL row is known to be committed: they need no placeholder
+    private PersistedAccountRows persistedAccountRows;
+    
+    private Timer balanceUpsertTimer;
+    private Timer transactionInsertTimer;
+    private Timer batchCommitTimer;
 
     @PostConstruct
     public void start() {
+        persistedAccountRows = new PersistedAccountRows(accountHandleRegistry);
+        balanceUpsertTimer = Timer.builder("ledger.mysql.writer.statement")
+                .tag("statement", "balance_upsert")
+                .description("Latency of one multi-row balance upsert")
+                .register(meterRegistry);
+        transactionInsertTimer = Timer.builder("ledger.mysql.writer.statement")
+                .tag("statement", "transaction_insert")
+                .description("Latency of one multi-row transaction insert")
+                .register(meterRegistry);
+        batchCommitTimer = Timer.builder("ledger.mysql.writer.batch")
+                .description("Latency of writing and committing one batch")
+                .register(meterRegistry);
+        Gauge.builder("ledger.mysql.writer.balance.coalescing.ratio", this, AsyncMySQLBatchWriter::getBalanceCoalescingRatio)
+                .description("Share of balance events superseded within their flush window")
+                .register(meterRegistry);
+        FunctionCounter.builder("ledger.mysql.writer.balance.events", balanceEventsReceived, AtomicLong::get)
+                .description("Balance events received by the writer")
+                .register(meterRegistry);
+        FunctionCounter.builder("ledger.mysql.writer.balance.rows", balanceRowsWritten, AtomicLong::get)
+                .description("Balance rows written after coalescing")
+                .register(meterRegistry);
+        FunctionCounter.builder("ledger.mysql.writer.retries", retryCount, AtomicLong::get)
+                .description("Batch attempts retried after a transient MySQL failure")
+                .register(meterRegistry);
+        FunctionCounter.builder("ledger.mysql.writer.deadletters", deadLetterCount, AtomicLong::get)
+                .description("Write events moved to the dead-letter store")
+                .register(meterRegistry);
+        
         // Create named thread factory for better monitoring
         ThreadFactory threadFactory = new ThreadFactory() {
             private final AtomicInteger threadCount = new AtomicInteger(1);
@@ -82,6 +200,14 @@ public class AsyncMySQLBatchWriter {
             }
         };
         
+        batchControllers = new AdaptiveBatchController[writerThreadCount];
+        for (int i = 0; i < writerThreadCount; i++) {
+            batchControllers[i] = adaptiveBatching
+                    ? new AdaptiveBatchController(i, true, adaptiveMinBatchSize, batchSize,
+                            adaptiveMinLingerMs, batchIntervalMs, adaptiveTargetLatencyMs)
+                    : AdaptiveBatchController.fixed(i, batchSize);
+        }
+        
         // Initialize thread pool with fixed size and custom thread factory
         executorService = Executors.newFixedThreadPool(writerThreadCount, threadFactory);
         
@@ -91,8 +217,82 @@ public class AsyncMySQLBatchWriter {
             initializeTraditionalQueue();
         }
         
-        log.info("AsyncMySQLBatchWriter started: mode={}, batchSize={}, intervalMs={}, threads={}",
-                useRingBuffer ? "RingBuffer" : "Queue", batchSize, batchIntervalMs, writerThreadCount);
+        log.info("AsyncMySQLBatchWriter started: sink={}, mode={}, batchSize={}, intervalMs={}, threads={}, adaptive={}",
+                persistenceSink.name(), useRingBuffer ? "RingBuffer" : "Queue", batchSize, batchIntervalMs,
+                writerThreadCount, adaptiveBatching);
+        
+        ensureCheckpoints();
+        if (raftEnabled) {
+            // The leader resumes from the outbox when elected; everyone else only prunes it
+            outboxPruner = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mysql-outbox-pruner");
+                thread.setDaemon(true);
+                return thread;
+            });
+            outboxPruner.scheduleWithFixedDelay(this::pruneOutbox,
+                    outboxPruneIntervalMs, outboxPruneIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            resumeFromCheckpoint();
+        }
+    }
+    
+    private void ensureCheckpoints() {
+        try {
+            for (int partition = 0; partition < writerThreadCount; partition++) {
+                persistenceSink.ensureCheckpoint(writerThreadCount, partition);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to initialize MySQL sync checkpoints: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Start persisting on this node: re-deliver everything still in the outbox
+     * (crash, failed batch, shutdown, or entries applied while another node was
+     * leader). Entries at or below a partition's checkpoint are already in MySQL
+     * and are dropped inside the batch transaction, so nothing is written twice
+     * and no reconciliation scan is needed. With Raft this is called from
+     * {@code onLeaderStart}, before the new leader applies further entries.
+     */
+    public void resumeFromCheckpoint() {
+        writing = true;
+        mySQLOutbox.replay(this::enqueue);
+    }
+    
+    /**
+     * Stop persisting on this node (leadership lost). Events already queued are
+     * still flushed; the checkpoints stop them from overwriting newer rows.
+     */
+    public void pauseWriting() {
+        writing = false;
+    }
+    
+    public boolean isWriting() {
+        return writing;
+    }
+    
+    /**
+     * Drop outbox entries that the checkpoint of their partition has passed
+     */
+    private void pruneOutbox() {
+        if (writing) {
+            return; // the writer acknowledges its own entries
+        }
+        try {
+            SyncCheckpoint[] checkpoints = new SyncCheckpoint[writerThreadCount];
+            for (int partition = 0; partition < writerThreadCount; partition++) {
+                checkpoints[partition] = persistenceSink.findCheckpoint(writerThreadCount, partition);
+            }
+            long pruned = mySQLOutbox.prune(event -> {
+                SyncCheckpoint checkpoint = checkpoints[partitionOf(event)];
+                return checkpoint != null && checkpoint.covers(event.getOutboxPosition(), event.getOutboxLeg());
+            });
+            if (pruned > 0) {
+                log.debug("Pruned {} outbox entries behind the MySQL sync checkpoints", pruned);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to prune MySQL outbox: {}", e.getMessage());
+        }
     }
     
     private void initializeDisruptor(ThreadFactory threadFactory) {
@@ -105,30 +305,60 @@ public class AsyncMySQLBatchWriter {
                 bufferSize,
                 threadFactory,
                 ProducerType.MULTI, // Multiple producers can publish
-                new BlockingWaitStrategy() // Good balance between CPU usage and latency
+                // Good balance between CPU usage and latency; the timeout variant wakes
+                // idle handlers so that lingering partial batches are flushed on time
+                adaptiveBatching
+                        ? new TimeoutBlockingWaitStrategy(Math.max(1, adaptiveMinLingerMs), TimeUnit.MILLISECONDS)
+                        : new BlockingWaitStrategy()
         );
         
-        // Set up batch event handler
-        disruptor.handleEventsWith(new WriteEventBatchHandler());
+        // One batch handler per account partition; every handler sees every event
+        // and only processes its own partition, so per-account order is kept
+        WriteEventBatchHandler[] handlers = new WriteEventBatchHandler[writerThreadCount];
+        for (int i = 0; i < writerThreadCount; i++) {
+            handlers[i] = new WriteEventBatchHandler(i);
+        }
+        disruptor.handleEventsWith(handlers);
         
         // Start the disruptor
         ringBuffer = disruptor.start();
         
-        log.info("Disruptor RingBuffer initialized with size: {}", bufferSize);
+        log.info("Disruptor RingBuffer initialized with size: {}, partitions: {}", bufferSize, writerThreadCount);
     }
     
+    @SuppressWarnings("unchecked")
     private void initializeTraditionalQueue() {
-        // Start worker threads for traditional queue approach
+        queues = new LinkedBlockingQueue[writerThreadCount];
+        int partitionCapacity = Math.max(1, queueCapacity / writerThreadCount);
+        // Start one worker per partition queue for traditional queue approach
         for (int i = 0; i < writerThreadCount; i++) {
-            executorService.submit(this::runWorker);
+            queues[i] = new LinkedBlockingQueue<>(partitionCapacity);
+            int partition = i;
+            executorService.submit(() -> runWorker(partition));
         }
-        log.info("Traditional queue-based workers initialized: {}", writerThreadCount);
+        log.info("Traditional queue-based workers initialized: {} partitions x {} capacity",
+                writerThreadCount, partitionCapacity);
+    }
+    
+    /**
+     * Partition owning an event: balance updates by account, transactions by
+     * source account, so all writes of one account go through one consumer
+     */
+    int partitionOf(WriteEvent event) {
+        String key = event.getType() == WriteEvent.Type.TRANSACTION
+                ? event.getFromAccountId()
+                : event.getAccountId();
+        return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % writerThreadCount;
     }
 
     @PreDestroy
     public void stop() {
         running = false;
         
+        if (outboxPruner != null) {
+            outboxPruner.shutdownNow();
+        }
+        
         if (disruptor != null) {
             disruptor.shutdown();
             log.info("Disruptor shutdown completed");
@@ -160,33 +390,77 @@ public class AsyncMySQLBatchWriter {
             return;
         }
         
+        event.setSequence(eventSequence.incrementAndGet());
+        
         if (useRingBuffer) {
-            // Publish to the ring buffer
-            long sequence = ringBuffer.next();
+            // Translate into the pre-allocated slot: no allocation on the producer thread
+            ringBuffer.publishEvent(COPY_TRANSLATOR, event);
+        } else {
+            // Use traditional queue; block instead of dropping so a full queue
+            // pushes back on the producer (admission control throttles upstream).
+            // Callers reuse their records, so the queue gets its own copy.
+            LinkedBlockingQueue<WriteEvent> queue = queues[partitionOf(event)];
+            WriteEvent copy = new WriteEvent();
+            copy.copyFrom(event);
             try {
-                WriteEvent bufferedEvent = ringBuffer.get(sequence);
-                // Copy event data to the pre-allocated event in the ring
-                bufferedEvent.setType(event.getType());
-                bufferedEvent.setAccountId(event.getAccountId());
-                bufferedEvent.setBalance(event.getBalance());
-                bufferedEvent.setTransaction(event.getTransaction());
-                bufferedEvent.setEventTime(event.getEventTime());
-            } finally {
-                ringBuffer.publish(sequence);
+                if (!queue.offer(copy)) {
+                    log.warn("MySQL write queue is full ({}), applying backpressure", queue.size());
+                    queue.put(copy);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while enqueueing MySQL write event: {}", event);
             }
-        } else {
-            // Use traditional queue
-            boolean offered = queue.offer(event);
-            if (!offered) {
-                log.error("MySQL write queue is full! Dropping event: {}", event);
+        }
+    }
+    
+    /**
+     * Number of events accepted but not yet handed to a MySQL batch (writer lag)
+     */
+    public long getPendingEventCount() {
+        if (useRingBuffer) {
+            return ringBuffer != null ? ringBuffer.getBufferSize() - ringBuffer.remainingCapacity() : 0;
+        }
+        long pending = 0;
+        if (queues != null) {
+            for (LinkedBlockingQueue<WriteEvent> queue : queues) {
+                pending += queue.size();
             }
         }
+        return pending;
     }
 
     /**
-     * Worker method for traditional queue-based approach
+     * Share of a partition's queue capacity in use (the ring is shared by all partitions)
+     */
+    private double occupancyOf(int partition) {
+        if (useRingBuffer) {
+            return ringBuffer != null ? (double) getPendingEventCount() / ringBuffer.getBufferSize() : 0.0;
+        }
+        LinkedBlockingQueue<WriteEvent> queue = queues[partition];
+        int capacity = queue.size() + queue.remainingCapacity();
+        return capacity > 0 ? (double) queue.size() / capacity : 0.0;
+    }
+    
+    /**
+     * Current batch size and linger setpoints of every partition
+     */
+    public List<Map<String, Object>> getBatchSetpoints() {
+        List<Map<String, Object>> setpoints = new ArrayList<>();
+        if (batchControllers != null) {
+            for (AdaptiveBatchController controller : batchControllers) {
+                setpoints.add(controller.getSetpoints());
+            }
+        }
+        return setpoints;
+    }
+    
+    /**
+     * Worker method for traditional queue-based approach; drains one partition queue
      */
-    private void runWorker() {
+    private void runWorker(int partition) {
+        LinkedBlockingQueue<WriteEvent> queue = queues[partition];
+        AdaptiveBatchController controller = batchControllers[partition];
         List<WriteEvent> batch = new ArrayList<>(batchSize);
         while (running) {
             try {
@@ -196,9 +470,19 @@ public class AsyncMySQLBatchWriter {
                 
                 batch.clear();
                 batch.add(first);
-                queue.drainTo(batch, batchSize - 1);
+                // Fill up to the current batch size, lingering for stragglers
+                int targetSize = controller.getBatchSize();
+                long deadline = System.currentTimeMillis() + controller.getLingerMs();
+                while (batch.size() < targetSize) {
+                    queue.drainTo(batch, targetSize - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= targetSize || wait <= 0) break;
+                    WriteEvent next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
                 
-                processBatch(batch);
+                processBatch(batch, partition);
                 totalBatchesProcessed.incrementAndGet();
                 totalEventsProcessed.addAndGet(batch.size());
             } catch (InterruptedException e) {
@@ -211,126 +495,460 @@ public class AsyncMySQLBatchWriter {
     }
 
     /**
-     * Process a batch of write events
+     * Process a batch of write events of one partition as a single sink transaction:
+     * the partition's sync checkpoint is locked, events at or below it are dropped,
+     * the rest is written with multi-row statements and the checkpoint advanced to
+     * the highest outbox entry (position, leg) in the batch before the commit.
      */
-    private void processBatch(List<WriteEvent> batch) {
+    void processBatch(List<WriteEvent> batch, int partition) {
         if (batch.isEmpty()) return;
         
-        List<Account> balanceUpdates = new ArrayList<>();
-        List<ProcessedTransaction> transactions = new ArrayList<>();
-        
-        // Categorize events
-        for (WriteEvent event : batch) {
-            if (event.getType() == WriteEvent.Type.BALANCE) {
-                // Only update balance field
-                Account acc = new Account();
-                acc.setAccountId(event.getAccountId());
-                acc.setBalance(event.getBalance());
-                balanceUpdates.add(acc);
-            } else if (event.getType() == WriteEvent.Type.TRANSACTION) {
-                transactions.add(event.getTransaction());
-            }
+        long start = System.nanoTime();
+        if (writeWithRetry(batch, partition)) {
+            long latency = System.nanoTime() - start;
+            batchCommitTimer.record(latency, TimeUnit.NANOSECONDS);
+            batchControllers[partition].onBatchCommitted(batch.size(), latency, occupancyOf(partition));
         }
-        
-        // Process balance updates
-        if (!balanceUpdates.isEmpty()) {
+    }
+    
+    /**
+     * Write events in order, classifying failures: transient errors (deadlocks,
+     * lock wait timeouts, lost connections) are retried with jittered exponential
+     * backoff, anything else is narrowed down by bisection until the poison rows
+     * are isolated and dead-lettered. Returns false only if the writer stopped
+     * before the events were committed; they then stay in the outbox.
+     *
+     * A partition never moves past an event that is neither committed nor
+     * dead-lettered: its checkpoint is only correct if entries commit in order.
+     */
+    private boolean writeWithRetry(List<WriteEvent> events, int partition) {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
             try {
-                for (Account acc : balanceUpdates) {
-                    int updated = accountMapper.updateBalanceByAccountId(acc.getAccountId(), acc.getBalance());
-                    if (updated == 0) {
-                        // Insert new account if not exists
-                        try {
-                            String[] parts = acc.getAccountId().split(":");
-                            if (parts.length == 2) {
-                                String userId = parts[0];
-                                String typeStr = parts[1];
-                                Account.AccountType type = Account.AccountType.fromValue(typeStr);
-                                Account newAcc = new Account();
-                                newAcc.setAccountId(acc.getAccountId());
-                                newAcc.setUserId(userId);
-                                newAcc.setAccountType(type);
-                                newAcc.setBalance(acc.getBalance());
-                                newAcc.setCreatedAt(java.time.LocalDateTime.now());
-                                newAcc.setUpdatedAt(java.time.LocalDateTime.now());
-                                accountMapper.insert(newAcc);
-                                if (log.isDebugEnabled()) {
-                                    log.debug("Inserted new account {} to MySQL", newAcc.getAccountId());
-                                }
-                            } else {
-                                log.error("Invalid accountId format: {}", acc.getAccountId());
-                            }
-                        } catch (Exception ex) {
-                            log.error("Failed to insert new account {}: {}", acc.getAccountId(), ex.getMessage(), ex);
-                        }
-                    }
-                }
+                ensureAccountRows(events);
+                int[] written = persistenceSink.inTransaction(() -> writeCheckpointed(events, partition));
+                markPersisted(events);
+                balanceRowsWritten.addAndGet(written[0]);
+                balanceEventsReceived.addAndGet(written[2]);
+                // Only now is it safe to drop the durable copies (skipped events included)
+                mySQLOutbox.acknowledge(events);
                 if (log.isDebugEnabled()) {
-                    log.debug("Batch updated {} balances to MySQL", balanceUpdates.size());
+                    log.debug("Partition {} committed {} balances and {} transactions to MySQL in {} ms",
+                            partition, written[0], written[1], (System.nanoTime() - start) / 1_000_000);
                 }
+                return true;
             } catch (Exception e) {
-                log.error("Failed to batch update balances to MySQL: {}", e.getMessage(), e);
+                if (!isTransient(e)) {
+                    log.warn("MySQL rejected a batch of {} events (partition {}), bisecting: {}",
+                            events.size(), partition, e.getMessage());
+                    return bisect(events, partition, e);
+                }
+                retryCount.incrementAndGet();
+                log.warn("Transient MySQL failure writing {} events (partition {}, attempt {}): {}",
+                        events.size(), partition, attempt, e.getMessage());
+            }
+            if (!running || !backOff(attempt)) {
+                return false;
             }
         }
-        
-        // Process transactions
-        if (!transactions.isEmpty()) {
+    }
+    
+    private boolean bisect(List<WriteEvent> events, int partition, Exception cause) {
+        if (events.size() == 1) {
+            return deadLetter(events.get(0), partition, cause);
+        }
+        int middle = events.size() / 2;
+        return writeWithRetry(events.subList(0, middle), partition)
+                && writeWithRetry(events.subList(middle, events.size()), partition);
+    }
+    
+    /**
+     * Park a poison event in the dead-letter store and move the checkpoint past it
+     */
+    private boolean deadLetter(WriteEvent event, int partition, Exception cause) {
+        try {
+            mySQLDeadLetterStore.put(event, rootMessage(cause));
+        } catch (Exception e) {
+            log.error("Failed to dead-letter MySQL write event at position {}: {}",
+                    event.getOutboxPosition(), e.getMessage(), e);
+            return false;
+        }
+        for (int attempt = 1; ; attempt++) {
             try {
-                for (ProcessedTransaction tx : transactions) {
-                    transactionMapper.insert(tx);
+                persistenceSink.inTransaction(() -> skipCheckpointed(event, partition));
+                mySQLOutbox.acknowledge(List.of(event));
+                deadLetterCount.incrementAndGet();
+                log.error("Dead-lettered MySQL {} event at position {} leg {} (partition {}): {}",
+                        event.getType(), event.getOutboxPosition(), event.getOutboxLeg(), partition, rootMessage(cause));
+                return true;
+            } catch (Exception e) {
+                log.warn("Failed to advance checkpoint past dead letter (partition {}, attempt {}): {}",
+                        partition, attempt, e.getMessage());
+            }
+            if (!running || !backOff(attempt)) {
+                return false;
+            }
+        }
+    }
+    
+    private boolean skipCheckpointed(WriteEvent event, int partition) {
+        SyncCheckpoint checkpoint = persistenceSink.lockCheckpoint(writerThreadCount, partition);
+        if (event.isStaged() && checkpoint != null
+                && !checkpoint.covers(event.getOutboxPosition(), event.getOutboxLeg())) {
+            persistenceSink.advanceCheckpoint(writerThreadCount, partition,
+                    event.getOutboxPosition(), event.getOutboxLeg());
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Full-jitter exponential backoff; false if interrupted
+     */
+    private boolean backOff(int attempt) {
+        long ceiling = Math.min(maxRetryBackoffMs, retryBaseBackoffMs << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(Math.max(1, ceiling) + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Deadlocks (MySQL 1213), lock wait timeouts (1205), serialization failures
+     * (SQLState 40xxx), connection problems (08xxx) and Spring's transient or
+     * recoverable exceptions are worth retrying as they are
+     */
+    static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof TransientDataAccessException || t instanceof RecoverableDataAccessException
+                    || t instanceof CannotCreateTransactionException
+                    || t instanceof SQLTransientException || t instanceof SQLRecoverableException) {
+                return true;
+            }
+            if (t instanceof SQLException sql) {
+                String state = sql.getSQLState();
+                if (sql.getErrorCode() == 1213 || sql.getErrorCode() == 1205
+                        || (state != null && (state.startsWith("40") || state.startsWith("08")))) {
+                    return true;
                 }
-                if (log.isDebugEnabled()) {
-                    log.debug("Batch inserted {} transactions to MySQL", transactions.size());
+            }
+        }
+        return false;
+    }
+    
+    private static String rootMessage(Throwable error) {
+        Throwable root = error;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        return root.getClass().getSimpleName() + ": " + root.getMessage();
+    }
+    
+    /**
+     * Re-write dead-lettered rows outside the partition pipeline (their positions
+     * are already behind the checkpoints). Balance rows take the account's current
+     * RocksDB balance so a late replay cannot roll MySQL back; transaction rows are
+     * inserted as recorded. Rows that fail again stay in the store.
+     */
+    public Map<String, Object> replayDeadLetters(int limit) {
+        int replayed = 0;
+        int failed = 0;
+        List<String> errors = new ArrayList<>();
+        for (MySQLDeadLetterStore.DeadLetter deadLetter : mySQLDeadLetterStore.list(limit)) {
+            WriteEvent event = deadLetter.event();
+            try {
+                if (event.getType() == WriteEvent.Type.BALANCE) {
+                    String current = rocksDBService.get(event.getAccountId());
+                    if (current != null) {
+                        event.setBalance(new BigDecimal(current));
+                    }
                 }
+                persistenceSink.inTransaction(() -> {
+                    if (event.getType() == WriteEvent.Type.BALANCE) {
+                        persistenceSink.upsertBalances(List.of(event));
+                    } else {
+                        List<Account> placeholders = accountRows(List.of(event), false);
+                        if (!placeholders.isEmpty()) {
+                            persistenceSink.ensureAccounts(placeholders);
+                        }
+                        persistenceSink.insertTransactions(List.of(event));
+                    }
+                    return null;
+                });
+                mySQLDeadLetterStore.delete(event);
+                replayed++;
             } catch (Exception e) {
-                log.error("Failed to batch insert transactions to MySQL: {}", e.getMessage(), e);
+                failed++;
+                errors.add(event.getOutboxPosition() + "/" + event.getOutboxLeg() + ": " + rootMessage(e));
+            }
+        }
+        log.info("Replayed {} MySQL dead letters, {} failed again", replayed, failed);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("replayed", replayed);
+        result.put("failed", failed);
+        result.put("errors", errors);
+        result.put("remaining", mySQLDeadLetterStore.count());
+        return result;
+    }
+    
+    /**
+     * Body of the batch transaction; returns the balance rows and transaction rows
+     * written and the balance events they were coalesced from
+     */
+    private int[] writeCheckpointed(List<WriteEvent> batch, int partition) {
+        SyncCheckpoint checkpoint = persistenceSink.lockCheckpoint(writerThreadCount, partition);
+        if (checkpoint == null) {
+            persistenceSink.ensureCheckpoint(writerThreadCount, partition);
+            checkpoint = persistenceSink.lockCheckpoint(writerThreadCount, partition);
+        }
+        long highestIndex = checkpoint.getLastIndex();
+        int highestLeg = checkpoint.getLastLeg();
+        
+        // Balance events carry absolute values: within one flush only the newest per account matters
+        Map<String, WriteEvent> latestBalances = new LinkedHashMap<>();
+        List<WriteEvent> transactions = new ArrayList<>();
+        int balanceEvents = 0;
+        
+        // Categorize events
+        for (WriteEvent event : batch) {
+            if (event.isStaged()) {
+                long position = event.getOutboxPosition();
+                int leg = event.getOutboxLeg();
+                if (checkpoint.covers(position, leg)) {
+                    continue; // already persisted, possibly by a previous leader
+                }
+                if (position > highestIndex || (position == highestIndex && leg > highestLeg)) {
+                    highestIndex = position;
+                    highestLeg = leg;
+                }
+            }
+            if (event.getType() == WriteEvent.Type.BALANCE) {
+                balanceEvents++;
+                latestBalances.merge(event.getAccountId(), event,
+                        (current, candidate) -> candidate.getSequence() > current.getSequence() ? candidate : current);
+            } else if (event.getType() == WriteEvent.Type.TRANSACTION) {
+                transactions.add(event);
             }
         }
+        
+        // Events are handed to the sink directly (JDBC parameters), no intermediate row objects
+        List<WriteEvent> balanceUpdates = new ArrayList<>(latestBalances.values());
+        
+        // Account rows exist (ensureAccountRows); balances before the transactions that reference them
+        for (List<WriteEvent> rows : chunks(balanceUpdates)) {
+            balanceUpsertTimer.record(() -> persistenceSink.upsertBalances(rows));
+        }
+        for (List<WriteEvent> rows : chunks(transactions)) {
+            transactionInsertTimer.record(() -> persistenceSink.insertTransactions(rows));
+        }
+        if (!checkpoint.covers(highestIndex, highestLeg)) {
+            persistenceSink.advanceCheckpoint(writerThreadCount, partition, highestIndex, highestLeg);
+        }
+        return new int[] {balanceUpdates.size(), transactions.size(), balanceEvents};
     }
     
     /**
-     * Disruptor event handler for batch processing
+     * Placeholder account row; user id and type are derived from the account ID
      */
-    private class WriteEventBatchHandler implements EventHandler<WriteEvent> {
+    private Account toAccountRow(String accountId) {
+        int separator = accountId != null ? accountId.lastIndexOf(':') : -1;
+        if (separator <= 0) {
+            log.error("Invalid accountId format: {}", accountId);
+            return null;
+        }
+        try {
+            Account acc = new Account();
+            acc.setAccountId(accountId);
+            acc.setUserId(accountId.substring(0, separator));
+            acc.setAccountType(Account.AccountType.fromValue(accountId.substring(separator + 1)));
+            return acc;
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid account type in accountId: {}", accountId);
+            return null;
+        }
+    }
+    
+    /**
+     * Create the account rows a batch references that are not known to be in
+     * MySQL, in their own short transaction before the batch. Accounts owned by
+     * other partitions may not be in MySQL yet; if the placeholders were inserted
+     * inside the batch transaction, two partitions could each wait for the other's
+     * uncommitted new account row. Committed first and in key order, the batch
+     * itself only updates rows that already exist. Balances are not touched, so
+     * the foreign keys hold without racing the owning partition. Once an
+     * account's row is known to be committed it is skipped, so in steady state
+     * no extra transaction is opened.
+     */
+    private void ensureAccountRows(List<WriteEvent> events) {
+        List<Account> accounts = accountRows(events, true);
+        if (accounts.isEmpty()) {
+            return;
+        }
+        persistenceSink.inTransaction(() -> {
+            for (List<Account> rows : chunks(accounts)) {
+                persistenceSink.ensureAccounts(rows);
+            }
+            return null;
+        });
+        for (Account account : accounts) {
+            persistedAccountRows.mark(account.getAccountId());
+        }
+    }
+    
+    /**
+     * After a commit every account the batch referenced has a row: balances were
+     * upserted and transaction rows passed their foreign keys
+     */
+    private void markPersisted(List<WriteEvent> events) {
+        for (WriteEvent event : events) {
+            if (event.getType() == WriteEvent.Type.TRANSACTION) {
+                persistedAccountRows.mark(event.getFromAccountId());
+                persistedAccountRows.mark(event.getToAccountId());
+            } else if (event.getAccountId() != null) {
+                persistedAccountRows.mark(event.getAccountId());
+            }
+        }
+    }
+    
+    private List<Account> accountRows(List<WriteEvent> events, boolean unknownOnly) {
+        TreeMap<String, Account> rows = new TreeMap<>(); // sorted: stable lock order
+        for (WriteEvent event : events) {
+            if (event.getType() == WriteEvent.Type.TRANSACTION) {
+                addAccountRow(rows, event.getFromAccountId(), unknownOnly);
+                addAccountRow(rows, event.getToAccountId(), unknownOnly);
+            } else {
+                addAccountRow(rows, event.getAccountId(), unknownOnly);
+            }
+        }
+        return new ArrayList<>(rows.values());
+    }
+    
+    private void addAccountRow(TreeMap<String, Account> rows, String accountId, boolean unknownOnly) {
+        if (accountId == null || rows.containsKey(accountId)
+                || (unknownOnly && persistedAccountRows.contains(accountId))) {
+            return;
+        }
+        Account acc = toAccountRow(accountId);
+        if (acc != null) {
+            rows.put(accountId, acc);
+        }
+    }
+    
+    private <T> List<List<T>> chunks(List<T> rows) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i += statementRows) {
+            chunks.add(rows.subList(i, Math.min(rows.size(), i + statementRows)));
+        }
+        return chunks;
+    }
+    
+    /**
+     * Disruptor event handler for batch processing.
+     *
+     * The batch holds references to the ring slots themselves while a Disruptor
+     * batch is being processed. Slots may be reused once {@code onEvent} returns
+     * for the end of a Disruptor batch, so events still lingering at that point
+     * are copied into the handler's own pre-allocated staging records.
+     */
+    private class WriteEventBatchHandler implements EventHandler<WriteEvent>, TimeoutHandler, LifecycleAware {
+        private final int partition;
+        private final AdaptiveBatchController controller;
         private final List<WriteEvent> batch = new ArrayList<>(batchSize);
-        private long lastFlushTime = System.currentTimeMillis();
+        private final List<WriteEvent> staging = new ArrayList<>();
+        private int stagedCount; // batch[0, stagedCount) are staging copies
+        private long firstEventTime;
+        
+        WriteEventBatchHandler(int partition) {
+            this.partition = partition;
+            this.controller = batchControllers[partition];
+        }
         
         @Override
         public void onEvent(WriteEvent event, long sequence, boolean endOfBatch) {
-            batch.add(copyEvent(event));
+            if (partitionOf(event) == partition) {
+                if (batch.isEmpty()) {
+                    firstEventTime = System.currentTimeMillis();
+                }
+                batch.add(event);
+            }
             
-            boolean timeToFlush = batch.size() >= batchSize || 
-                                 (System.currentTimeMillis() - lastFlushTime) >= batchIntervalMs ||
-                                 endOfBatch;
-                                 
-            if (timeToFlush && !batch.isEmpty()) {
-                processBatch(batch);
-                totalBatchesProcessed.incrementAndGet();
-                totalEventsProcessed.addAndGet(batch.size());
-                batch.clear();
-                lastFlushTime = System.currentTimeMillis();
+            if (batch.size() >= controller.getBatchSize() || (endOfBatch && lingerExpired())) {
+                flush();
+            } else if (endOfBatch) {
+                stageRingReferences();
             }
         }
         
-        private WriteEvent copyEvent(WriteEvent event) {
-            // Create a copy to avoid issues with reused ring buffer slots
-            WriteEvent copy = new WriteEvent();
-            copy.setType(event.getType());
-            copy.setAccountId(event.getAccountId());
-            copy.setBalance(event.getBalance());
-            copy.setTransaction(event.getTransaction());
-            copy.setEventTime(event.getEventTime());
-            return copy;
+        @Override
+        public void onTimeout(long sequence) {
+            if (lingerExpired()) {
+                flush();
+            }
+        }
+        
+        @Override
+        public void onStart() {
+        }
+        
+        @Override
+        public void onShutdown() {
+            // Persist whatever is still lingering; on failure it stays in the outbox
+            flush();
+        }
+        
+        private boolean lingerExpired() {
+            return !batch.isEmpty() && System.currentTimeMillis() - firstEventTime >= controller.getLingerMs();
+        }
+        
+        private void stageRingReferences() {
+            for (int i = stagedCount; i < batch.size(); i++) {
+                if (i == staging.size()) {
+                    staging.add(new WriteEvent());
+                }
+                WriteEvent copy = staging.get(i);
+                copy.copyFrom(batch.get(i));
+                batch.set(i, copy);
+            }
+            stagedCount = batch.size();
         }
+        
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            processBatch(batch, partition);
+            totalBatchesProcessed.incrementAndGet();
+            totalEventsProcessed.addAndGet(batch.size());
+            batch.clear();
+            stagedCount = 0;
+        }
+    }
+    
+    /**
+     * Share of balance events dropped by last-write-wins coalescing
+     */
+    public double getBalanceCoalescingRatio() {
+        long received = balanceEventsReceived.get();
+        return received > 0 ? 1.0 - (double) balanceRowsWritten.get() / received : 0.0;
     }
     
     /**
      * Get metrics about the writer's performance
      */
     public String getMetrics() {
-        return String.format("Events: %d, Batches: %d, Avg batch size: %.2f",
+        return String.format("Events: %d, Batches: %d, Avg batch size: %.2f, Balance events: %d, Balance rows written: %d, Coalescing ratio: %.4f, Outbox pending: %d, Retries: %d, Dead letters: %d",
                 totalEventsProcessed.get(),
                 totalBatchesProcessed.get(),
                 totalBatchesProcessed.get() > 0 ? 
-                    (double) totalEventsProcessed.get() / totalBatchesProcessed.get() : 0);
+                    (double) totalEventsProcessed.get() / totalBatchesProcessed.get() : 0,
+                balanceEventsReceived.get(),
+                balanceRowsWritten.get(),
+                getBalanceCoalescingRatio(),
+                mySQLOutbox.getPendingEntries(),
+                retryCount.get(),
+                mySQLDeadLetterStore.count());
     }
 } 
\ No newline at end of file
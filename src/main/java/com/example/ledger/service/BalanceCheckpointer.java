@@ -0,0 +1,266 @@
+package com.example.ledger.service;
+
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.Account;
+import com.example.ledger.state.AccountHandleRegistry;
+import com.example.ledger.state.DirtyAccountSet;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.Snapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balance persistence by periodic checkpoint ({@code mysql.balance.mode=checkpoint}).
+ *
+ * Instead of streaming a BALANCE row per transfer leg, the state machines mark
+ * the account handle in a {@link DirtyAccountSet} after their RocksDB write.
+ * Every {@code mysql.balance.checkpoint.interval.ms} the writing node drains the
+ * set, reads the current balances of those accounts from one RocksDB snapshot
+ * and upserts them through the {@link PersistenceSink}, so MySQL balance writes
+ * scale with distinct active accounts rather than with transfers. Transaction
+ * rows still stream through {@link AsyncMySQLBatchWriter}.
+ *
+ * Marks are taken after the RocksDB write and drained before the snapshot, so a
+ * change is either in the snapshot or marked again for the next checkpoint.
+ * The set is in memory: unless the previous process flushed it on a clean
+ * shutdown, every account is marked at startup. Nodes that are not writing keep
+ * accumulating marks and flush them once they become the writer.
+ */
+@Slf4j
+@Component
+public class BalanceCheckpointer {
+
+    private static final String CLEAN_SHUTDOWN_KEY = "meta:balance-checkpoint-clean";
+
+    @Value("${mysql.balance.mode:event}")
+    private String balanceMode;
+
+    // Upper bound on how long a balance change waits before it reaches MySQL
+    @Value("${mysql.balance.checkpoint.interval.ms:1000}")
+    private long checkpointIntervalMs;
+
+    @Value("${mysql.batch.statement.rows:1000}")
+    private int statementRows;
+
+    @Autowired
+    private RocksDBService rocksDBService;
+
+    @Autowired
+    private AccountHandleRegistry handleRegistry;
+
+    @Autowired
+    private PersistenceSink persistenceSink;
+
+    @Autowired
+    private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final DirtyAccountSet dirtyAccounts = new DirtyAccountSet();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong balanceRowsWritten = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastCheckpointMillis;
+    private volatile int lastCheckpointRows;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        if (rocksDBService.get(CLEAN_SHUTDOWN_KEY) != null) {
+            rocksDBService.delete(CLEAN_SHUTDOWN_KEY);
+        } else {
+            markAllAccounts();
+        }
+        Gauge.builder("ledger.mysql.balance.dirty", dirtyAccounts, DirtyAccountSet::cardinality)
+                .description("Accounts whose balance is not yet checkpointed to MySQL")
+                .register(meterRegistry);
+        FunctionCounter.builder("ledger.mysql.balance.checkpoint.rows", balanceRowsWritten, AtomicLong::get)
+                .description("Balance rows written by balance checkpoints")
+                .register(meterRegistry);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mysql-balance-checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly,
+                checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("Balance checkpointing enabled: intervalMs={}", checkpointIntervalMs);
+    }
+
+    public boolean isEnabled() {
+        return "checkpoint".equalsIgnoreCase(balanceMode);
+    }
+
+    /**
+     * Called by the state machines after the account's balance was written to RocksDB
+     */
+    public void markDirty(String accountId) {
+        if (isEnabled()) {
+            dirtyAccounts.mark(handleRegistry.getOrAssign(accountId));
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            log.warn("Balance checkpoint failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Write the current balance of every dirty account; returns the rows written.
+     * Accounts that could not be written are marked again.
+     */
+    public synchronized int checkpoint() throws Exception {
+        if (!isEnabled() || !asyncMySQLBatchWriter.isWriting()) {
+            return 0;
+        }
+        int[] handles = dirtyAccounts.drain();
+        int count = handles.length;
+        if (count == 0) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int written = 0;
+        Snapshot snapshot = rocksDBService.getSnapshot();
+        try (ReadOptions options = new ReadOptions().setSnapshot(snapshot)) {
+            for (int from = 0; from < count; from += statementRows) {
+                int to = Math.min(count, from + statementRows);
+                // Leadership may have moved while the previous chunk was written
+                if (!asyncMySQLBatchWriter.isWriting()) {
+                    remark(handles, from, count);
+                    break;
+                }
+                try {
+                    written += writeChunk(options, handles, from, to);
+                } catch (Exception e) {
+                    remark(handles, from, count);
+                    failures.incrementAndGet();
+                    throw e;
+                }
+            }
+        } finally {
+            rocksDBService.releaseSnapshot(snapshot);
+        }
+        checkpoints.incrementAndGet();
+        balanceRowsWritten.addAndGet(written);
+        lastCheckpointMillis = System.currentTimeMillis();
+        lastCheckpointRows = written;
+        if (log.isDebugEnabled()) {
+            log.debug("Balance checkpoint wrote {} of {} dirty accounts in {} ms",
+                    written, count, lastCheckpointMillis - start);
+        }
+        return written;
+    }
+
+    private int writeChunk(ReadOptions options, int[] handles, int from, int to) throws Exception {
+        List<String> accountIds = new ArrayList<>(to - from);
+        List<byte[]> keys = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            String accountId = handleRegistry.accountIdOf(handles[i]);
+            if (accountId != null) {
+                accountIds.add(accountId);
+                keys.add(accountId.getBytes());
+            }
+        }
+        List<byte[]> values = rocksDBService.multiGet(options, keys);
+        List<WriteEvent> rows = new ArrayList<>(accountIds.size());
+        for (int i = 0; i < accountIds.size(); i++) {
+            String accountId = accountIds.get(i);
+            byte[] value = values.get(i);
+            int separator = accountId.lastIndexOf(':');
+            if (value == null || separator <= 0) {
+                continue;
+            }
+            try {
+                rows.add(new WriteEvent().balance(accountId, accountId.substring(0, separator),
+                        Account.AccountType.fromValue(accountId.substring(separator + 1)),
+                        new BigDecimal(new String(value))));
+            } catch (IllegalArgumentException e) {
+                log.error("Skipping balance checkpoint of invalid account {}: {}", accountId, e.getMessage());
+            }
+        }
+        if (!rows.isEmpty()) {
+            persistenceSink.inTransaction(() -> {
+                persistenceSink.upsertBalances(rows);
+                return null;
+            });
+        }
+        return rows.size();
+    }
+
+    private void remark(int[] handles, int from, int to) {
+        for (int i = from; i < to; i++) {
+            dirtyAccounts.mark(handles[i]);
+        }
+    }
+
+    private void markAllAccounts() {
+        long[] marked = {0};
+        rocksDBService.scanPrefix("account:", (key, value) -> {
+            markDirty(key.substring("account:".length()));
+            marked[0]++;
+        });
+        log.info("No clean balance checkpoint from the previous run; marked {} accounts dirty", marked[0]);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", isEnabled() ? "checkpoint" : "event");
+        if (isEnabled()) {
+            stats.put("intervalMs", checkpointIntervalMs);
+            stats.put("dirtyAccounts", dirtyAccounts.cardinality());
+            stats.put("checkpoints", checkpoints.get());
+            stats.put("balanceRowsWritten", balanceRowsWritten.get());
+            stats.put("failures", failures.get());
+            stats.put("lastCheckpointMillis", lastCheckpointMillis);
+            stats.put("lastCheckpointRows", lastCheckpointRows);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            // Only a writer that flushed everything may skip the full re-mark next time
+            if (asyncMySQLBatchWriter.isWriting()) {
+                checkpoint();
+                if (dirtyAccounts.cardinality() == 0) {
+                    rocksDBService.put(CLEAN_SHUTDOWN_KEY, Long.toString(System.currentTimeMillis()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Final balance checkpoint failed: {}", e.getMessage());
+        }
+    }
+}
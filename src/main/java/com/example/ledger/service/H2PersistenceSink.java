@@ -0,0 +1,57 @@
+package com.example.ledger.service;
+
+import com.example.ledger.mapper.AccountMapper;
+import com.example.ledger.mapper.ProcessedTransactionMapper;
+import com.example.ledger.mapper.SyncCheckpointMapper;
+import com.example.ledger.model.Account;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+/**
+ * H2 sink for tests and benchmarks: the same rows written with H2's native
+ * {@code MERGE INTO}, so it does not depend on the MySQL compatibility mode
+ */
+@Component
+@ConditionalOnProperty(name = "mysql.writer.sink", havingValue = "h2")
+public class H2PersistenceSink extends JdbcPersistenceSink {
+
+    private final AccountMapper accountMapper;
+    private final ProcessedTransactionMapper transactionMapper;
+
+    public H2PersistenceSink(PlatformTransactionManager transactionManager,
+                             SyncCheckpointMapper syncCheckpointMapper,
+                             AccountMapper accountMapper,
+                             ProcessedTransactionMapper transactionMapper) {
+        super(transactionManager, syncCheckpointMapper);
+        this.accountMapper = accountMapper;
+        this.transactionMapper = transactionMapper;
+    }
+
+    @Override
+    public String name() {
+        return "h2";
+    }
+
+    @Override
+    public void ensureCheckpoint(int partitionCount, int partition) {
+        syncCheckpointMapper.mergeCheckpoint(partitionCount, partition);
+    }
+
+    @Override
+    public void upsertBalances(List<WriteEvent> balances) {
+        accountMapper.mergeBalances(balances);
+    }
+
+    @Override
+    public void ensureAccounts(List<Account> accounts) {
+        accountMapper.mergeMissingAccounts(accounts);
+    }
+
+    @Override
+    public void insertTransactions(List<WriteEvent> transactions) {
+        transactionMapper.mergeBatch(transactions);
+    }
+}
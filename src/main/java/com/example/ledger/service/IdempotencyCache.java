@@ -0,0 +1,449 @@
+package com.example.ledger.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded, segmented cache of idempotency results.
+ *
+ * Each segment is guarded by its own monitor and holds a hash map, two
+ * access-ordered queues and a hierarchical timing wheel, all linked through the
+ * same intrusive node, so a lookup does not allocate:
+ * <ul>
+ *   <li>W-TinyLFU admission: new keys enter a small window queue (1%); the
+ *       window's oldest entry then competes with the main queue's oldest entry
+ *       and the one with the lower estimated access frequency (4-bit count-min
+ *       sketch, halved periodically) is evicted;</li>
+ *   <li>expiry: entries live {@code ttl} from creation; the timing wheel
+ *       (64 slots per level, 1-second ticks) drops them without scanning the
+ *       map, and lookups compare primitive epoch millis so an entry past its
+ *       deadline is never returned even before its slot fires.</li>
+ * </ul>
+ */
+public class IdempotencyCache {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SLOTS = 1 << WHEEL_BITS;
+    private static final int WHEEL_LEVELS = 4;
+    private static final long TICK_MILLIS = 1000;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long capacity;
+    private final long ttlMillis;
+
+    public IdempotencyCache(long capacity, int segmentCount, long ttlMillis, long nowMillis) {
+        int count = Integer.highestOneBit(Math.max(1, segmentCount - 1)) << 1;
+        if (segmentCount <= 1) {
+            count = 1;
+        }
+        this.segments = new Segment[count];
+        this.segmentMask = count - 1;
+        this.capacity = Math.max(count, capacity);
+        this.ttlMillis = ttlMillis;
+        int perSegment = (int) Math.min(Integer.MAX_VALUE, (this.capacity + count - 1) / count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(perSegment, nowMillis / TICK_MILLIS);
+        }
+    }
+
+    public IdempotencyService.IdempotencyResult get(String key, long nowMillis) {
+        int hash = spread(key.hashCode());
+        return segmentFor(hash).get(key, hash, nowMillis);
+    }
+
+    /**
+     * Insert or replace; a replaced entry keeps its original expiry
+     */
+    public void put(String key, IdempotencyService.IdempotencyResult value, long nowMillis) {
+        int hash = spread(key.hashCode());
+        segmentFor(hash).put(key, hash, value, nowMillis + ttlMillis);
+    }
+
+    public void remove(String key) {
+        int hash = spread(key.hashCode());
+        segmentFor(hash).remove(key);
+    }
+
+    /**
+     * Fire the timing wheels up to now; called periodically
+     */
+    public void expire(long nowMillis) {
+        for (Segment segment : segments) {
+            segment.advance(nowMillis);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    public long processingCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                count += segment.processing;
+            }
+        }
+        return count;
+    }
+
+    public Map<String, Long> counters() {
+        long hits = 0, misses = 0, evictions = 0, expirations = 0, rejections = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+                misses += segment.misses;
+                evictions += segment.evictions;
+                expirations += segment.expirations;
+                rejections += segment.rejections;
+            }
+        }
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("capacity", capacity);
+        counters.put("hits", hits);
+        counters.put("misses", misses);
+        counters.put("evictions", evictions);
+        counters.put("expirations", expirations);
+        counters.put("admissionRejections", rejections);
+        return counters;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> 16) & segmentMask];
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xed5ad4bb;
+        hash ^= hash >>> 11;
+        hash *= 0xac4c1b51;
+        hash ^= hash >>> 15;
+        return hash;
+    }
+
+    // ---------------------------------------------------------------------
+    // Segment
+    // ---------------------------------------------------------------------
+
+    private static final byte WINDOW = 0;
+    private static final byte MAIN = 1;
+
+    private static final class Node {
+        final String key;
+        final int hash;
+        IdempotencyService.IdempotencyResult value;
+        long expireAtMillis;
+        byte queue;
+        // Access-order queue links
+        Node prev;
+        Node next;
+        // Timing wheel slot links
+        Node wheelPrev;
+        Node wheelNext;
+
+        Node(String key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+
+        /**
+         * Circular sentinel for queues and wheel slots
+         */
+        static Node sentinel() {
+            Node node = new Node(null, 0);
+            node.prev = node;
+            node.next = node;
+            node.wheelPrev = node;
+            node.wheelNext = node;
+            return node;
+        }
+    }
+
+    private static final class Segment {
+        final HashMap<String, Node> map;
+        final Node window = Node.sentinel();
+        final Node main = Node.sentinel();
+        final int windowCapacity;
+        final int mainCapacity;
+        int windowSize;
+        int mainSize;
+        int processing;
+
+        final FrequencySketch sketch;
+        final Node[][] wheel = new Node[WHEEL_LEVELS][WHEEL_SLOTS];
+        long currentTick;
+
+        long hits;
+        long misses;
+        long evictions;
+        long expirations;
+        long rejections;
+
+        Segment(int capacity, long startTick) {
+            this.windowCapacity = Math.max(1, capacity / 100);
+            this.mainCapacity = Math.max(1, capacity - windowCapacity);
+            this.map = new HashMap<>(Math.min(capacity, 1 << 16));
+            this.sketch = new FrequencySketch(capacity);
+            this.currentTick = startTick;
+            for (Node[] level : wheel) {
+                for (int i = 0; i < WHEEL_SLOTS; i++) {
+                    level[i] = Node.sentinel();
+                }
+            }
+        }
+
+        synchronized IdempotencyService.IdempotencyResult get(String key, int hash, long nowMillis) {
+            sketch.increment(hash);
+            Node node = map.get(key);
+            if (node == null) {
+                misses++;
+                return null;
+            }
+            if (node.expireAtMillis <= nowMillis) {
+                unlink(node);
+                expirations++;
+                misses++;
+                return null;
+            }
+            moveToTail(node, node.queue == WINDOW ? window : main);
+            hits++;
+            return node.value;
+        }
+
+        synchronized void put(String key, int hash, IdempotencyService.IdempotencyResult value, long expireAtMillis) {
+            sketch.increment(hash);
+            Node node = map.get(key);
+            if (node != null) {
+                if (node.value.isProcessing()) {
+                    processing--;
+                }
+                node.value = value;
+                if (value.isProcessing()) {
+                    processing++;
+                }
+                moveToTail(node, node.queue == WINDOW ? window : main);
+                return;
+            }
+            node = new Node(key, hash);
+            node.value = value;
+            node.expireAtMillis = expireAtMillis;
+            node.queue = WINDOW;
+            map.put(key, node);
+            if (value.isProcessing()) {
+                processing++;
+            }
+            linkTail(node, window);
+            windowSize++;
+            schedule(node);
+            if (windowSize > windowCapacity) {
+                admit();
+            }
+        }
+
+        synchronized void remove(String key) {
+            Node node = map.get(key);
+            if (node != null) {
+                unlink(node);
+            }
+        }
+
+        /**
+         * Move the window's oldest entry to the main queue, or let it lose
+         * against the main queue's oldest entry on estimated frequency
+         */
+        private void admit() {
+            Node candidate = window.next;
+            unlinkQueue(candidate);
+            windowSize--;
+            candidate.queue = MAIN;
+            linkTail(candidate, main);
+            mainSize++;
+            if (mainSize <= mainCapacity) {
+                return;
+            }
+            Node victim = main.next;
+            if (victim == candidate) {
+                victim = candidate.next;
+            }
+            if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                unlink(victim);
+            } else {
+                unlink(candidate);
+                rejections++;
+            }
+            evictions++;
+        }
+
+        /**
+         * Expire everything scheduled up to now, cascading coarser wheel levels
+         */
+        synchronized void advance(long nowMillis) {
+            long target = nowMillis / TICK_MILLIS;
+            while (currentTick < target) {
+                currentTick++;
+                for (int level = 1; level < WHEEL_LEVELS; level++) {
+                    long levelTicks = currentTick >>> (WHEEL_BITS * level);
+                    if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                        break;
+                    }
+                    cascade(wheel[level][(int) (levelTicks & (WHEEL_SLOTS - 1))], nowMillis);
+                }
+                Node slot = wheel[0][(int) (currentTick & (WHEEL_SLOTS - 1))];
+                for (Node node = slot.wheelNext; node != slot; ) {
+                    Node next = node.wheelNext;
+                    if (node.expireAtMillis <= nowMillis) {
+                        unlink(node);
+                        expirations++;
+                    }
+                    node = next;
+                }
+            }
+        }
+
+        private void cascade(Node slot, long nowMillis) {
+            for (Node node = slot.wheelNext; node != slot; ) {
+                Node next = node.wheelNext;
+                unlinkWheel(node);
+                if (node.expireAtMillis <= nowMillis) {
+                    unlink(node);
+                    expirations++;
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+
+        private void schedule(Node node) {
+            long tick = Math.max(currentTick + 1, (node.expireAtMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+            long delta = tick - currentTick;
+            int level = 0;
+            while (level < WHEEL_LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+                level++;
+            }
+            long maxTick = currentTick + (1L << (WHEEL_BITS * WHEEL_LEVELS)) - 1;
+            long slotTick = Math.min(tick, maxTick) >>> (WHEEL_BITS * level);
+            Node slot = wheel[level][(int) (slotTick & (WHEEL_SLOTS - 1))];
+            node.wheelPrev = slot.wheelPrev;
+            node.wheelNext = slot;
+            slot.wheelPrev.wheelNext = node;
+            slot.wheelPrev = node;
+        }
+
+        private void unlink(Node node) {
+            map.remove(node.key);
+            unlinkQueue(node);
+            if (node.queue == WINDOW) {
+                windowSize--;
+            } else {
+                mainSize--;
+            }
+            unlinkWheel(node);
+            if (node.value.isProcessing()) {
+                processing--;
+            }
+        }
+
+        private static void linkTail(Node node, Node head) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+        }
+
+        private static void moveToTail(Node node, Node head) {
+            unlinkQueue(node);
+            linkTail(node, head);
+        }
+
+        private static void unlinkQueue(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = node;
+            node.next = node;
+        }
+
+        private static void unlinkWheel(Node node) {
+            if (node.wheelNext != null) {
+                node.wheelPrev.wheelNext = node.wheelNext;
+                node.wheelNext.wheelPrev = node.wheelPrev;
+                node.wheelPrev = null;
+                node.wheelNext = null;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // TinyLFU frequency sketch
+    // ---------------------------------------------------------------------
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, sixteen per long.
+     * All counters are halved once the sample size is reached, so old
+     * popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int size = Integer.highestOneBit(Math.max(8, capacity) - 1) << 1;
+            table = new long[size];
+            tableMask = size - 1;
+            sampleSize = 10 * Math.max(8, capacity);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 0xF));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int shift = offsetOf(hash, i) << 2;
+                if (((table[index] >>> shift) & 0xF) != 0xF) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions >>>= 1;
+            }
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & tableMask;
+        }
+
+        private static int offsetOf(int hash, int row) {
+            // One of four 4-bit counters in the row's quarter of the long
+            return (row << 2) + ((hash >>> (row << 3)) & 3);
+        }
+    }
+}
@@ -1,78 +1,84 @@
 package com.example.ledger.service;
 
 import com.example.ledger.controller.TransferController;
-import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.state.IdempotencyKeyFilter;
+import com.example.ledger.state.IdempotencyMarkers;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
 public class IdempotencyService {
     
-    private final ConcurrentHashMap<String, IdempotencyResult> idempotencyCache = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService cleanupExecutor = Executors.newSingleThreadScheduledExecutor();
+    // Bounded W-TinyLFU cache with timing-wheel expiry (see IdempotencyCache)
+    @Value("${ledger.idempotency.cache.capacity:1000000}")
+    private long cacheCapacity;
     
-    @Autowired
-    private RocksDBService rocksDBService;
+    @Value("${ledger.idempotency.cache.segments:16}")
+    private int cacheSegments;
     
     // Cache TTL in minutes
-    private static final long CACHE_TTL_MINUTES = 60;
+    @Value("${ledger.idempotency.cache.ttl.minutes:60}")
+    private long cacheTtlMinutes;
     
-    public IdempotencyService() {
-        // Schedule cleanup task to run every 30 minutes
-        cleanupExecutor.scheduleAtFixedRate(this::cleanupExpiredEntries, 30, 30, TimeUnit.MINUTES);
-    }
+    private IdempotencyCache idempotencyCache;
+    private ScheduledExecutorService cleanupExecutor;
+    
+    @Autowired
+    private IdempotencyKeyFilter idempotencyKeyFilter;
+    
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+    
+    // Cache misses answered by the bloom filter / by a RocksDB point lookup
+    private final AtomicLong filterNegatives = new AtomicLong();
+    private final AtomicLong storeLookups = new AtomicLong();
+    private final AtomicLong storeHits = new AtomicLong();
+    
+    // Single flight: the result future of the request currently processing each key
+    private final ConcurrentHashMap<String, CompletableFuture<CommandOutcome>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
     
     @PostConstruct
-    public void initializeFromRocksDB() {
-        syncIdempotencyMarkersFromRocksDB();
+    public void initialize() {
+        idempotencyCache = new IdempotencyCache(cacheCapacity, cacheSegments,
+                TimeUnit.MINUTES.toMillis(cacheTtlMinutes), System.currentTimeMillis());
+        // Advance the timing wheels once per tick; expiry cost is proportional to expiring entries
+        cleanupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotency-cache-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleanupExecutor.scheduleWithFixedDelay(this::cleanupExpiredEntries, 1, 1, TimeUnit.SECONDS);
+        FunctionCounter.builder("ledger.idempotency.coalesced", coalescedRequests, AtomicLong::get)
+                .description("Duplicate requests that waited for an in-flight request instead of proposing again")
+                .register(meterRegistry);
     }
     
-    /**
-     * Sync existing idempotency markers from RocksDB to in-memory cache
-     * This provides fast lookup for previously processed requests
-     */
-    public void syncIdempotencyMarkersFromRocksDB() {
-        try {
-            int syncedCount = 0;
-            // Scan RocksDB for all keys starting with "idem:"
-            for (String rocksKey : rocksDBService.getAllKeysWithPrefix("idem:")) {
-                if (rocksKey.startsWith("idem:") && rocksKey.length() > 5) {
-                    String idempotencyKey = rocksKey.substring(5); // Remove "idem:" prefix
-                    
-                    // Create completed idempotency result (assume success since marker exists)
-                    IdempotencyResult result = new IdempotencyResult();
-                    result.setIdempotencyKey(idempotencyKey);
-                    result.setProcessing(false);
-                    result.setSuccess(true);
-                    result.setMessage("Transfer completed successfully (synced from RocksDB)");
-                    result.setStatusCode(200);
-                    result.setCreatedAt(LocalDateTime.now().minus(1, ChronoUnit.HOURS)); // Assume old
-                    result.setCompletedAt(LocalDateTime.now().minus(1, ChronoUnit.HOURS));
-                    
-                    idempotencyCache.put(idempotencyKey, result);
-                    syncedCount++;
-                }
-            }
-            
-            if (syncedCount > 0) {
-                log.info("Synced {} idempotency markers from RocksDB to cache", syncedCount);
-            } else {
-                log.info("No existing idempotency markers found in RocksDB");
-            }
-        } catch (Exception e) {
-            log.warn("Failed to sync idempotency markers from RocksDB: {}", e.getMessage());
+    @PreDestroy
+    public void shutdown() {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
         }
     }
     
@@ -109,14 +115,50 @@ public class IdempotencyService {
     }
     
     /**
-     * Check if request with this idempotency key has been processed
+     * Check if request with this idempotency key has been processed.
+     * Only recent keys are cached; older ones are found through the bloom
+     * filter and RocksDB point lookups of the {@code idem:} marker, which holds
+     * the replicated outcome, so any node answers a retry without a Raft round.
      */
     public IdempotencyResult checkIdempotency(String idempotencyKey) {
-        IdempotencyResult result = idempotencyCache.get(idempotencyKey);
-        if (result != null && !result.isExpired()) {
-            return result;
+        long now = System.currentTimeMillis();
+        IdempotencyResult cached = idempotencyCache.get(idempotencyKey, now);
+        if (cached != null) {
+            return cached;
+        }
+        if (!idempotencyKeyFilter.mightContain(idempotencyKey)) {
+            filterNegatives.incrementAndGet();
+            return null;
+        }
+        storeLookups.incrementAndGet();
+        byte[] marker = idempotencyMarkers.findTransfer(idempotencyKey, now);
+        if (marker == null) {
+            return null;
+        }
+        storeHits.incrementAndGet();
+        IdempotencyResult result = toResult(idempotencyKey, CommandOutcome.decode(marker), now, now);
+        idempotencyCache.put(idempotencyKey, result, now);
+        return result;
+    }
+    
+    /**
+     * Atomically register {@code future} as the in-flight result for the key.
+     * Returns null if registered, or the future of the request already in flight,
+     * which the caller should wait for instead of processing the request again.
+     */
+    public CompletableFuture<CommandOutcome> joinInFlight(String idempotencyKey, CompletableFuture<CommandOutcome> future) {
+        CompletableFuture<CommandOutcome> existing = inFlight.putIfAbsent(idempotencyKey, future);
+        if (existing != null) {
+            coalescedRequests.incrementAndGet();
         }
-        return null;
+        return existing;
+    }
+    
+    /**
+     * Release the key registered by {@link #joinInFlight}; call after the result is stored
+     */
+    public void leaveInFlight(String idempotencyKey, CompletableFuture<CommandOutcome> future) {
+        inFlight.remove(idempotencyKey, future);
     }
     
     /**
@@ -126,48 +168,67 @@ public class IdempotencyService {
         IdempotencyResult result = new IdempotencyResult();
         result.setIdempotencyKey(idempotencyKey);
         result.setProcessing(true);
-        result.setCreatedAt(LocalDateTime.now());
-        idempotencyCache.put(idempotencyKey, result);
+        long now = System.currentTimeMillis();
+        result.setCreatedAtMillis(now);
+        idempotencyCache.put(idempotencyKey, result, now);
+    }
+    
+    /**
+     * Store the outcome applied by the state machine
+     */
+    public void storeResult(String idempotencyKey, CommandOutcome outcome) {
+        storeResult(idempotencyKey, outcome.isSuccess(), outcome.getMessage(), outcome.getStatusCode());
+    }
+    
+    private static IdempotencyResult toResult(String idempotencyKey, CommandOutcome outcome,
+                                              long createdAtMillis, long completedAtMillis) {
+        IdempotencyResult result = new IdempotencyResult();
+        result.setIdempotencyKey(idempotencyKey);
+        result.setProcessing(false);
+        result.setSuccess(outcome.isSuccess());
+        result.setMessage(outcome.getMessage());
+        result.setStatusCode(outcome.getStatusCode());
+        result.setCreatedAtMillis(createdAtMillis);
+        result.setCompletedAtMillis(completedAtMillis);
+        return result;
     }
     
     /**
      * Store the result of processing
      */
     public void storeResult(String idempotencyKey, boolean success, String message, int statusCode) {
-        IdempotencyResult result = idempotencyCache.get(idempotencyKey);
-        if (result == null) {
-            result = new IdempotencyResult();
-            result.setIdempotencyKey(idempotencyKey);
-            result.setCreatedAt(LocalDateTime.now());
-        }
-        
+        long now = System.currentTimeMillis();
+        IdempotencyResult processing = idempotencyCache.get(idempotencyKey, now);
+        // A new object rather than an update: readers may hold the processing marker
+        IdempotencyResult result = new IdempotencyResult();
+        result.setIdempotencyKey(idempotencyKey);
+        result.setCreatedAtMillis(processing != null ? processing.getCreatedAtMillis() : now);
         result.setProcessing(false);
         result.setSuccess(success);
         result.setMessage(message);
         result.setStatusCode(statusCode);
-        result.setCompletedAt(LocalDateTime.now());
+        result.setCompletedAtMillis(now);
         
-        idempotencyCache.put(idempotencyKey, result);
+        idempotencyCache.put(idempotencyKey, result, now);
         log.info("Stored idempotency result for key: {}, success: {}", idempotencyKey, success);
     }
     
     /**
-     * Clean up expired entries from cache
+     * Forget a key without recording a result, so a retry is processed afresh
+     * (used when the request was rejected before reaching the ledger)
+     */
+    public void discard(String idempotencyKey) {
+        idempotencyCache.remove(idempotencyKey);
+    }
+    
+    /**
+     * Fire the cache's timing wheels
      */
     private void cleanupExpiredEntries() {
-        LocalDateTime cutoff = LocalDateTime.now().minus(CACHE_TTL_MINUTES, ChronoUnit.MINUTES);
-        int removedCount = 0;
-        
-        for (String key : idempotencyCache.keySet()) {
-            IdempotencyResult result = idempotencyCache.get(key);
-            if (result != null && result.getCreatedAt().isBefore(cutoff)) {
-                idempotencyCache.remove(key);
-                removedCount++;
-            }
-        }
-        
-        if (removedCount > 0) {
-            log.info("Cleaned up {} expired idempotency entries", removedCount);
+        try {
+            idempotencyCache.expire(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.warn("Failed to expire idempotency cache entries: {}", e.getMessage());
         }
     }
     
@@ -175,19 +236,18 @@ public class IdempotencyService {
      * Get cache statistics
      */
     public IdempotencyCacheStats getCacheStats() {
-        int totalEntries = idempotencyCache.size();
-        int processingEntries = 0;
-        int completedEntries = 0;
+        long totalEntries = idempotencyCache.size();
+        long processingEntries = idempotencyCache.processingCount();
+        Map<String, Long> counters = idempotencyCache.counters();
+        long hits = counters.get("hits");
+        long misses = counters.get("misses");
         
-        for (IdempotencyResult result : idempotencyCache.values()) {
-            if (result.isProcessing()) {
-                processingEntries++;
-            } else {
-                completedEntries++;
-            }
-        }
-        
-        return new IdempotencyCacheStats(totalEntries, processingEntries, completedEntries);
+        return new IdempotencyCacheStats(totalEntries, processingEntries, totalEntries - processingEntries,
+                counters.get("capacity"), hits, misses,
+                hits + misses == 0 ? 0.0 : (double) hits / (hits + misses),
+                counters.get("evictions"), counters.get("expirations"), counters.get("admissionRejections"),
+                filterNegatives.get(), storeLookups.get(), storeHits.get(), idempotencyKeyFilter.getStats(),
+                inFlight.size(), coalescedRequests.get(), idempotencyMarkers.getStats());
     }
     
     // DTOs
@@ -197,13 +257,8 @@ public class IdempotencyService {
         private boolean success;
         private String message;
         private int statusCode;
-        private LocalDateTime createdAt;
-        private LocalDateTime completedAt;
-        
-        public boolean isExpired() {
-            return createdAt != null && 
-                   createdAt.isBefore(LocalDateTime.now().minus(CACHE_TTL_MINUTES, ChronoUnit.MINUTES));
-        }
+        private long createdAtMillis;
+        private long completedAtMillis;
         
         // Getters and Setters
         public String getIdempotencyKey() { return idempotencyKey; }
@@ -221,26 +276,73 @@ public class IdempotencyService {
         public int getStatusCode() { return statusCode; }
         public void setStatusCode(int statusCode) { this.statusCode = statusCode; }
         
-        public LocalDateTime getCreatedAt() { return createdAt; }
-        public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+        public long getCreatedAtMillis() { return createdAtMillis; }
+        public void setCreatedAtMillis(long createdAtMillis) { this.createdAtMillis = createdAtMillis; }
         
-        public LocalDateTime getCompletedAt() { return completedAt; }
-        public void setCompletedAt(LocalDateTime completedAt) { this.completedAt = completedAt; }
+        public long getCompletedAtMillis() { return completedAtMillis; }
+        public void setCompletedAtMillis(long completedAtMillis) { this.completedAtMillis = completedAtMillis; }
     }
     
     public static class IdempotencyCacheStats {
-        private final int totalEntries;
-        private final int processingEntries;
-        private final int completedEntries;
+        private final long totalEntries;
+        private final long processingEntries;
+        private final long completedEntries;
+        private final long capacity;
+        private final long hits;
+        private final long misses;
+        private final double hitRate;
+        private final long evictions;
+        private final long expirations;
+        private final long admissionRejections;
+        private final long filterNegatives;
+        private final long storeLookups;
+        private final long storeHits;
+        private final Map<String, Object> bloomFilter;
+        private final long inFlightRequests;
+        private final long coalescedRequests;
+        private final Map<String, Object> markers;
         
-        public IdempotencyCacheStats(int totalEntries, int processingEntries, int completedEntries) {
+        public IdempotencyCacheStats(long totalEntries, long processingEntries, long completedEntries,
+                                     long capacity, long hits, long misses, double hitRate,
+                                     long evictions, long expirations, long admissionRejections,
+                                     long filterNegatives, long storeLookups, long storeHits,
+                                     Map<String, Object> bloomFilter, long inFlightRequests,
+                                     long coalescedRequests, Map<String, Object> markers) {
             this.totalEntries = totalEntries;
             this.processingEntries = processingEntries;
             this.completedEntries = completedEntries;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.hitRate = hitRate;
+            this.evictions = evictions;
+            this.expirations = expirations;
+            this.admissionRejections = admissionRejections;
+            this.filterNegatives = filterNegatives;
+            this.storeLookups = storeLookups;
+            this.storeHits = storeHits;
+            this.bloomFilter = bloomFilter;
+            this.inFlightRequests = inFlightRequests;
+            this.coalescedRequests = coalescedRequests;
+            this.markers = markers;
         }
         
-        public int getTotalEntries() { return totalEntries; }
-        public int getProcessingEntries() { return processingEntries; }
-        public int getCompletedEntries() { return completedEntries; }
+        public long getTotalEntries() { return totalEntries; }
+        public long getProcessingEntries() { return processingEntries; }
+        public long getCompletedEntries() { return completedEntries; }
+        public long getCapacity() { return capacity; }
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public double getHitRate() { return hitRate; }
+        public long getEvictions() { return evictions; }
+        public long getExpirations() { return expirations; }
+        public long getAdmissionRejections() { return admissionRejections; }
+        public long getFilterNegatives() { return filterNegatives; }
+        public long getStoreLookups() { return storeLookups; }
+        public long getStoreHits() { return storeHits; }
+        public Map<String, Object> getBloomFilter() { return bloomFilter; }
+        public long getInFlightRequests() { return inFlightRequests; }
+        public long getCoalescedRequests() { return coalescedRequests; }
+        public Map<String, Object> getMarkers() { return markers; }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.example.ledger.service;
+
+import com.example.ledger.mapper.SyncCheckpointMapper;
+import com.example.ledger.model.SyncCheckpoint;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Shared part of the JDBC sinks: one Spring transaction per batch, and the
+ * checkpoint row locked with {@code SELECT ... FOR UPDATE} in that transaction
+ */
+public abstract class JdbcPersistenceSink implements PersistenceSink {
+
+    protected final SyncCheckpointMapper syncCheckpointMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    protected JdbcPersistenceSink(PlatformTransactionManager transactionManager,
+                                  SyncCheckpointMapper syncCheckpointMapper) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.syncCheckpointMapper = syncCheckpointMapper;
+    }
+
+    @Override
+    public <T> T inTransaction(Supplier<T> work) {
+        return transactionTemplate.execute(status -> work.get());
+    }
+
+    @Override
+    public SyncCheckpoint lockCheckpoint(int partitionCount, int partition) {
+        return syncCheckpointMapper.lockCheckpoint(partitionCount, partition);
+    }
+
+    @Override
+    public void advanceCheckpoint(int partitionCount, int partition, long lastIndex, int lastLeg) {
+        syncCheckpointMapper.advanceCheckpoint(partitionCount, partition, lastIndex, lastLeg);
+    }
+
+    @Override
+    public SyncCheckpoint findCheckpoint(int partitionCount, int partition) {
+        return syncCheckpointMapper.findCheckpoint(partitionCount, partition);
+    }
+}
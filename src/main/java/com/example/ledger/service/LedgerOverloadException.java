@@ -0,0 +1,19 @@
+package com.example.ledger.service;
+
+/**
+ * Thrown when a command is rejected by admission control because the ledger
+ * is saturated. Callers should retry after {@link #getRetryAfterSeconds()}.
+ */
+public class LedgerOverloadException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public LedgerOverloadException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,25 +1,41 @@
 package com.example.ledger.service;
 
 import com.alipay.sofa.jraft.Node;
+import com.alipay.sofa.jraft.Status;
 import com.alipay.sofa.jraft.entity.Task;
+import com.alipay.sofa.jraft.error.RaftError;
 import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.model.LedgerOperation;
 import com.example.ledger.model.Transaction;
 import com.example.ledger.raft.RaftNodeManager;
 import com.example.ledger.state.SimpleLedgerStateMachine;
+import com.example.ledger.state.BatchTransferCommand;
+import com.example.ledger.state.BulkCreateAccountsCommand;
+import com.example.ledger.state.IdempotencyMarkers;
 import com.example.ledger.state.JRaftLedgerStateMachine;
+import com.example.ledger.state.OutcomeClosure;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
@@ -28,6 +44,11 @@ import jakarta.annotation.PreDestroy;
 @Service
 public class LedgerService {
     
+    /**
+     * Longest accepted transfer description, the width of processed_transaction.description
+     */
+    public static final int MAX_DESCRIPTION_LENGTH = 500;
+    
     @Value("${raft.enabled:false}")
     private boolean raftEnabled;
     
@@ -41,18 +62,48 @@ public class LedgerService {
     private JRaftLedgerStateMachine jraftLedgerStateMachine;
     
     @Autowired
-    private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
+    private AccountBusinessService accountBusinessService;
     
     @Autowired
-    private AccountBusinessService accountBusinessService;
+    private AdmissionControl admissionControl;
+    
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
     
-    // FIFO Command Queue for Standalone Mode
-    private final LinkedBlockingQueue<StandaloneCommand> commandQueue = new LinkedBlockingQueue<>();
+    @Value("${ledger.command.queue.capacity:10000}")
+    private int commandQueueCapacity;
+    
+    // Upper bound on legs per BATCH_TRANSFER command (one log entry)
+    @Value("${ledger.batch.max.legs:1000}")
+    private int batchMaxLegs;
+    
+    // Accounts per BULK_CREATE command, and per bulk create request
+    @Value("${ledger.bulk.create.chunk.size:10000}")
+    private int bulkCreateChunkSize;
+    
+    @Value("${ledger.bulk.create.max.accounts:100000}")
+    private int bulkCreateMaxAccounts;
+    
+    // How often the leader (or the standalone node) proposes an idempotency marker purge
+    @Value("${ledger.idempotency.purge.interval.minutes:60}")
+    private long idempotencyPurgeIntervalMinutes;
+    
+    // Bounded FIFO Command Queue for Standalone Mode
+    private LinkedBlockingQueue<StandaloneCommand> commandQueue;
     private ExecutorService commandProcessor;
     private final AtomicBoolean processingEnabled = new AtomicBoolean(true);
+    private ScheduledExecutorService idempotencyPurger;
     
     @PostConstruct
     public void initializeCommandProcessor() {
+        commandQueue = new LinkedBlockingQueue<>(commandQueueCapacity);
+        Gauge.builder("ledger.command.queue.depth", commandQueue, LinkedBlockingQueue::size)
+            .description("Standalone commands waiting for the FIFO processor")
+            .register(meterRegistry);
+        
         if (!raftEnabled) {
             // Initialize FIFO command processor for standalone mode
             commandProcessor = Executors.newSingleThreadExecutor(r -> {
@@ -61,13 +112,24 @@ public class LedgerService {
                 return t;
             });
             commandProcessor.submit(this::processCommandsSequentially);
-            log.info("FIFO Command processor initialized for standalone mode");
+            log.info("FIFO Command processor initialized for standalone mode, queue capacity: {}", commandQueueCapacity);
         }
+        
+        idempotencyPurger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "idempotency-marker-purge");
+            t.setDaemon(true);
+            return t;
+        });
+        idempotencyPurger.scheduleWithFixedDelay(this::proposeIdempotencyPurge,
+                1, idempotencyPurgeIntervalMinutes, TimeUnit.MINUTES);
     }
     
     @PreDestroy
     public void shutdown() {
         processingEnabled.set(false);
+        if (idempotencyPurger != null) {
+            idempotencyPurger.shutdownNow();
+        }
         if (commandProcessor != null) {
             commandProcessor.shutdown();
             try {
@@ -90,8 +152,7 @@ public class LedgerService {
                 StandaloneCommand command = commandQueue.poll(100, TimeUnit.MILLISECONDS);
                 if (command != null) {
                     try {
-                        boolean success = executeStandaloneCommand(command);
-                        command.complete(success);
+                        command.complete(executeStandaloneCommand(command));
                     } catch (Exception e) {
                         log.error("Error processing standalone command: {}", command.getCommandString(), e);
                         command.completeExceptionally(e);
@@ -107,7 +168,7 @@ public class LedgerService {
     /**
      * Execute a standalone command
      */
-    private boolean executeStandaloneCommand(StandaloneCommand command) {
+    private CommandOutcome executeStandaloneCommand(StandaloneCommand command) {
         String commandStr = command.getCommandString();
         String[] parts = commandStr.split(":");
         String operation = parts[0];
@@ -117,26 +178,33 @@ public class LedgerService {
                 return executeCreateAccount(parts);
             case "TRANSFER":
                 return executeTransfer(commandStr);
+            case BatchTransferCommand.OPERATION:
+                return ledgerStateMachine.processBatchTransfer(commandStr);
+            case BulkCreateAccountsCommand.OPERATION:
+                return ledgerStateMachine.processBulkCreate(commandStr);
+            case IdempotencyMarkers.PURGE_OPERATION:
+                return ledgerStateMachine.processPurgeIdempotency(commandStr);
+            case IdempotencyMarkers.MIGRATE_OPERATION:
+                return ledgerStateMachine.processMigrateIdempotency(commandStr);
             default:
                 log.warn("Unknown standalone command operation: {}", operation);
-                return false;
+                return CommandOutcome.failed("Unknown command operation: " + operation);
         }
     }
     
-    private boolean executeCreateAccount(String[] parts) {
-        if (parts.length < 3) return false;
+    private CommandOutcome executeCreateAccount(String[] parts) {
+        if (parts.length < 3) return CommandOutcome.failed("Invalid CREATE_ACCOUNT command");
         String userId = parts[1];
         Account.AccountType accountType = Account.AccountType.valueOf(parts[2].toUpperCase());
         
+        // The state machine stages the new account's MySQL row together with its RocksDB write
         ledgerStateMachine.createAccountIfNotExists(userId, accountType);
-        String accountId = Account.generateAccountId(userId, accountType);
-        asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(accountId, BigDecimal.ZERO));
-        return true;
+        return CommandOutcome.applied();
     }
     
-    private boolean executeTransfer(String commandStr) {
-        ledgerStateMachine.processTransfer(commandStr);
-        return true;
+    private CommandOutcome executeTransfer(String commandStr) {
+        CommandOutcome outcome = ledgerStateMachine.processTransfer(commandStr);
+        return outcome != null ? outcome : CommandOutcome.failed("Invalid TRANSFER command");
     }
 
     /**
@@ -150,15 +218,75 @@ public class LedgerService {
             return CompletableFuture.completedFuture(true); // Account already exists
         }
         
-        if (raftEnabled && raftNodeManager != null) {
-            // Use JRaft consensus for distributed environment
-            String command = String.format("CREATE_ACCOUNT:%s:%s", userId, accountType.getValue());
-            return submitToRaft(command);
-        } else {
-            // Use FIFO command queue for standalone mode
-            String command = String.format("CREATE_ACCOUNT:%s:%s", userId, accountType.getValue());
-            return submitToStandaloneQueue(command);
+        // Trailing proposal timestamp: state machines derive row timestamps from the command, not the clock
+        String command = String.format("CREATE_ACCOUNT:%s:%s:%d", userId, accountType.getValue(), System.currentTimeMillis());
+        return submitCommand(command).thenApply(CommandOutcome::isSuccess);
+    }
+    
+    /**
+     * 批量创建账户: the accounts that do not exist yet are proposed in BULK_CREATE
+     * commands of up to {@code ledger.bulk.create.chunk.size} accounts, each stored
+     * in one WriteBatch, instead of one proposal per account
+     */
+    public CompletableFuture<BulkCreateResult> bulkCreateAccounts(List<BulkCreateAccountsCommand.NewAccount> accounts) {
+        if (accounts == null || accounts.isEmpty() || accounts.size() > bulkCreateMaxAccounts) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Bulk create must have between 1 and " + bulkCreateMaxAccounts + " accounts"));
+        }
+        
+        Set<String> seen = new HashSet<>();
+        List<BulkCreateAccountsCommand.NewAccount> missing = new ArrayList<>();
+        for (BulkCreateAccountsCommand.NewAccount account : accounts) {
+            if (account.userId() == null || account.userId().isEmpty() || account.userId().indexOf(':') >= 0
+                    || account.accountType() == null) {
+                return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Invalid account: " + account.userId() + ", " + account.accountType()));
+            }
+            String accountId = account.accountId();
+            // Existence bitset lookup (fast path); the state machine checks again when applying
+            if (seen.add(accountId) && !accountBusinessService.accountExists(accountId)) {
+                missing.add(account);
+            }
+        }
+        int existing = seen.size() - missing.size();
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(new BulkCreateResult(accounts.size(), existing, 0, 0, 0, 0, 200, null));
+        }
+        
+        // Commands are independent: each chunk is created or not as a whole
+        List<CompletableFuture<CommandOutcome>> chunks = new ArrayList<>();
+        for (int from = 0; from < missing.size(); from += bulkCreateChunkSize) {
+            List<BulkCreateAccountsCommand.NewAccount> chunk =
+                missing.subList(from, Math.min(missing.size(), from + bulkCreateChunkSize));
+            chunks.add(submitCommand(new BulkCreateAccountsCommand(System.currentTimeMillis(), chunk).encode()));
         }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+            .thenApply(done -> {
+                // Raft errors and rejected commands complete normally with a failed outcome
+                int created = 0;
+                int failedCommands = 0;
+                CommandOutcome firstFailure = null;
+                for (int i = 0; i < chunks.size(); i++) {
+                    CommandOutcome outcome = chunks.get(i).join();
+                    if (outcome.isSuccess()) {
+                        // Accounts created concurrently since the existence check are skipped when applied
+                        created += outcome.getAffectedCount();
+                    } else {
+                        failedCommands++;
+                        if (firstFailure == null) {
+                            firstFailure = outcome;
+                        }
+                    }
+                }
+                if (firstFailure != null) {
+                    log.error("Bulk create: {} of {} commands failed, first: {}",
+                        failedCommands, chunks.size(), firstFailure.getMessage());
+                }
+                return new BulkCreateResult(accounts.size(), existing, missing.size(), created,
+                    chunks.size(), failedCommands,
+                    firstFailure != null ? firstFailure.getStatusCode() : 200,
+                    firstFailure != null ? firstFailure.getMessage() : null);
+            });
     }
     
     /**
@@ -176,6 +304,23 @@ public class LedgerService {
     public CompletableFuture<Boolean> transfer(String fromUserId, Account.AccountType fromType,
                                                String toUserId, Account.AccountType toType,
                                                BigDecimal amount, String description, String idempotentId) {
+        return transferWithOutcome(fromUserId, fromType, toUserId, toType, amount, description, idempotentId)
+            .thenApply(CommandOutcome::isSuccess);
+    }
+    
+    /**
+     * 单笔转账, completing with the outcome applied by the state machine: the
+     * status, message and resulting balances, or the outcome stored by an
+     * earlier command with the same idempotency key
+     */
+    public CompletableFuture<CommandOutcome> transferWithOutcome(String fromUserId, Account.AccountType fromType,
+                                                                 String toUserId, Account.AccountType toType,
+                                                                 BigDecimal amount, String description,
+                                                                 String idempotentId) {
+        if (description != null && description.length() > MAX_DESCRIPTION_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Description must be at most " + MAX_DESCRIPTION_LENGTH + " characters"));
+        }
         String fromAccountId = Account.generateAccountId(fromUserId, fromType);
         String toAccountId = Account.generateAccountId(toUserId, toType);
         // Check existence in RocksDB (fast path)
@@ -184,21 +329,15 @@ public class LedgerService {
         if (!fromExists || !toExists) {
             String msg = !fromExists ? ("Source account does not exist: " + fromAccountId)
                                       : ("Destination account does not exist: " + toAccountId);
-            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            CompletableFuture<CommandOutcome> failed = new CompletableFuture<>();
             failed.completeExceptionally(new IllegalArgumentException(msg));
             return failed;
         }
-        String command = String.format("TRANSFER:%s:%s:%s:%s:%s:%s:%s",
+        String command = String.format("TRANSFER:%s:%s:%s:%s:%s:%s:%s:%d",
             fromUserId, fromType.getValue(), toUserId, toType.getValue(), amount.toString(), description, 
-            idempotentId != null ? idempotentId : "");
+            idempotentId != null ? idempotentId : "", System.currentTimeMillis());
         
-        if (raftEnabled && raftNodeManager != null) {
-            // Use JRaft consensus for distributed environment
-            return submitToRaft(command);
-        } else {
-            // Use FIFO command queue for standalone mode
-            return submitToStandaloneQueue(command);
-        }
+        return submitCommand(command);
     }
     
     /**
@@ -206,151 +345,94 @@ public class LedgerService {
      * Now supports batch-level idempotency with mandatory idempotentId
      */
     public CompletableFuture<Boolean> batchTransfer(List<TransferRequest> transfers, String idempotentId) {
-        // Validate mandatory idempotentId
-        if (idempotentId == null || idempotentId.trim().isEmpty()) {
-            CompletableFuture<Boolean> failed = new CompletableFuture<>();
-            failed.completeExceptionally(new IllegalArgumentException("idempotentId is mandatory for batch transfers"));
-            return failed;
-        }
-        
-        // Check batch-level idempotency using RocksDB
-        String batchIdempotencyKey = "batch_idem:" + idempotentId;
-        try {
-            String existingResult = accountBusinessService.getRocksDBService().get(batchIdempotencyKey);
-            if (existingResult != null) {
-                log.info("Batch transfer already processed for idempotentId: {}", idempotentId);
-                return CompletableFuture.completedFuture(true); // Already processed
-            }
-        } catch (Exception e) {
-            log.error("Error checking batch idempotency for key: {}", idempotentId, e);
-        }
-        
-        // Mark batch as processing
-        try {
-            accountBusinessService.getRocksDBService().put(batchIdempotencyKey + ":processing", "1");
-        } catch (Exception e) {
-            log.warn("Failed to mark batch as processing: {}", idempotentId, e);
-        }
-        
-        if (raftEnabled && raftNodeManager != null) {
-            // In cluster mode, submit batch as a single atomic operation
-            return processBatchAsAtomicOperation(transfers, idempotentId);
-        } else {
-            // In standalone mode, submit all transfers to FIFO queue sequentially
-            return processBatchSequentially(transfers, idempotentId);
-        }
+        return batchTransferWithOutcome(transfers, idempotentId).thenApply(CommandOutcome::isSuccess);
     }
     
     /**
-     * Process batch transfers as atomic operation in cluster mode
+     * 批量转账 as a single BATCH_TRANSFER command: one proposal (one Raft commit)
+     * whatever the number of legs. The state machine validates every leg against
+     * the net balance changes and applies all of them in one WriteBatch, or none.
      */
-    private CompletableFuture<Boolean> processBatchAsAtomicOperation(List<TransferRequest> transfers, String idempotentId) {
-        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
-        
-        // Generate unique batch transaction ID
-        String batchTransactionId = "BATCH_" + System.currentTimeMillis() + "_" + idempotentId;
-        
-        for (int i = 0; i < transfers.size(); i++) {
-            TransferRequest transfer = transfers.get(i);
-            final int transferIndex = i;
-            
-            result = result.thenCompose(success -> {
-                if (success) {
-                    // Create unique idempotency key for this transfer within the batch
-                    String transferIdempotentId = idempotentId + "_transfer_" + transferIndex;
-                    
-                    return transfer(transfer.getFromUserId(), transfer.getFromType(),
-                                  transfer.getToUserId(), transfer.getToType(),
-                                  transfer.getAmount(), 
-                                  transfer.getDescription() + " (Batch: " + batchTransactionId + ")",
-                                  transferIdempotentId);
-                } else {
-                    return CompletableFuture.completedFuture(false);
-                }
-            });
+    public CompletableFuture<CommandOutcome> batchTransferWithOutcome(List<TransferRequest> transfers, String idempotentId) {
+        if (transfers == null || transfers.isEmpty()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Batch transfers must have between 1 and " + batchMaxLegs + " legs"));
         }
-        
-        return result.thenApply(success -> {
-            // Store batch-level idempotency marker after successful completion
-            if (success) {
-                try {
-                    String batchIdempotencyKey = "batch_idem:" + idempotentId;
-                    accountBusinessService.getRocksDBService().put(batchIdempotencyKey, "completed");
-                    
-                    // Clean up processing marker
-                    accountBusinessService.getRocksDBService().delete(batchIdempotencyKey + ":processing");
-                    
-                    log.info("Batch transfer completed successfully for idempotentId: {}", idempotentId);
-                } catch (Exception e) {
-                    log.error("Failed to store batch idempotency marker: {}", idempotentId, e);
-                }
-            } else {
-                // Clean up processing marker on failure
-                try {
-                    String batchIdempotencyKey = "batch_idem:" + idempotentId;
-                    accountBusinessService.getRocksDBService().delete(batchIdempotencyKey + ":processing");
-                } catch (Exception e) {
-                    log.warn("Failed to clean up processing marker: {}", idempotentId, e);
-                }
-            }
-            return success;
-        });
+        List<BatchTransferCommand.Leg> legs = new ArrayList<>(transfers.size());
+        for (TransferRequest transfer : transfers) {
+            legs.add(new BatchTransferCommand.Leg(transfer.getFromUserId(), transfer.getFromType(),
+                transfer.getToUserId(), transfer.getToType(), transfer.getAmount(), transfer.getDescription()));
+        }
+        return submitBatch(idempotentId, legs);
     }
     
     /**
-     * Process batch transfers sequentially in standalone mode
+     * 过账一笔多分录日记账 (one debit fanned out to many credits, fees, splits).
+     * The journal is proposed as one BATCH_TRANSFER command; the state machine
+     * nets its entries per account, so each distinct account is read and written
+     * once however many entries touch it.
      */
-    private CompletableFuture<Boolean> processBatchSequentially(List<TransferRequest> transfers, String idempotentId) {
-        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
-        
-        // Generate unique batch transaction ID
-        String batchTransactionId = "BATCH_" + System.currentTimeMillis() + "_" + idempotentId;
+    public CompletableFuture<CommandOutcome> postJournal(LedgerOperation operation, String idempotentId) {
+        if (operation == null || operation.getType() != LedgerOperation.OperationType.APPLY_TRANSACTION
+                || operation.getTransaction() == null) {
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("Journal posting requires an APPLY_TRANSACTION operation"));
+        }
+        Transaction journal = operation.getTransaction();
+        if (!journal.isBalanced()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Journal is not balanced: entries must have positive amounts between two distinct accounts"));
+        }
+        if (journal.getEntries().size() > batchMaxLegs) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Journal must have between 1 and " + batchMaxLegs + " entries"));
+        }
+        List<BatchTransferCommand.Leg> legs;
+        try {
+            legs = BatchTransferCommand.legsOf(journal);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return submitBatch(idempotentId, legs);
+    }
+    
+    private CompletableFuture<CommandOutcome> submitBatch(String idempotentId, List<BatchTransferCommand.Leg> legs) {
+        // Validate mandatory idempotentId
+        if (idempotentId == null || idempotentId.trim().isEmpty()) {
+            return CompletableFuture.failedFuture(
+                new IllegalArgumentException("idempotentId is mandatory for batch transfers"));
+        }
+        if (legs.isEmpty() || legs.size() > batchMaxLegs) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                "Batch transfers must have between 1 and " + batchMaxLegs + " legs"));
+        }
         
-        for (int i = 0; i < transfers.size(); i++) {
-            TransferRequest transfer = transfers.get(i);
-            final int transferIndex = i;
-            
-            result = result.thenCompose(success -> {
-                if (success) {
-                    // Create unique idempotency key for this transfer within the batch
-                    String transferIdempotentId = idempotentId + "_transfer_" + transferIndex;
-                    
-                    return transfer(transfer.getFromUserId(), transfer.getFromType(),
-                                  transfer.getToUserId(), transfer.getToType(),
-                                  transfer.getAmount(), 
-                                  transfer.getDescription() + " (Batch: " + batchTransactionId + ")",
-                                  transferIdempotentId);
-                } else {
-                    return CompletableFuture.completedFuture(false);
-                }
-            });
+        // Check batch-level idempotency using RocksDB (batch_idem:<day>:ID buckets); the
+        // state machine checks again when applying, so this is only a fast path
+        byte[] existingResult = idempotencyMarkers.findBatch(idempotentId, System.currentTimeMillis());
+        if (existingResult != null) {
+            log.info("Batch transfer already processed for idempotentId: {}", idempotentId);
+            return CompletableFuture.completedFuture(CommandOutcome.decode(existingResult));
         }
         
-        return result.thenApply(success -> {
-            // Store batch-level idempotency marker after successful completion
-            if (success) {
-                try {
-                    String batchIdempotencyKey = "batch_idem:" + idempotentId;
-                    accountBusinessService.getRocksDBService().put(batchIdempotencyKey, "completed");
-                    
-                    // Clean up processing marker
-                    accountBusinessService.getRocksDBService().delete(batchIdempotencyKey + ":processing");
-                    
-                    log.info("Batch transfer completed successfully for idempotentId: {}", idempotentId);
-                } catch (Exception e) {
-                    log.error("Failed to store batch idempotency marker: {}", idempotentId, e);
-                }
-            } else {
-                // Clean up processing marker on failure
-                try {
-                    String batchIdempotencyKey = "batch_idem:" + idempotentId;
-                    accountBusinessService.getRocksDBService().delete(batchIdempotencyKey + ":processing");
-                } catch (Exception e) {
-                    log.warn("Failed to clean up processing marker: {}", idempotentId, e);
-                }
+        for (BatchTransferCommand.Leg leg : legs) {
+            if (leg.description() != null && leg.description().length() > MAX_DESCRIPTION_LENGTH) {
+                return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Description must be at most " + MAX_DESCRIPTION_LENGTH + " characters"));
             }
-            return success;
-        });
+            // Check existence in RocksDB (fast path)
+            if (!accountBusinessService.accountExists(leg.fromAccountId())) {
+                return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Source account does not exist: " + leg.fromAccountId()));
+            }
+            if (!accountBusinessService.accountExists(leg.toAccountId())) {
+                return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Destination account does not exist: " + leg.toAccountId()));
+            }
+        }
+        
+        String command = new BatchTransferCommand(idempotentId, System.currentTimeMillis(), legs).encode();
+        return submitCommand(command);
     }
     
     /**
@@ -363,20 +445,102 @@ public class LedgerService {
         return failed;
     }
     
+    /**
+     * Propose a PURGE_IDEMPOTENCY command for the markers that have expired at
+     * {@code nowMillis}, or a MIGRATE_IDEMPOTENCY command while unbucketed markers
+     * remain. Markers are only moved or deleted when the command is applied, so
+     * all replicas change them at the same log position. Completes with null when
+     * there is nothing to do.
+     */
+    public CompletableFuture<CommandOutcome> purgeExpiredIdempotencyMarkers(long nowMillis) {
+        String command;
+        try {
+            // Unbucketed markers from older versions are moved into a day bucket first
+            command = idempotencyMarkers.migrationCommand(nowMillis);
+            if (command == null) {
+                command = idempotencyMarkers.purgeCommand(nowMillis);
+            }
+        } catch (RocksDBException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (command == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submitCommand(command);
+    }
+    
+    private void proposeIdempotencyPurge() {
+        // With Raft only the leader proposes; followers purge when they apply its command
+        if (raftEnabled && (raftNodeManager == null || raftNodeManager.getNode() == null
+                || !raftNodeManager.getNode().isLeader())) {
+            return;
+        }
+        try {
+            purgeExpiredIdempotencyMarkers(System.currentTimeMillis()).whenComplete((outcome, ex) -> {
+                if (ex != null) {
+                    log.warn("Failed to propose idempotency marker purge: {}", ex.getMessage());
+                } else if (outcome != null && !outcome.isSuccess()) {
+                    log.warn("Idempotency marker purge failed: {}", outcome.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Failed to propose idempotency marker purge: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Submit a command through admission control.
+     * Rejects with {@link LedgerOverloadException} when too many proposals are pending,
+     * and delays the proposal while the MySQL writer is lagging.
+     */
+    private CompletableFuture<CommandOutcome> submitCommand(String command) {
+        if (!admissionControl.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                admissionControl.overloaded("Too many pending ledger commands, please retry later"));
+        }
+        
+        CompletableFuture<CommandOutcome> submitted;
+        long throttleDelayMs = admissionControl.throttleDelayMs();
+        if (throttleDelayMs > 0) {
+            log.debug("MySQL writer is lagging, delaying proposal by {}ms", throttleDelayMs);
+            submitted = CompletableFuture
+                .runAsync(() -> {}, CompletableFuture.delayedExecutor(throttleDelayMs, TimeUnit.MILLISECONDS))
+                .thenCompose(ignored -> dispatchCommand(command));
+        } else {
+            submitted = dispatchCommand(command);
+        }
+        return submitted.whenComplete((outcome, ex) -> admissionControl.release());
+    }
+    
+    private CompletableFuture<CommandOutcome> dispatchCommand(String command) {
+        if (raftEnabled && raftNodeManager != null) {
+            // Use JRaft consensus for distributed environment
+            return submitToRaft(command);
+        } else {
+            // Use FIFO command queue for standalone mode
+            return submitToStandaloneQueue(command);
+        }
+    }
+    
     /**
      * Submit command to standalone FIFO queue
      */
-    private CompletableFuture<Boolean> submitToStandaloneQueue(String command) {
+    private CompletableFuture<CommandOutcome> submitToStandaloneQueue(String command) {
         StandaloneCommand standaloneCommand = new StandaloneCommand(command);
         
         if (!commandQueue.offer(standaloneCommand)) {
-            log.error("Failed to enqueue standalone command: {}", command);
-            return CompletableFuture.completedFuture(false);
+            log.warn("Standalone command queue is full ({}), rejecting command", commandQueueCapacity);
+            return CompletableFuture.failedFuture(
+                admissionControl.reject("Ledger command queue is full, please retry later"));
         }
         
         return standaloneCommand.getFuture();
     }
     
+    public int getCommandQueueDepth() {
+        return commandQueue.size();
+    }
+    
     /**
      * 查询账户余额 (优先从RocksDB获取，提高性能)
      */
@@ -410,31 +574,39 @@ public class LedgerService {
         return balances;
     }
     
-    private CompletableFuture<Boolean> submitToRaft(String command) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private CompletableFuture<CommandOutcome> submitToRaft(String command) {
+        CompletableFuture<CommandOutcome> future = new CompletableFuture<>();
         
         try {
             Node node = raftNodeManager.getNode();
             if (node == null) {
-                future.complete(false);
+                future.complete(CommandOutcome.failed("Raft node is not available"));
                 return future;
             }
             
             Task task = new Task();
             task.setData(ByteBuffer.wrap(command.getBytes()));
-            task.setDone(status -> {
-                if (status.isOk()) {
-                    future.complete(true);
-                } else {
-                    log.error("Raft operation failed: {}", status);
-                    future.complete(false);
+            // The state machine hands the applied outcome to the closure
+            task.setDone(new OutcomeClosure() {
+                @Override
+                public void run(Status status) {
+                    if (status.isOk()) {
+                        future.complete(getOutcome() != null ? getOutcome() : CommandOutcome.applied());
+                    } else if (status.getRaftError() == RaftError.EBUSY) {
+                        log.warn("Raft node is busy, rejecting command: {}", status);
+                        future.completeExceptionally(
+                            admissionControl.reject("Raft node is busy, please retry later"));
+                    } else {
+                        log.error("Raft operation failed: {}", status);
+                        future.complete(CommandOutcome.failed("Raft operation failed: " + status.getErrorMsg()));
+                    }
                 }
             });
             
             node.apply(task);
         } catch (Exception e) {
             log.error("Failed to submit to raft: {}", command, e);
-            future.complete(false);
+            future.complete(CommandOutcome.failed("Failed to submit to raft: " + e.getMessage()));
         }
         
         return future;
@@ -483,6 +655,44 @@ public class LedgerService {
         public void setDescription(String description) { this.description = description; }
     }
     
+    // 批量建帳結果DTO: created counts the accounts the applied commands actually created
+    public static class BulkCreateResult {
+        private final int requested;
+        private final int alreadyExisting;
+        private final int proposed;
+        private final int created;
+        private final int commands;
+        private final int failedCommands;
+        private final int statusCode;
+        private final String error;
+        
+        public BulkCreateResult(int requested, int alreadyExisting, int proposed, int created,
+                                int commands, int failedCommands, int statusCode, String error) {
+            this.requested = requested;
+            this.alreadyExisting = alreadyExisting;
+            this.proposed = proposed;
+            this.created = created;
+            this.commands = commands;
+            this.failedCommands = failedCommands;
+            this.statusCode = statusCode;
+            this.error = error;
+        }
+        
+        public int getRequested() { return requested; }
+        public int getAlreadyExisting() { return alreadyExisting; }
+        public int getProposed() { return proposed; }
+        public int getCreated() { return created; }
+        public int getCommands() { return commands; }
+        public int getFailedCommands() { return failedCommands; }
+        public String getError() { return error; }
+        
+        // Status of the first failed command, 200 if every command was applied
+        @JsonIgnore
+        public int getStatusCode() { return statusCode; }
+        
+        public boolean isSuccess() { return failedCommands == 0; }
+    }
+    
     // 用戶餘額DTO
     public static class UserBalances {
         private String userId;
@@ -509,7 +719,7 @@ public class LedgerService {
      */
     private static class StandaloneCommand {
         private final String commandString;
-        private final CompletableFuture<Boolean> future;
+        private final CompletableFuture<CommandOutcome> future;
         
         public StandaloneCommand(String commandString) {
             this.commandString = commandString;
@@ -520,12 +730,12 @@ public class LedgerService {
             return commandString;
         }
         
-        public CompletableFuture<Boolean> getFuture() {
+        public CompletableFuture<CommandOutcome> getFuture() {
             return future;
         }
         
-        public void complete(boolean success) {
-            future.complete(success);
+        public void complete(CommandOutcome outcome) {
+            future.complete(outcome);
         }
         
         public void completeExceptionally(Throwable throwable) {
@@ -0,0 +1,153 @@
+package com.example.ledger.service;
+
+import com.example.ledger.config.RocksDBConfig;
+import com.example.ledger.config.RocksDBService;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local dead-letter log for MySQL rows that failed permanently, kept in the
+ * {@code deadletter} column family.
+ *
+ * {@link AsyncMySQLBatchWriter} isolates such rows by bisecting the failing
+ * batch, stores each one here under its outbox key and moves its partition
+ * checkpoint past it, so one bad row no longer blocks the partition. Entries
+ * are listed and replayed through the admin API.
+ */
+@Slf4j
+@Component
+public class MySQLDeadLetterStore {
+
+    private static final int MAX_REASON_LENGTH = 1000;
+
+    private final RocksDBService rocksDBService;
+    private final AtomicLong count = new AtomicLong(-1);
+
+    public MySQLDeadLetterStore(RocksDBService rocksDBService) {
+        this.rocksDBService = rocksDBService;
+    }
+
+    /**
+     * A dead-lettered event and why it failed
+     */
+    public record DeadLetter(WriteEvent event, long failedAt, String reason) {
+    }
+
+    public void put(WriteEvent event, String reason) throws RocksDBException {
+        byte[] key = MySQLOutbox.key(event.getOutboxPosition(), Math.max(0, event.getOutboxLeg()));
+        ColumnFamilyHandle deadLetters = deadLetters();
+        boolean existed = rocksDBService.get("default", deadLetters, key) != null;
+        // Load the count before the write, or the scan would already include this entry
+        count();
+        rocksDBService.put("default", deadLetters, key, encode(event, reason));
+        if (!existed) {
+            count.incrementAndGet();
+        }
+    }
+
+    public void delete(WriteEvent event) throws RocksDBException {
+        byte[] key = MySQLOutbox.key(event.getOutboxPosition(), Math.max(0, event.getOutboxLeg()));
+        count();
+        rocksDBService.delete("default", deadLetters(), key);
+        count.updateAndGet(current -> Math.max(0, current - 1));
+    }
+
+    /**
+     * Dead letters in outbox key order, at most {@code limit}
+     */
+    public List<DeadLetter> list(int limit) {
+        List<DeadLetter> result = new ArrayList<>();
+        try (RocksIterator iterator = rocksDBService.newIterator("default", deadLetters())) {
+            for (iterator.seekToFirst(); iterator.isValid() && result.size() < limit; iterator.next()) {
+                result.add(decode(iterator.key(), iterator.value()));
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to read MySQL dead letters", e);
+        }
+        return result;
+    }
+
+    public long count() {
+        if (count.get() < 0) {
+            long entries = 0;
+            try (RocksIterator iterator = rocksDBService.newIterator("default", deadLetters())) {
+                for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                    entries++;
+                }
+            } catch (RocksDBException e) {
+                log.warn("Failed to count MySQL dead letters: {}", e.getMessage());
+                return 0;
+            }
+            count.compareAndSet(-1, entries);
+        }
+        return count.get();
+    }
+
+    public static Map<String, Object> describe(DeadLetter deadLetter) {
+        WriteEvent event = deadLetter.event();
+        Map<String, Object> view = new LinkedHashMap<>();
+        view.put("position", event.getOutboxPosition());
+        view.put("leg", event.getOutboxLeg());
+        view.put("type", event.getType());
+        if (event.getType() == WriteEvent.Type.BALANCE) {
+            view.put("accountId", event.getAccountId());
+            view.put("balance", event.getBalance());
+        } else {
+            view.put("transactionId", event.getTransactionId());
+            view.put("fromAccountId", event.getFromAccountId());
+            view.put("toAccountId", event.getToAccountId());
+            view.put("amount", event.getAmount());
+            view.put("idempotentId", event.getIdempotentId());
+        }
+        view.put("failedAt", deadLetter.failedAt());
+        view.put("reason", deadLetter.reason());
+        return view;
+    }
+
+    private ColumnFamilyHandle deadLetters() throws RocksDBException {
+        return rocksDBService.columnFamily(RocksDBConfig.CF_DEADLETTER);
+    }
+
+    private static byte[] encode(WriteEvent event, String reason) {
+        String truncated = reason == null ? "" : reason.length() > MAX_REASON_LENGTH
+                ? reason.substring(0, MAX_REASON_LENGTH) : reason;
+        byte[] entry = MySQLOutbox.encode(event);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.length + truncated.length() + 16);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(truncated);
+            out.writeInt(entry.length);
+            out.write(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static DeadLetter decode(byte[] key, byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            long failedAt = in.readLong();
+            String reason = in.readUTF();
+            byte[] entry = new byte[in.readInt()];
+            in.readFully(entry);
+            return new DeadLetter(MySQLOutbox.decode(key, entry), failedAt, reason);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.ledger.service;
+
+import com.example.ledger.config.RocksDBConfig;
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.Account;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Durable outbox for MySQL persistence, kept in the {@code outbox} column family.
+ *
+ * State machines stage the write events of a command into the same RocksDB
+ * {@link WriteBatch} as the ledger mutation, so an applied command can never
+ * lose its MySQL rows. {@link AsyncMySQLBatchWriter} acknowledges (deletes)
+ * entries only after the MySQL transaction that contains them has committed,
+ * and whatever is left over is replayed at startup (or, with Raft, when the
+ * node becomes leader). Every node stages the entries of every committed log
+ * entry; nodes that are not writing prune them behind the MySQL sync checkpoints.
+ *
+ * Keys are 12 bytes: the 8-byte position of the command (Raft log index, or
+ * the persisted apply sequence in standalone mode) followed by a 4-byte leg
+ * number, so entries sort in apply order.
+ */
+@Slf4j
+@Component
+public class MySQLOutbox {
+
+    private static final byte BALANCE = 1;
+    private static final byte TRANSACTION = 2;
+
+    private final RocksDBService rocksDBService;
+    private final AtomicLong pendingEntries = new AtomicLong(0);
+
+    public MySQLOutbox(RocksDBService rocksDBService) {
+        this.rocksDBService = rocksDBService;
+    }
+
+    public static byte[] key(long position, int leg) {
+        return ByteBuffer.allocate(12).putLong(position).putInt(leg).array();
+    }
+
+    public static long positionOf(byte[] key) {
+        return ByteBuffer.wrap(key).getLong();
+    }
+
+    public static int legOf(byte[] key) {
+        return ByteBuffer.wrap(key).getInt(8);
+    }
+
+    /**
+     * Add the first {@code count} events of one command to the batch carrying its
+     * ledger mutation, assigning each event its outbox position and leg
+     */
+    public void stage(WriteBatch batch, long position, WriteEvent[] events, int count) throws RocksDBException {
+        ColumnFamilyHandle outbox = outbox();
+        for (int leg = 0; leg < count; leg++) {
+            WriteEvent event = events[leg];
+            batch.put(outbox, key(position, leg), encode(event));
+            event.setOutboxPosition(position);
+            event.setOutboxLeg(leg);
+        }
+    }
+
+    /**
+     * Must be called once the batch passed to {@link #stage} has been written
+     */
+    public void staged(int count) {
+        pendingEntries.addAndGet(count);
+    }
+
+    /**
+     * Remove entries whose rows are committed in MySQL
+     */
+    public void acknowledge(List<WriteEvent> events) {
+        int deleted = 0;
+        try (WriteBatch batch = new WriteBatch()) {
+            ColumnFamilyHandle outbox = outbox();
+            for (WriteEvent event : events) {
+                if (event.isStaged()) {
+                    batch.delete(outbox, key(event.getOutboxPosition(), event.getOutboxLeg()));
+                    deleted++;
+                }
+            }
+            if (deleted > 0) {
+                rocksDBService.write(batch);
+                pendingEntries.addAndGet(-deleted);
+            }
+        } catch (RocksDBException e) {
+            // Entries stay in the outbox and are replayed (idempotently) after a restart
+            log.error("Failed to acknowledge {} outbox entries: {}", deleted, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Hand every remaining entry, in key order, to the consumer
+     */
+    public long replay(Consumer<WriteEvent> consumer) {
+        long replayed = 0;
+        try (RocksIterator iterator = rocksDBService.newIterator("default", outbox())) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                consumer.accept(decode(iterator.key(), iterator.value()));
+                replayed++;
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to replay MySQL outbox", e);
+        }
+        pendingEntries.set(replayed);
+        if (replayed > 0) {
+            log.info("Replayed {} pending outbox entries to the MySQL writer", replayed);
+        }
+        return replayed;
+    }
+
+    /**
+     * Delete the entries the predicate reports as persisted. Used on nodes that
+     * do not write to MySQL themselves, where entries are covered once the sync
+     * checkpoints have passed them.
+     */
+    public long prune(Predicate<WriteEvent> persisted) {
+        long deleted = 0;
+        try (RocksIterator iterator = rocksDBService.newIterator("default", outbox());
+             WriteBatch batch = new WriteBatch()) {
+            ColumnFamilyHandle outbox = outbox();
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                if (persisted.test(decode(iterator.key(), iterator.value()))) {
+                    batch.delete(outbox, iterator.key());
+                    deleted++;
+                }
+            }
+            if (deleted > 0) {
+                rocksDBService.write(batch);
+                long removed = deleted;
+                pendingEntries.updateAndGet(pending -> Math.max(0, pending - removed));
+            }
+        } catch (RocksDBException e) {
+            log.warn("Failed to prune MySQL outbox: {}", e.getMessage());
+            return 0;
+        }
+        return deleted;
+    }
+
+    public long getPendingEntries() {
+        return pendingEntries.get();
+    }
+
+    private ColumnFamilyHandle outbox() throws RocksDBException {
+        return rocksDBService.columnFamily(RocksDBConfig.CF_OUTBOX);
+    }
+
+    // ---------------------------------------------------------------------
+    // Event serialization
+    // ---------------------------------------------------------------------
+
+    static byte[] encode(WriteEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(event.getEventTime());
+            if (event.getType() == WriteEvent.Type.BALANCE) {
+                out.writeByte(BALANCE);
+                out.writeUTF(event.getAccountId());
+                out.writeUTF(event.getBalance().toPlainString());
+            } else {
+                out.writeByte(TRANSACTION);
+                out.writeUTF(event.getTransactionId());
+                out.writeUTF(event.getFromAccountId());
+                out.writeUTF(event.getToAccountId());
+                out.writeUTF(event.getAmount().toPlainString());
+                writeNullable(out, event.getDescription());
+                writeNullable(out, event.getIdempotentId());
+                out.writeLong(event.getProcessedAtMillis());
+                writeNullable(out, event.getStatus());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static WriteEvent decode(byte[] key, byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            long eventTime = in.readLong();
+            byte type = in.readByte();
+            WriteEvent event = new WriteEvent();
+            if (type == BALANCE) {
+                String accountId = in.readUTF();
+                // The account row's user and type are encoded in the account ID
+                int separator = accountId.lastIndexOf(':');
+                event.balance(accountId, accountId.substring(0, separator),
+                        Account.AccountType.fromValue(accountId.substring(separator + 1)), new BigDecimal(in.readUTF()));
+            } else if (type == TRANSACTION) {
+                event.transaction(in.readUTF(), in.readUTF(), in.readUTF(), new BigDecimal(in.readUTF()),
+                        readNullable(in), readNullable(in), in.readLong());
+                event.setStatus(readNullable(in));
+            } else {
+                throw new IllegalArgumentException("Unknown outbox entry type: " + type);
+            }
+            event.setEventTime(eventTime);
+            event.setOutboxPosition(positionOf(key));
+            event.setOutboxLeg(legOf(key));
+            return event;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
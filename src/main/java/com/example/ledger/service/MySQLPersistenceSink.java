@@ -0,0 +1,56 @@
+package com.example.ledger.service;
+
+import com.example.ledger.mapper.AccountMapper;
+import com.example.ledger.mapper.ProcessedTransactionMapper;
+import com.example.ledger.mapper.SyncCheckpointMapper;
+import com.example.ledger.model.Account;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+
+/**
+ * Default sink: multi-row {@code INSERT ... ON DUPLICATE KEY UPDATE} / {@code INSERT IGNORE}
+ */
+@Component
+@ConditionalOnProperty(name = "mysql.writer.sink", havingValue = "mysql", matchIfMissing = true)
+public class MySQLPersistenceSink extends JdbcPersistenceSink {
+
+    private final AccountMapper accountMapper;
+    private final ProcessedTransactionMapper transactionMapper;
+
+    public MySQLPersistenceSink(PlatformTransactionManager transactionManager,
+                                SyncCheckpointMapper syncCheckpointMapper,
+                                AccountMapper accountMapper,
+                                ProcessedTransactionMapper transactionMapper) {
+        super(transactionManager, syncCheckpointMapper);
+        this.accountMapper = accountMapper;
+        this.transactionMapper = transactionMapper;
+    }
+
+    @Override
+    public String name() {
+        return "mysql";
+    }
+
+    @Override
+    public void ensureCheckpoint(int partitionCount, int partition) {
+        syncCheckpointMapper.ensureCheckpoint(partitionCount, partition);
+    }
+
+    @Override
+    public void upsertBalances(List<WriteEvent> balances) {
+        accountMapper.upsertBalances(balances);
+    }
+
+    @Override
+    public void ensureAccounts(List<Account> accounts) {
+        accountMapper.insertMissingAccounts(accounts);
+    }
+
+    @Override
+    public void insertTransactions(List<WriteEvent> transactions) {
+        transactionMapper.insertBatch(transactions);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.ledger.service;
+
+import com.example.ledger.state.AccountHandleRegistry;
+
+import java.util.Arrays;
+
+/**
+ * Accounts whose MySQL row this process has seen committed, as a bitset over
+ * account handles.
+ *
+ * The writer only creates placeholder rows for accounts that are not in the
+ * set, so in steady state a batch costs no extra statement. Rows are never
+ * deleted, so the set only grows; it starts empty, and each account costs one
+ * placeholder check after a restart. Accounts without a handle are never
+ * remembered and always checked (correct, just not skipped).
+ */
+class PersistedAccountRows {
+
+    private final AccountHandleRegistry handleRegistry;
+
+    // Replaced (never shrunk) when it grows; written under this, read lock-free
+    private volatile long[] words = new long[64];
+
+    PersistedAccountRows(AccountHandleRegistry handleRegistry) {
+        this.handleRegistry = handleRegistry;
+    }
+
+    boolean contains(String accountId) {
+        int handle = handleRegistry.handleOf(accountId);
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            return false;
+        }
+        long[] current = words;
+        int word = handle >>> 6;
+        return word < current.length && (current[word] & (1L << handle)) != 0;
+    }
+
+    /**
+     * Record that the account's row is committed
+     */
+    void mark(String accountId) {
+        int handle = handleRegistry.handleOf(accountId);
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            return;
+        }
+        synchronized (this) {
+            long[] current = words;
+            int word = handle >>> 6;
+            if (word >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, word + 1));
+            }
+            current[word] |= 1L << handle;
+            // Volatile write publishes the updated word to lock-free readers
+            words = current;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.Account;
+import com.example.ledger.model.SyncCheckpoint;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Destination of the rows produced by {@link AsyncMySQLBatchWriter}.
+ *
+ * The writer keeps partitioning, batching, coalescing, checkpoint filtering and
+ * retries; a sink only stores rows and the per-partition sync checkpoints. Every
+ * call made for one batch happens inside {@link #inTransaction}, and a sink must
+ * make the rows and the advanced checkpoint visible together (or not at all).
+ * Writes must be idempotent: an entry can be re-delivered if the process dies
+ * between the commit and the outbox acknowledgement.
+ *
+ * Selected with {@code mysql.writer.sink} ({@code mysql}, {@code h2} or {@code segment}).
+ */
+public interface PersistenceSink {
+
+    String name();
+
+    /**
+     * Run one batch atomically; the work calls the other methods of this sink
+     */
+    <T> T inTransaction(Supplier<T> work);
+
+    void ensureCheckpoint(int partitionCount, int partition);
+
+    /**
+     * Read the checkpoint for update within the current transaction, null if absent
+     */
+    SyncCheckpoint lockCheckpoint(int partitionCount, int partition);
+
+    void advanceCheckpoint(int partitionCount, int partition, long lastIndex, int lastLeg);
+
+    SyncCheckpoint findCheckpoint(int partitionCount, int partition);
+
+    /**
+     * Insert or overwrite account balances (coalesced BALANCE events)
+     */
+    void upsertBalances(List<WriteEvent> balances);
+
+    /**
+     * Create account rows that do not exist yet, without touching existing balances
+     */
+    void ensureAccounts(List<Account> accounts);
+
+    /**
+     * Append TRANSACTION events; already stored transaction IDs are ignored
+     */
+    void insertTransactions(List<WriteEvent> transactions);
+}
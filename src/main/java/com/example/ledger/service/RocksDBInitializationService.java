@@ -5,6 +5,9 @@ import com.example.ledger.mapper.AccountMapper;
 import com.example.ledger.mapper.ProcessedTransactionMapper;
 import com.example.ledger.model.Account;
 import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.state.AccountExistenceIndex;
+import com.example.ledger.state.AccountRecordCodec;
+import com.example.ledger.state.HotBalanceCache;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -23,6 +26,12 @@ public class RocksDBInitializationService {
     private ProcessedTransactionMapper transactionMapper;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
+    @Autowired
+    private AccountExistenceIndex accountExistenceIndex;
+    @Autowired
+    private AccountRecordCodec accountRecordCodec;
 
     private static final String ACCOUNT_PREFIX = "account:";
     private static final String TRANSACTION_PREFIX = "transaction:";
@@ -47,9 +56,10 @@ public class RocksDBInitializationService {
             for (Account account : accounts) {
                 try {
                     String accountKey = ACCOUNT_PREFIX + account.getAccountId();
-                    String accountJson = objectMapper.writeValueAsString(account);
-                    rocksDBService.put(accountKey, accountJson);
+                    rocksDBService.putBytes(accountKey, accountRecordCodec.encode(account));
+                    accountExistenceIndex.markExists(account.getAccountId());
                     rocksDBService.put(account.getAccountId(), account.getBalance().toString());
+                    hotBalanceCache.put(account.getAccountId(), account.getBalance());
                 } catch (Exception e) {
                     log.error("Failed to load account: {}", account.getAccountId(), e);
                 }
@@ -0,0 +1,521 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.Account;
+import com.example.ledger.model.SyncCheckpoint;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transaction history in local append-only, compressed columnar segment files.
+ *
+ * Every committed batch of a partition becomes one block appended to the
+ * partition's active segment ({@code <dir>/partition-<count>-<n>/segment-*.lseg}); a
+ * block stores each column (position, leg, transaction ID, accounts, amount,
+ * description, idempotency key, processed time, status) contiguously and
+ * deflated, framed by its length and CRC32 so a torn tail is detected. Segments
+ * roll at {@code mysql.writer.segment.max.bytes} and are never modified, so
+ * analytics can scan them directly with {@link #read}.
+ *
+ * Balances are not stored: RocksDB stays their source of truth. The partition
+ * checkpoint is a small file replaced atomically after the block is forced to
+ * disk, so a crash in between re-delivers the batch and the reader sees the rows
+ * twice; consumers deduplicate by transaction ID. Checkpoints are node-local,
+ * which makes this sink a fit for standalone nodes and benchmarks.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "mysql.writer.sink", havingValue = "segment")
+public class SegmentFilePersistenceSink implements PersistenceSink {
+
+    private static final int BLOCK_MAGIC = 0x4C534731; // "LSG1"
+    private static final String SEGMENT_SUFFIX = ".lseg";
+    private static final int MAX_UTF_BYTES = 65535;
+    private static final String[] COLUMNS = {
+            "position", "leg", "transaction_id", "from_account_id", "to_account_id",
+            "amount", "description", "idempotent_id", "processed_at", "status"};
+
+    @Value("${mysql.writer.segment.dir:./ledger-segments}")
+    private String segmentDir;
+
+    @Value("${mysql.writer.segment.max.bytes:67108864}")
+    private long maxSegmentBytes;
+
+    private final Map<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+    private final AtomicInteger segmentSequence = new AtomicInteger();
+
+    /**
+     * Rows and checkpoint of the batch being written by the current thread
+     */
+    private static final class Pending {
+        Partition partition;
+        final List<WriteEvent> rows = new ArrayList<>();
+        long lastIndex = -1;
+        int lastLeg = -1;
+    }
+
+    /**
+     * One partition directory: its lock (the FOR UPDATE of the JDBC sinks),
+     * active segment and checkpoint
+     */
+    private final class Partition {
+        final String name;
+        final Path dir;
+        final ReentrantLock lock = new ReentrantLock();
+        FileChannel active;
+        long activeBytes;
+        volatile SyncCheckpoint checkpoint;
+
+        Partition(String name) {
+            this.name = name;
+            this.dir = Paths.get(segmentDir, name);
+        }
+
+        void append(byte[] block) throws IOException {
+            if (active == null || activeBytes >= maxSegmentBytes) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            active.force(false);
+            activeBytes += block.length;
+        }
+
+        void roll() throws IOException {
+            close();
+            Files.createDirectories(dir);
+            // A fresh segment per process start: nothing is ever appended behind a torn block
+            Path segment = dir.resolve(String.format("segment-%013d-%06d%s",
+                    System.currentTimeMillis(), segmentSequence.incrementAndGet(), SEGMENT_SUFFIX));
+            active = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            activeBytes = 0;
+            log.info("Opened history segment {}", segment);
+        }
+
+        void close() throws IOException {
+            if (active != null) {
+                active.close();
+                active = null;
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return "segment";
+    }
+
+    @Override
+    public <T> T inTransaction(Supplier<T> work) {
+        Pending batch = new Pending();
+        pending.set(batch);
+        try {
+            T result = work.get();
+            commit(batch);
+            return result;
+        } finally {
+            pending.remove();
+            if (batch.partition != null) {
+                batch.partition.lock.unlock();
+            }
+        }
+    }
+
+    private void commit(Pending batch) {
+        Partition partition = batch.partition;
+        if (partition == null) {
+            // Writes outside the partition pipeline (dead-letter replays)
+            if (batch.rows.isEmpty()) {
+                return;
+            }
+            partition = partition("replayed");
+            partition.lock.lock();
+            batch.partition = partition;
+        }
+        try {
+            if (!batch.rows.isEmpty()) {
+                partition.append(encodeBlock(batch.rows));
+            }
+            if (batch.lastIndex >= 0) {
+                writeCheckpoint(partition, batch.lastIndex, batch.lastLeg);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write history segment of " + partition.name, e);
+        }
+    }
+
+    @Override
+    public void ensureCheckpoint(int partitionCount, int partition) {
+        checkpointOf(partition(partitionName(partitionCount, partition)), partitionCount, partition);
+    }
+
+    @Override
+    public SyncCheckpoint lockCheckpoint(int partitionCount, int partition) {
+        Pending batch = pending.get();
+        if (batch == null) {
+            throw new IllegalStateException("lockCheckpoint outside inTransaction");
+        }
+        Partition locked = partition(partitionName(partitionCount, partition));
+        if (batch.partition != locked) {
+            locked.lock.lock();
+            batch.partition = locked;
+        }
+        return checkpointOf(locked, partitionCount, partition);
+    }
+
+    @Override
+    public void advanceCheckpoint(int partitionCount, int partition, long lastIndex, int lastLeg) {
+        Pending batch = pending.get();
+        if (batch == null || batch.partition == null) {
+            throw new IllegalStateException("advanceCheckpoint without a locked checkpoint");
+        }
+        batch.lastIndex = lastIndex;
+        batch.lastLeg = lastLeg;
+    }
+
+    @Override
+    public SyncCheckpoint findCheckpoint(int partitionCount, int partition) {
+        return checkpointOf(partition(partitionName(partitionCount, partition)), partitionCount, partition);
+    }
+
+    @Override
+    public void upsertBalances(List<WriteEvent> balances) {
+        // Balances are served from RocksDB
+    }
+
+    @Override
+    public void ensureAccounts(List<Account> accounts) {
+        // No account rows, nothing to reference
+    }
+
+    @Override
+    public void insertTransactions(List<WriteEvent> transactions) {
+        Pending batch = pending.get();
+        if (batch == null) {
+            throw new IllegalStateException("insertTransactions outside inTransaction");
+        }
+        batch.rows.addAll(transactions);
+    }
+
+    /**
+     * All segment files in name (and therefore write) order per partition
+     */
+    public List<Path> segments() throws IOException {
+        Path root = Paths.get(segmentDir);
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+    }
+
+    /**
+     * Decode every complete block of a segment into TRANSACTION events (outbox
+     * position and leg included); a torn block at the end is ignored
+     */
+    public static long read(Path segment, Consumer<WriteEvent> consumer) throws IOException {
+        long rows = 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(segment))) {
+            while (true) {
+                int length;
+                long crc;
+                try {
+                    length = in.readInt();
+                    crc = in.readInt() & 0xFFFFFFFFL;
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] block = new byte[length];
+                try {
+                    in.readFully(block);
+                } catch (EOFException e) {
+                    log.warn("Ignoring torn block at the end of {}", segment);
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(block);
+                if (checksum.getValue() != crc) {
+                    log.warn("Ignoring corrupt block at the end of {}", segment);
+                    break;
+                }
+                rows += decodeBlock(block, consumer);
+            }
+        }
+        return rows;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (Partition partition : partitions.values()) {
+            partition.lock.lock();
+            try {
+                partition.close();
+            } catch (IOException e) {
+                log.warn("Failed to close history segment of {}: {}", partition.name, e.getMessage());
+            } finally {
+                partition.lock.unlock();
+            }
+        }
+    }
+
+    private Partition partition(String name) {
+        return partitions.computeIfAbsent(name, Partition::new);
+    }
+
+    private static String partitionName(int partitionCount, int partition) {
+        return "partition-" + partitionCount + "-" + partition;
+    }
+
+    // ---------------------------------------------------------------------
+    // Checkpoint files
+    // ---------------------------------------------------------------------
+
+    private SyncCheckpoint checkpointOf(Partition partition, int partitionCount, int partitionId) {
+        SyncCheckpoint checkpoint = partition.checkpoint;
+        if (checkpoint != null) {
+            return checkpoint;
+        }
+        checkpoint = new SyncCheckpoint();
+        checkpoint.setPartitionCount(partitionCount);
+        checkpoint.setPartitionId(partitionId);
+        checkpoint.setLastIndex(0L);
+        checkpoint.setLastLeg(-1);
+        Path file = partition.dir.resolve("checkpoint");
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+                checkpoint.setLastIndex(in.readLong());
+                checkpoint.setLastLeg(in.readInt());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read segment checkpoint " + file, e);
+            }
+        }
+        partition.checkpoint = checkpoint;
+        return checkpoint;
+    }
+
+    private void writeCheckpoint(Partition partition, long lastIndex, int lastLeg) throws IOException {
+        Files.createDirectories(partition.dir);
+        Path file = partition.dir.resolve("checkpoint");
+        Path temp = partition.dir.resolve("checkpoint.tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(12).putLong(lastIndex).putInt(lastLeg).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        SyncCheckpoint advanced = new SyncCheckpoint();
+        SyncCheckpoint previous = partition.checkpoint;
+        if (previous != null) {
+            advanced.setPartitionCount(previous.getPartitionCount());
+            advanced.setPartitionId(previous.getPartitionId());
+        }
+        advanced.setLastIndex(lastIndex);
+        advanced.setLastLeg(lastLeg);
+        partition.checkpoint = advanced;
+    }
+
+    // ---------------------------------------------------------------------
+    // Columnar blocks
+    // ---------------------------------------------------------------------
+
+    static byte[] encodeBlock(List<WriteEvent> rows) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(rows.size() * 64);
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeInt(BLOCK_MAGIC);
+            out.writeInt(rows.size());
+            out.writeInt(COLUMNS.length);
+            for (int column = 0; column < COLUMNS.length; column++) {
+                ByteArrayOutputStream raw = new ByteArrayOutputStream(rows.size() * 16);
+                try (DataOutputStream values = new DataOutputStream(raw)) {
+                    for (WriteEvent row : rows) {
+                        writeValue(values, column, row);
+                    }
+                }
+                byte[] compressed = deflate(raw.toByteArray());
+                out.writeUTF(COLUMNS[column]);
+                out.writeInt(raw.size());
+                out.writeInt(compressed.length);
+                out.write(compressed);
+            }
+        }
+        byte[] block = body.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(block);
+        return ByteBuffer.allocate(8 + block.length)
+                .putInt(block.length).putInt((int) checksum.getValue()).put(block).array();
+    }
+
+    private static void writeValue(DataOutputStream out, int column, WriteEvent row) throws IOException {
+        switch (column) {
+            case 0 -> out.writeLong(row.getOutboxPosition());
+            case 1 -> out.writeInt(row.getOutboxLeg());
+            case 2 -> writeNullable(out, row.getTransactionId());
+            case 3 -> writeNullable(out, row.getFromAccountId());
+            case 4 -> writeNullable(out, row.getToAccountId());
+            case 5 -> writeNullable(out, row.getAmount() != null ? row.getAmount().toPlainString() : null);
+            case 6 -> writeNullable(out, row.getDescription());
+            case 7 -> writeNullable(out, row.getIdempotentId());
+            case 8 -> out.writeLong(row.getProcessedAtMillis());
+            case 9 -> writeNullable(out, row.getStatus());
+            default -> throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    private static long decodeBlock(byte[] block, Consumer<WriteEvent> consumer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+        if (in.readInt() != BLOCK_MAGIC) {
+            throw new IOException("Not a history segment block");
+        }
+        int rowCount = in.readInt();
+        int columnCount = in.readInt();
+        WriteEvent[] rows = new WriteEvent[rowCount];
+        String[] amounts = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = new WriteEvent();
+            rows[i].setType(WriteEvent.Type.TRANSACTION);
+        }
+        for (int c = 0; c < columnCount; c++) {
+            String name = in.readUTF();
+            byte[] raw = new byte[in.readInt()];
+            byte[] compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+            inflate(compressed, raw);
+            int column = List.of(COLUMNS).indexOf(name);
+            if (column < 0) {
+                continue; // written by a newer version
+            }
+            DataInputStream values = new DataInputStream(new ByteArrayInputStream(raw));
+            for (int i = 0; i < rowCount; i++) {
+                WriteEvent row = rows[i];
+                switch (column) {
+                    case 0 -> row.setOutboxPosition(values.readLong());
+                    case 1 -> row.setOutboxLeg(values.readInt());
+                    case 2 -> row.setTransactionId(readNullable(values));
+                    case 3 -> row.setFromAccountId(readNullable(values));
+                    case 4 -> row.setToAccountId(readNullable(values));
+                    case 5 -> amounts[i] = readNullable(values);
+                    case 6 -> row.setDescription(readNullable(values));
+                    case 7 -> row.setIdempotentId(readNullable(values));
+                    case 8 -> row.setProcessedAtMillis(values.readLong());
+                    case 9 -> row.setStatus(readNullable(values));
+                    default -> throw new IllegalStateException();
+                }
+            }
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (amounts[i] != null) {
+                rows[i].setAmount(new BigDecimal(amounts[i]));
+            }
+            consumer.accept(rows[i]);
+        }
+        return rowCount;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(byte[] compressed, byte[] raw) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int offset = 0;
+            while (offset < raw.length && !inflater.finished()) {
+                int read = inflater.inflate(raw, offset, raw.length - offset);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += read;
+            }
+            if (offset != raw.length) {
+                throw new IOException("Truncated column: " + offset + " of " + raw.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt column", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(fitUtf(value));
+        }
+    }
+
+    /**
+     * The longest prefix of {@code value} that writeUTF can encode (65535 bytes of
+     * modified UTF-8). The API rejects longer descriptions; this keeps a row that
+     * slipped through from failing its whole block into the dead letters.
+     */
+    static String fitUtf(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            bytes += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            if (bytes > MAX_UTF_BYTES) {
+                int end = i > 0 && Character.isHighSurrogate(value.charAt(i - 1)) ? i - 1 : i;
+                log.warn("Truncating a {}-character value to {} characters for the history segment",
+                        value.length(), end);
+                return value.substring(0, end);
+            }
+        }
+        return value;
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
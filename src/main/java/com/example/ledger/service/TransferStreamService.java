@@ -0,0 +1,185 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming ingestion of NDJSON transfer files (end-of-day settlement).
+ *
+ * Records are parsed one at a time from the request body and proposed as
+ * individual TRANSFER commands, with up to {@code ledger.stream.max.in.flight}
+ * proposals outstanding, so the Raft apply loop (or the standalone queue) sees
+ * a full pipeline from one connection. One result line is written per record,
+ * in input order, followed by a summary line. Records are independent: a
+ * failed record does not stop the stream, and a retry of the whole file with
+ * per-record idempotency keys only applies the records that were missing.
+ */
+@Slf4j
+@Service
+public class TransferStreamService {
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${ledger.stream.max.in.flight:1000}")
+    private int maxInFlight;
+
+    private final AtomicLong streamedRecords = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        FunctionCounter.builder("ledger.stream.records", streamedRecords, AtomicLong::get)
+            .description("Transfer records ingested through the streaming endpoint")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Read transfer records from {@code in} until end of stream and write one
+     * result line per record to {@code out}. Blocks the calling thread.
+     */
+    public void ingest(InputStream in, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        ObjectReader reader = objectMapper.readerFor(TransferRecord.class);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        Semaphore window = new Semaphore(maxInFlight);
+        Deque<PendingRecord> pending = new ArrayDeque<>();
+        long[] totals = new long[3]; // records, succeeded, failed
+        String error = null;
+
+        try (MappingIterator<TransferRecord> records = reader.readValues(in)) {
+            long index = 0;
+            while (records.hasNextValue()) {
+                TransferRecord record = records.nextValue();
+                index++;
+                String invalid = validate(record);
+                CompletableFuture<CommandOutcome> result;
+                if (invalid != null) {
+                    result = CompletableFuture.completedFuture(CommandOutcome.failed(invalid));
+                } else {
+                    window.acquireUninterruptibly();
+                    result = ledgerService.transferWithOutcome(record.fromUserId(), record.fromType(),
+                            record.toUserId(), record.toType(), record.amount(),
+                            record.description() != null ? record.description() : "",
+                            record.idempotencyKey())
+                        .whenComplete((outcome, ex) -> window.release());
+                }
+                pending.addLast(new PendingRecord(index, record.idempotencyKey(), result));
+                drain(pending, writer, totals, false);
+            }
+        } catch (JsonProcessingException | RuntimeJsonMappingException e) {
+            // Cannot resynchronise reliably inside a malformed document: stop reading
+            error = "Malformed record after " + (totals[0] + pending.size()) + " records: " + e.getMessage();
+            log.warn("Transfer stream stopped: {}", error);
+        }
+
+        drain(pending, writer, totals, true);
+        streamedRecords.addAndGet(totals[0]);
+        writeLine(writer, new StreamSummary(true, totals[0], totals[1], totals[2],
+                System.currentTimeMillis() - start, error));
+        writer.flush();
+        log.info("Transfer stream ingested {} records ({} succeeded, {} failed) in {} ms",
+                totals[0], totals[1], totals[2], System.currentTimeMillis() - start);
+    }
+
+    private static String validate(TransferRecord record) {
+        if (record.fromUserId() == null || record.fromType() == null
+                || record.toUserId() == null || record.toType() == null) {
+            return "Both accounts are required";
+        }
+        if (record.amount() == null || record.amount().signum() <= 0) {
+            return "Amount must be positive";
+        }
+        // ':' separates the fields of a TRANSFER command
+        if (record.fromUserId().indexOf(':') >= 0 || record.toUserId().indexOf(':') >= 0
+                || (record.description() != null && record.description().indexOf(':') >= 0)
+                || (record.idempotencyKey() != null && record.idempotencyKey().indexOf(':') >= 0)) {
+            return "Fields must not contain ':'";
+        }
+        return null;
+    }
+
+    /**
+     * Write the results at the head of the queue that are complete, in input order.
+     * Ready lines are flushed before the caller blocks on the next read or proposal.
+     */
+    private void drain(Deque<PendingRecord> pending, Writer writer, long[] totals, boolean all) throws IOException {
+        boolean wrote = false;
+        while (!pending.isEmpty() && (all || pending.peekFirst().result().isDone())) {
+            PendingRecord head = pending.pollFirst();
+            RecordResult line = toResult(head);
+            totals[0]++;
+            totals[line.success() ? 1 : 2]++;
+            writeLine(writer, line);
+            wrote = true;
+        }
+        if (wrote) {
+            writer.flush();
+        }
+    }
+
+    private static RecordResult toResult(PendingRecord record) {
+        try {
+            CommandOutcome outcome = record.result().join();
+            return new RecordResult(record.index(), record.idempotencyKey(), outcome.getStatusCode(),
+                    outcome.isSuccess(), outcome.getMessage());
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            int status = cause instanceof LedgerOverloadException ? 429
+                    : cause instanceof IllegalArgumentException ? 404 : 500;
+            return new RecordResult(record.index(), record.idempotencyKey(), status, false, cause.getMessage());
+        }
+    }
+
+    private void writeLine(Writer writer, Object line) throws IOException {
+        writer.write(objectMapper.writeValueAsString(line));
+        writer.write('\n');
+    }
+
+    private record PendingRecord(long index, String idempotencyKey, CompletableFuture<CommandOutcome> result) {
+    }
+
+    // NDJSON input: one transfer per line
+    public record TransferRecord(String fromUserId, Account.AccountType fromType,
+                                 String toUserId, Account.AccountType toType,
+                                 BigDecimal amount, String description, String idempotencyKey) {
+    }
+
+    public record RecordResult(long record, String idempotencyKey, int status, boolean success, String message) {
+    }
+
+    public record StreamSummary(boolean summary, long records, long succeeded, long failed,
+                                long elapsedMs, String error) {
+    }
+}
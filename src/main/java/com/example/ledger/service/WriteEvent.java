@@ -1,32 +1,134 @@
 package com.example.ledger.service;
 
 import com.example.ledger.model.Account;
-import com.example.ledger.model.ProcessedTransaction;
-import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 
+/**
+ * One MySQL row to persist, as a flat mutable record.
+ *
+ * The same class is the pre-allocated RingBuffer slot, the reusable scratch
+ * record the state machines fill per command, and the source of the JDBC
+ * parameters. Only the object graph is flat: amounts stay {@code BigDecimal}
+ * and account IDs stay {@code String}, referencing the values the command
+ * already computed, so the record adds no wrapper objects of its own. In ring
+ * mode a publish copies those references into a slot; the queue mode and the
+ * multi-leg commands still allocate one record per row.
+ * Instances handed to {@link AsyncMySQLBatchWriter#enqueue} are copied and may
+ * be reused by the caller afterwards.
+ */
 @Data
 @NoArgsConstructor
-@AllArgsConstructor
 public class WriteEvent {
     public enum Type {
         TRANSACTION, BALANCE
     }
 
+    public static final String COMMITTED = "COMMITTED";
+
     private Type type;
+
+    // BALANCE: account row
     private String accountId;
+    private String userId;
+    private Account.AccountType accountType;
     private BigDecimal balance;
-    private ProcessedTransaction transaction;
+
+    // TRANSACTION: processed_transaction row
+    private String transactionId;
+    private String fromAccountId;
+    private String toAccountId;
+    private BigDecimal amount;
+    private String description;
+    private String idempotentId;
+    private long processedAtMillis;
+    private String status;
+
     private long eventTime;
+    // Assigned by AsyncMySQLBatchWriter on enqueue; orders balance updates of the same account
+    private long sequence;
+    // Durable outbox entry backing this event (leg -1 if not staged)
+    private long outboxPosition;
+    private int outboxLeg = -1;
+
+    public WriteEvent balance(String accountId, String userId, Account.AccountType accountType, BigDecimal balance) {
+        clear();
+        this.type = Type.BALANCE;
+        this.accountId = accountId;
+        this.userId = userId;
+        this.accountType = accountType;
+        this.balance = balance;
+        this.eventTime = System.currentTimeMillis();
+        return this;
+    }
+
+    public WriteEvent transaction(String transactionId, String fromAccountId, String toAccountId, BigDecimal amount,
+                                  String description, String idempotentId, long processedAtMillis) {
+        clear();
+        this.type = Type.TRANSACTION;
+        this.transactionId = transactionId;
+        this.fromAccountId = fromAccountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+        this.description = description;
+        this.idempotentId = idempotentId;
+        this.processedAtMillis = processedAtMillis;
+        this.status = COMMITTED;
+        this.eventTime = System.currentTimeMillis();
+        return this;
+    }
+
+    public void copyFrom(WriteEvent other) {
+        type = other.type;
+        accountId = other.accountId;
+        userId = other.userId;
+        accountType = other.accountType;
+        balance = other.balance;
+        transactionId = other.transactionId;
+        fromAccountId = other.fromAccountId;
+        toAccountId = other.toAccountId;
+        amount = other.amount;
+        description = other.description;
+        idempotentId = other.idempotentId;
+        processedAtMillis = other.processedAtMillis;
+        status = other.status;
+        eventTime = other.eventTime;
+        sequence = other.sequence;
+        outboxPosition = other.outboxPosition;
+        outboxLeg = other.outboxLeg;
+    }
+
+    public boolean isStaged() {
+        return outboxLeg >= 0;
+    }
 
-    public static WriteEvent forBalance(String accountId, BigDecimal balance) {
-        return new WriteEvent(Type.BALANCE, accountId, balance, null, System.currentTimeMillis());
+    /**
+     * JDBC parameter for processed_at; only evaluated on the writer threads
+     */
+    public LocalDateTime getProcessedAt() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(processedAtMillis), ZoneId.systemDefault());
     }
 
-    public static WriteEvent forTransaction(ProcessedTransaction tx) {
-        return new WriteEvent(Type.TRANSACTION, null, null, tx, System.currentTimeMillis());
+    private void clear() {
+        accountId = null;
+        userId = null;
+        accountType = null;
+        balance = null;
+        transactionId = null;
+        fromAccountId = null;
+        toAccountId = null;
+        amount = null;
+        description = null;
+        idempotentId = null;
+        processedAtMillis = 0L;
+        status = null;
+        sequence = 0L;
+        outboxPosition = 0L;
+        outboxLeg = -1;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Arrays;
+
+/**
+ * In-memory existence bitset over account handles.
+ *
+ * The {@code account:<accountId>} metadata key stays the source of truth: the
+ * index is rebuilt from a key scan at startup and marked whenever an account
+ * record is stored, so an existence check is a map lookup plus a bit test
+ * instead of two RocksDB reads and a JSON parse.
+ */
+@Slf4j
+@Component
+public class AccountExistenceIndex {
+
+    private static final String ACCOUNT_PREFIX = "account:";
+
+    private final RocksDBService rocksDBService;
+    private final AccountHandleRegistry handleRegistry;
+
+    // Replaced (never shrunk) when it grows; written under this, read lock-free
+    private volatile long[] words = new long[64];
+    private int count; // guarded by this
+
+    public AccountExistenceIndex(RocksDBService rocksDBService, AccountHandleRegistry handleRegistry) {
+        this.rocksDBService = rocksDBService;
+        this.handleRegistry = handleRegistry;
+    }
+
+    @PostConstruct
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            rocksDBService.scanPrefixBytes(ACCOUNT_PREFIX, (key, value) ->
+                    markExists(new String(key).substring(ACCOUNT_PREFIX.length())));
+            log.info("Account existence index rebuilt: {} accounts in {} ms",
+                    size(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.warn("Failed to rebuild account existence index: {}", e.getMessage());
+        }
+    }
+
+    public boolean exists(String accountId) {
+        int handle = handleRegistry.handleOf(accountId);
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            return false;
+        }
+        long[] current = words;
+        int word = handle >>> 6;
+        return word < current.length && (current[word] & (1L << handle)) != 0;
+    }
+
+    /**
+     * Record that the account's metadata has been stored
+     */
+    public void markExists(String accountId) {
+        int handle = handleRegistry.getOrAssign(accountId);
+        synchronized (this) {
+            long[] current = words;
+            int word = handle >>> 6;
+            if (word >= current.length) {
+                current = Arrays.copyOf(current, Math.max(current.length * 2, word + 1));
+            }
+            if ((current[word] & (1L << handle)) == 0) {
+                current[word] |= 1L << handle;
+                count++;
+            }
+            // Volatile write publishes the updated word to lock-free readers
+            words = current;
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps account IDs to compact, dense integer handles.
+ *
+ * Handles are node-local: they are assigned on first use, persisted under
+ * {@code handle:<accountId>} and reloaded at startup, so primitive structures
+ * (off-heap maps, bitsets, RocksDB index keys) can refer to an account by a
+ * 4-byte handle instead of its string ID.
+ */
+@Slf4j
+@Component
+public class AccountHandleRegistry {
+
+    public static final int NO_HANDLE = -1;
+
+    private static final String HANDLE_PREFIX = "handle:";
+
+    private final RocksDBService rocksDBService;
+    private final ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<>();
+
+    // Reverse mapping, indexed by handle; replaced (never mutated in place) when it grows
+    private volatile String[] accountIds = new String[1024];
+    private int nextHandle = 0; // guarded by this
+
+    public AccountHandleRegistry(RocksDBService rocksDBService) {
+        this.rocksDBService = rocksDBService;
+    }
+
+    @PostConstruct
+    public void loadHandles() {
+        try {
+            rocksDBService.scanPrefix(HANDLE_PREFIX, (key, value) ->
+                    register(key.substring(HANDLE_PREFIX.length()), Integer.parseInt(value)));
+            log.info("Loaded {} account handles from RocksDB", handles.size());
+        } catch (Exception e) {
+            log.warn("Failed to load account handles from RocksDB: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Handle of an account, or {@link #NO_HANDLE} if none has been assigned yet
+     */
+    public int handleOf(String accountId) {
+        Integer handle = handles.get(accountId);
+        return handle != null ? handle : NO_HANDLE;
+    }
+
+    /**
+     * Handle of an account, assigning and persisting a new one if needed
+     */
+    public int getOrAssign(String accountId) {
+        Integer handle = handles.get(accountId);
+        if (handle != null) {
+            return handle;
+        }
+        synchronized (this) {
+            handle = handles.get(accountId);
+            if (handle != null) {
+                return handle;
+            }
+            int assigned = nextHandle;
+            rocksDBService.put(HANDLE_PREFIX + accountId, Integer.toString(assigned));
+            register(accountId, assigned);
+            log.debug("Assigned handle {} to account {}", assigned, accountId);
+            return assigned;
+        }
+    }
+
+    /**
+     * Account ID for a handle, or null if the handle is unknown
+     */
+    public String accountIdOf(int handle) {
+        String[] ids = accountIds;
+        return handle >= 0 && handle < ids.length ? ids[handle] : null;
+    }
+
+    /**
+     * Upper bound (exclusive) of assigned handles
+     */
+    public synchronized int getHandleLimit() {
+        return nextHandle;
+    }
+
+    public int size() {
+        return handles.size();
+    }
+
+    private synchronized void register(String accountId, int handle) {
+        String[] ids = accountIds;
+        if (handle >= ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, handle + 1));
+        }
+        ids[handle] = accountId;
+        accountIds = ids;
+        handles.put(accountId, handle);
+        nextHandle = Math.max(nextHandle, handle + 1);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.service.WriteEvent;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-account transaction history in RocksDB, newest first.
+ *
+ * Key: {@code hist:} + 4-byte account handle + 8-byte reversed sequence, where
+ * the sequence is the command's apply position (log index, or standalone apply
+ * sequence) shifted left 16 bits plus the leg, as in {@link com.example.ledger.model.TransactionIds}.
+ * Every transaction writes one entry per side, in the same WriteBatch as the
+ * balances, so the index is exactly as current as the balances on every node.
+ * A statement page is one seek and a forward scan of at most the page size,
+ * and the cursor is the reversed sequence of the last entry returned.
+ *
+ * Handles are node-local (see {@link AccountHandleRegistry}), but a snapshot
+ * carries the {@code handle:} keys along with the index, so the two stay
+ * consistent. Transactions applied before the index existed are not in it.
+ */
+@Component
+public class AccountHistoryIndex {
+
+    private static final byte[] PREFIX = "hist:".getBytes(StandardCharsets.UTF_8);
+    private static final String VERSION = "v1";
+
+    private final RocksDBService rocksDBService;
+    private final AccountHandleRegistry handleRegistry;
+
+    @Value("${ledger.history.enabled:true}")
+    private boolean enabled;
+
+    public AccountHistoryIndex(RocksDBService rocksDBService, AccountHandleRegistry handleRegistry) {
+        this.rocksDBService = rocksDBService;
+        this.handleRegistry = handleRegistry;
+    }
+
+    public record Entry(String transactionId, String counterpartyAccountId, BigDecimal amount,
+                        BigDecimal balanceAfter, long appliedAtMillis, String description) {
+    }
+
+    public record Page(String accountId, List<Entry> entries, String nextCursor) {
+    }
+
+    /**
+     * Stage both sides of a transaction row: a debit on the source account and a
+     * credit on the destination, each with the account's balance after the leg
+     */
+    public void stage(WriteBatch batch, long position, int leg, WriteEvent transaction,
+                      BigDecimal fromBalanceAfter, BigDecimal toBalanceAfter) throws RocksDBException {
+        if (!enabled) {
+            return;
+        }
+        long reversed = ~(position << 16 | leg);
+        batch.put(key(handleRegistry.getOrAssign(transaction.getFromAccountId()), reversed),
+                encode(transaction, transaction.getToAccountId(), transaction.getAmount().negate(), fromBalanceAfter));
+        batch.put(key(handleRegistry.getOrAssign(transaction.getToAccountId()), reversed),
+                encode(transaction, transaction.getFromAccountId(), transaction.getAmount(), toBalanceAfter));
+    }
+
+    /**
+     * Up to {@code limit} entries of an account, newest first, starting after {@code cursor}
+     * (null for the first page). The next cursor is null on the last page.
+     */
+    public Page page(String accountId, String cursor, int limit) throws RocksDBException {
+        int handle = handleRegistry.handleOf(accountId);
+        List<Entry> entries = new ArrayList<>(Math.min(limit, 1024));
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            return new Page(accountId, entries, null);
+        }
+        boolean resume = cursor != null && !cursor.isEmpty();
+        long start = 0;
+        if (resume) {
+            try {
+                start = Long.parseUnsignedLong(cursor, 16);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+        byte[] prefix = ByteBuffer.allocate(PREFIX.length + 4).put(PREFIX).putInt(handle).array();
+        String nextCursor = null;
+        long last = start;
+        try (RocksIterator iterator = rocksDBService.newIterator()) {
+            iterator.seek(key(handle, start));
+            // The cursor entry itself was the last one of the previous page
+            if (resume && iterator.isValid() && startsWith(iterator.key(), prefix)
+                    && reversedOf(iterator.key(), prefix.length) == start) {
+                iterator.next();
+            }
+            for (; iterator.isValid() && startsWith(iterator.key(), prefix); iterator.next()) {
+                if (entries.size() == limit) {
+                    nextCursor = Long.toHexString(last);
+                    break;
+                }
+                entries.add(decode(iterator.value()));
+                last = reversedOf(iterator.key(), prefix.length);
+            }
+        }
+        return new Page(accountId, entries, nextCursor);
+    }
+
+    private static byte[] key(int handle, long reversed) {
+        return ByteBuffer.allocate(PREFIX.length + 12).put(PREFIX).putInt(handle).putLong(reversed).array();
+    }
+
+    private static long reversedOf(byte[] key, int offset) {
+        return ByteBuffer.wrap(key, offset, 8).getLong();
+    }
+
+    private static byte[] encode(WriteEvent transaction, String counterparty, BigDecimal amount, BigDecimal balanceAfter) {
+        return String.join("|", VERSION, transaction.getTransactionId(), counterparty, amount.toPlainString(),
+                balanceAfter != null ? balanceAfter.toPlainString() : "",
+                Long.toString(transaction.getProcessedAtMillis()),
+                transaction.getDescription() != null ? transaction.getDescription() : "")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Entry decode(byte[] value) {
+        String[] fields = new String(value, StandardCharsets.UTF_8).split("\\|", 7);
+        return new Entry(fields[1], fields[2], new BigDecimal(fields[3]),
+                fields[4].isEmpty() ? null : new BigDecimal(fields[4]), Long.parseLong(fields[5]), fields[6]);
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.ledger.state;
+
+import com.example.ledger.model.Account;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Binary codec for the account metadata record stored under {@code account:<accountId>}.
+ *
+ * Layout (big-endian):
+ * <pre>
+ *   [0]      format version (currently 1)
+ *   [1]      flags
+ *   [2]      account type ordinal
+ *   [3..10]  created-at, epoch millis
+ *   [11..]   user id, UTF-8
+ * </pre>
+ * The account ID is the key suffix and the balance lives under its own key,
+ * so neither is duplicated in the record. Legacy Jackson JSON records (first
+ * byte '{') are still decoded and can be re-encoded with {@link #migrate}.
+ */
+@Component
+public class AccountRecordCodec {
+
+    public static final byte FORMAT_VERSION = 1;
+    public static final byte FLAG_NONE = 0;
+    public static final byte FLAG_MIGRATED = 1; // re-encoded from a legacy JSON record
+
+    private static final int HEADER_BYTES = 11;
+    private static final Account.AccountType[] TYPES = Account.AccountType.values();
+
+    private final ObjectMapper objectMapper;
+
+    public AccountRecordCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public byte[] encode(String userId, Account.AccountType accountType, long createdAtMillis) {
+        return encode(userId, accountType, createdAtMillis, FLAG_NONE);
+    }
+
+    public byte[] encode(String userId, Account.AccountType accountType, long createdAtMillis, byte flags) {
+        byte[] user = userId.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(HEADER_BYTES + user.length)
+                .put(FORMAT_VERSION)
+                .put(flags)
+                .put((byte) accountType.ordinal())
+                .putLong(createdAtMillis)
+                .put(user)
+                .array();
+    }
+
+    public byte[] encode(Account account) {
+        return encode(account.getUserId(), account.getAccountType(), toEpochMillis(account.getCreatedAt()));
+    }
+
+    /**
+     * Decode a record (binary or legacy JSON). The balance is not part of the
+     * record and is left null for the caller to fill in.
+     */
+    public Account decode(String accountId, byte[] record) {
+        if (isLegacy(record)) {
+            Account account = readLegacy(record);
+            account.setAccountId(accountId);
+            account.setBalance(null);
+            return account;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported account record version " + version + " for " + accountId);
+        }
+        buffer.get(); // flags
+        Account.AccountType accountType = TYPES[buffer.get()];
+        LocalDateTime createdAt = toLocalDateTime(buffer.getLong());
+        String userId = new String(record, HEADER_BYTES, record.length - HEADER_BYTES, StandardCharsets.UTF_8);
+
+        Account account = new Account();
+        account.setAccountId(accountId);
+        account.setUserId(userId);
+        account.setAccountType(accountType);
+        account.setCreatedAt(createdAt);
+        account.setUpdatedAt(createdAt);
+        return account;
+    }
+
+    public boolean isLegacy(byte[] record) {
+        return record.length > 0 && record[0] == '{';
+    }
+
+    /**
+     * Re-encode a legacy JSON record in the binary format
+     */
+    public byte[] migrate(byte[] legacyRecord) {
+        Account account = readLegacy(legacyRecord);
+        return encode(account.getUserId(), account.getAccountType(),
+                toEpochMillis(account.getCreatedAt()), FLAG_MIGRATED);
+    }
+
+    private Account readLegacy(byte[] record) {
+        try {
+            return objectMapper.readValue(record, Account.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Corrupt legacy account record", e);
+        }
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime != null
+                ? dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : System.currentTimeMillis();
+    }
+
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online migration of legacy JSON account records to the binary format.
+ *
+ * Runs once in the background after startup. Account records are written once
+ * at creation and never updated, so re-encoding in place races with nothing but
+ * the lazy re-encode in {@code AccountBusinessService.getAccount}, which writes
+ * the same bytes.
+ */
+@Slf4j
+@Component
+public class AccountRecordMigration {
+
+    private static final String ACCOUNT_PREFIX = "account:";
+
+    @Value("${ledger.account-record.migration.enabled:true}")
+    private boolean enabled;
+
+    private final RocksDBService rocksDBService;
+    private final AccountRecordCodec accountRecordCodec;
+    private final AtomicLong migrated = new AtomicLong();
+
+    public AccountRecordMigration(RocksDBService rocksDBService, AccountRecordCodec accountRecordCodec) {
+        this.rocksDBService = rocksDBService;
+        this.accountRecordCodec = accountRecordCodec;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::migrateLegacyRecords, "account-record-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void migrateLegacyRecords() {
+        long start = System.currentTimeMillis();
+        try {
+            rocksDBService.scanPrefixBytes(ACCOUNT_PREFIX, (key, value) -> {
+                if (!accountRecordCodec.isLegacy(value)) {
+                    return;
+                }
+                try {
+                    rocksDBService.put(key, accountRecordCodec.migrate(value));
+                    migrated.incrementAndGet();
+                } catch (Exception e) {
+                    log.warn("Failed to migrate account record {}: {}", new String(key), e.getMessage());
+                }
+            });
+            if (migrated.get() > 0) {
+                log.info("Migrated {} legacy JSON account records to binary in {} ms",
+                        migrated.get(), System.currentTimeMillis() - start);
+            }
+        } catch (Exception e) {
+            log.warn("Account record migration stopped: {}", e.getMessage());
+        }
+    }
+
+    public long getMigratedCount() {
+        return migrated.get();
+    }
+}
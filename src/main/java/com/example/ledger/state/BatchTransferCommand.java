@@ -0,0 +1,185 @@
+package com.example.ledger.state;
+
+import com.example.ledger.model.Account;
+import com.example.ledger.model.Transaction;
+
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A multi-leg transfer proposed as one command and applied all or nothing.
+ *
+ * Format: {@code BATCH_TRANSFER:idempotentId:proposedAt:leg;leg;...}, each leg
+ * being {@code fromUserId,fromType,toUserId,toType,amount,description}. Free-text
+ * fields are URL-encoded, so they cannot contain the {@code :}, {@code ;} or
+ * {@code ,} separators.
+ */
+public final class BatchTransferCommand {
+
+    public static final String OPERATION = "BATCH_TRANSFER";
+
+    private final String idempotentId;
+    private final long proposedAt;
+    private final List<Leg> legs;
+
+    public BatchTransferCommand(String idempotentId, long proposedAt, List<Leg> legs) {
+        this.idempotentId = idempotentId;
+        this.proposedAt = proposedAt;
+        this.legs = legs;
+    }
+
+    public record Leg(String fromUserId, Account.AccountType fromType, String toUserId,
+                      Account.AccountType toType, BigDecimal amount, String description) {
+
+        public String fromAccountId() {
+            return Account.generateAccountId(fromUserId, fromType);
+        }
+
+        public String toAccountId() {
+            return Account.generateAccountId(toUserId, toType);
+        }
+    }
+
+    /**
+     * Legs of a journal posting, one per double entry. Entries without a
+     * description take the journal's.
+     */
+    public static List<Leg> legsOf(Transaction journal) {
+        List<Leg> legs = new ArrayList<>(journal.getEntries().size());
+        for (Transaction.DoubleEntry entry : journal.getEntries()) {
+            String[] from = splitAccountId(entry.getFromAccountId());
+            String[] to = splitAccountId(entry.getToAccountId());
+            String description = entry.getDescription() != null ? entry.getDescription() : journal.getDescription();
+            legs.add(new Leg(from[0], Account.AccountType.fromValue(from[1]),
+                    to[0], Account.AccountType.fromValue(to[1]), entry.getAmount(), description));
+        }
+        return legs;
+    }
+
+    // userId:type -> {userId, type}
+    private static String[] splitAccountId(String accountId) {
+        int separator = accountId.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("Invalid account ID: " + accountId);
+        }
+        return new String[]{accountId.substring(0, separator), accountId.substring(separator + 1)};
+    }
+
+    public String getIdempotentId() {
+        return idempotentId;
+    }
+
+    public long getProposedAt() {
+        return proposedAt;
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    public String encode() {
+        StringBuilder command = new StringBuilder(OPERATION).append(':')
+                .append(escape(idempotentId)).append(':').append(proposedAt).append(':');
+        for (int i = 0; i < legs.size(); i++) {
+            Leg leg = legs.get(i);
+            if (i > 0) {
+                command.append(';');
+            }
+            command.append(escape(leg.fromUserId())).append(',').append(leg.fromType().getValue()).append(',')
+                    .append(escape(leg.toUserId())).append(',').append(leg.toType().getValue()).append(',')
+                    .append(leg.amount().toPlainString()).append(',')
+                    .append(escape(leg.description() != null ? leg.description() : ""));
+        }
+        return command.toString();
+    }
+
+    public static BatchTransferCommand decode(String command) {
+        String[] parts = command.split(":", 4);
+        if (parts.length != 4 || !OPERATION.equals(parts[0]) || parts[3].isEmpty()) {
+            throw new IllegalArgumentException("Invalid BATCH_TRANSFER command format");
+        }
+        List<Leg> legs = new ArrayList<>();
+        for (String encoded : parts[3].split(";")) {
+            String[] fields = encoded.split(",", -1);
+            if (fields.length != 6) {
+                throw new IllegalArgumentException("Invalid BATCH_TRANSFER leg: " + encoded);
+            }
+            legs.add(new Leg(unescape(fields[0]), Account.AccountType.fromValue(fields[1]),
+                    unescape(fields[2]), Account.AccountType.fromValue(fields[3]),
+                    new BigDecimal(fields[4]), unescape(fields[5])));
+        }
+        return new BatchTransferCommand(unescape(parts[1]), Long.parseLong(parts[2]), legs);
+    }
+
+    /**
+     * Net balance change per account over all legs, in first-touched order.
+     * Funds are checked against the net change, so an account may pay out in one
+     * leg what it receives in another.
+     */
+    public Map<String, BigDecimal> netChanges() {
+        Map<String, BigDecimal> changes = new LinkedHashMap<>();
+        for (Leg leg : legs) {
+            changes.merge(leg.fromAccountId(), leg.amount().negate(), BigDecimal::add);
+            changes.merge(leg.toAccountId(), leg.amount(), BigDecimal::add);
+        }
+        return changes;
+    }
+
+    /**
+     * Balances before the batch, given the balances {@link #resolve} computed after it
+     */
+    public Map<String, BigDecimal> startingBalances(Map<String, BigDecimal> newBalances) {
+        Map<String, BigDecimal> starting = new LinkedHashMap<>();
+        for (Map.Entry<String, BigDecimal> change : netChanges().entrySet()) {
+            starting.put(change.getKey(), newBalances.get(change.getKey()).subtract(change.getValue()));
+        }
+        return starting;
+    }
+
+    /**
+     * Validate the whole batch against current balances and fill {@code newBalances}
+     * with the balance of every touched account after all legs. Returns null if the
+     * batch can be applied, otherwise the reason it is rejected.
+     *
+     * @param balanceOf current balance of an account, or null if it does not exist
+     */
+    public String resolve(Function<String, BigDecimal> balanceOf, Map<String, BigDecimal> newBalances) {
+        if (legs.isEmpty()) {
+            return "Batch transfer has no legs";
+        }
+        for (int i = 0; i < legs.size(); i++) {
+            if (legs.get(i).amount().signum() <= 0) {
+                return "Invalid amount in leg " + i + ": " + legs.get(i).amount();
+            }
+        }
+        for (Map.Entry<String, BigDecimal> change : netChanges().entrySet()) {
+            String accountId = change.getKey();
+            BigDecimal balance = balanceOf.apply(accountId);
+            if (balance == null) {
+                return "Account does not exist: " + accountId;
+            }
+            BigDecimal updated = balance.add(change.getValue());
+            if (updated.signum() < 0) {
+                return "Insufficient funds in " + accountId + ": balance " + balance
+                        + ", net change " + change.getValue();
+            }
+            newBalances.put(accountId, updated);
+        }
+        return null;
+    }
+
+    private static String escape(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.ledger.state;
+
+import com.example.ledger.model.Account;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Many account creations proposed as one command and stored in one WriteBatch.
+ *
+ * Format: {@code BULK_CREATE:proposedAt:userId,type;userId,type;...} with
+ * URL-encoded user IDs. Accounts that already exist when the command is
+ * applied are skipped, so replaying a command is harmless.
+ */
+public final class BulkCreateAccountsCommand {
+
+    public static final String OPERATION = "BULK_CREATE";
+
+    private final long proposedAt;
+    private final List<NewAccount> accounts;
+
+    public BulkCreateAccountsCommand(long proposedAt, List<NewAccount> accounts) {
+        this.proposedAt = proposedAt;
+        this.accounts = accounts;
+    }
+
+    public record NewAccount(String userId, Account.AccountType accountType) {
+
+        public String accountId() {
+            return Account.generateAccountId(userId, accountType);
+        }
+    }
+
+    public long getProposedAt() {
+        return proposedAt;
+    }
+
+    public List<NewAccount> getAccounts() {
+        return accounts;
+    }
+
+    public String encode() {
+        StringBuilder command = new StringBuilder(OPERATION).append(':').append(proposedAt).append(':');
+        for (int i = 0; i < accounts.size(); i++) {
+            NewAccount account = accounts.get(i);
+            if (i > 0) {
+                command.append(';');
+            }
+            command.append(URLEncoder.encode(account.userId(), StandardCharsets.UTF_8))
+                    .append(',').append(account.accountType().getValue());
+        }
+        return command.toString();
+    }
+
+    public static BulkCreateAccountsCommand decode(String command) {
+        String[] parts = command.split(":", 3);
+        if (parts.length != 3 || !OPERATION.equals(parts[0]) || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("Invalid BULK_CREATE command format");
+        }
+        List<NewAccount> accounts = new ArrayList<>();
+        for (String encoded : parts[2].split(";")) {
+            int separator = encoded.lastIndexOf(',');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Invalid BULK_CREATE account: " + encoded);
+            }
+            accounts.add(new NewAccount(URLDecoder.decode(encoded.substring(0, separator), StandardCharsets.UTF_8),
+                    Account.AccountType.fromValue(encoded.substring(separator + 1))));
+        }
+        return new BulkCreateAccountsCommand(Long.parseLong(parts[1]), accounts);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.ledger.state;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent bitset of account handles whose balance changed since the last
+ * balance checkpoint.
+ *
+ * Bits live in fixed-size chunks of {@link AtomicLongArray}; growing only appends
+ * chunks (the chunk table is replaced, never the chunks), so a mark racing a
+ * resize cannot be lost. {@link #drain} clears each word with {@code getAndSet},
+ * so a handle marked during a drain is either reported now or kept for the next one.
+ */
+public class DirtyAccountSet {
+
+    private static final int CHUNK_SHIFT = 16;                 // 65536 handles per chunk
+    private static final int WORDS_PER_CHUNK = (1 << CHUNK_SHIFT) >>> 6;
+
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    public void mark(int handle) {
+        if (handle < 0) {
+            return;
+        }
+        AtomicLongArray chunk = chunk(handle >>> CHUNK_SHIFT);
+        int word = (handle >>> 6) & (WORDS_PER_CHUNK - 1);
+        long bit = 1L << handle; // shift uses the low 6 bits
+        long current = chunk.get(word);
+        if ((current & bit) == 0) {
+            chunk.getAndAccumulate(word, bit, (value, mask) -> value | mask);
+        }
+    }
+
+    /**
+     * Clear and return every marked handle, in ascending order
+     */
+    public int[] drain() {
+        int[] handles = new int[64];
+        int drained = 0;
+        AtomicLongArray[] table = chunks;
+        for (int c = 0; c < table.length; c++) {
+            AtomicLongArray chunk = table[c];
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                if (chunk.get(w) == 0) {
+                    continue;
+                }
+                long bits = chunk.getAndSet(w, 0);
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (drained == handles.length) {
+                        handles = Arrays.copyOf(handles, drained * 2);
+                    }
+                    handles[drained++] = (c << CHUNK_SHIFT) | (w << 6) | bit;
+                }
+            }
+        }
+        return Arrays.copyOf(handles, drained);
+    }
+
+    /**
+     * Number of marked handles (a moment-in-time count while marks continue)
+     */
+    public int cardinality() {
+        int count = 0;
+        for (AtomicLongArray chunk : chunks) {
+            for (int w = 0; w < WORDS_PER_CHUNK; w++) {
+                count += Long.bitCount(chunk.get(w));
+            }
+        }
+        return count;
+    }
+
+    private AtomicLongArray chunk(int index) {
+        AtomicLongArray[] table = chunks;
+        if (index < table.length) {
+            return table[index];
+        }
+        synchronized (this) {
+            table = chunks;
+            if (index >= table.length) {
+                AtomicLongArray[] grown = Arrays.copyOf(table, index + 1);
+                for (int i = table.length; i < grown.length; i++) {
+                    grown[i] = new AtomicLongArray(WORDS_PER_CHUNK);
+                }
+                chunks = grown;
+                table = grown;
+            }
+            return table[index];
+        }
+    }
+}
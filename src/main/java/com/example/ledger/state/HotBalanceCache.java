@@ -0,0 +1,339 @@
+package com.example.ledger.state;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing map from account handle to balance, kept in front of RocksDB
+ * so hot balance reads skip JNI and string parsing.
+ *
+ * The probe table lives off-heap: each slot is 16 bytes in a direct buffer,
+ * holding handle + 1 (0 marks an empty slot) and a CLOCK reference byte. The
+ * balance itself is the (immutable) BigDecimal the writer stored, kept in an
+ * on-heap array at the same slot index, so a hit returns it without allocating
+ * and there are no per-entry map nodes or boxed keys.
+ *
+ * Writes are write-through from the state machines and serialized by a
+ * {@link StampedLock}; reads are optimistic and lock-free in the common case.
+ * When the cache is full, cold entries (reference byte clear) are evicted by a
+ * CLOCK sweep and removed with backward-shift deletion, so no tombstones build up.
+ */
+@Slf4j
+@Component
+public class HotBalanceCache {
+
+    private static final int SLOT_BYTES = 16;
+    private static final int KEY_OFFSET = 0;
+    private static final int REF_OFFSET = 8;
+    private static final int EPOCH_STRIPES = 1024;
+
+    @Value("${ledger.balance-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ledger.balance-cache.capacity:524288}")
+    private int capacity;
+
+    private final AccountHandleRegistry handleRegistry;
+    private final StampedLock lock = new StampedLock();
+    // Per-stripe write counters, used to detect writes that race a read-through population
+    private final AtomicLongArray writeEpochs = new AtomicLongArray(EPOCH_STRIPES);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private ByteBuffer table;
+    private BigDecimal[] values; // indexed like the slots
+    private int mask;
+    private int size;       // guarded by lock (write)
+    private int clockHand;  // guarded by lock (write)
+
+    public HotBalanceCache(AccountHandleRegistry handleRegistry) {
+        this.handleRegistry = handleRegistry;
+    }
+
+    @PostConstruct
+    public void allocate() {
+        if (!enabled) {
+            log.info("Hot balance cache is disabled");
+            return;
+        }
+        // Keep the load factor at or below 0.75
+        int slots = Integer.highestOneBit(Math.max(16, capacity + capacity / 3) - 1) << 1;
+        table = ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+        values = new BigDecimal[slots];
+        mask = slots - 1;
+        log.info("Hot balance cache allocated: capacity={}, slots={}, offHeapBytes={}",
+                capacity, slots, (long) slots * SLOT_BYTES);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Cached balance of an account, or null on a miss
+     */
+    public BigDecimal get(String accountId) {
+        if (!enabled) {
+            return null;
+        }
+        int handle = handleRegistry.handleOf(accountId);
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            misses.increment();
+            return null;
+        }
+
+        long stamp = lock.tryOptimisticRead();
+        int slot = findSlot(handle);
+        BigDecimal balance = slot >= 0 ? values[slot / SLOT_BYTES] : null;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                slot = findSlot(handle);
+                balance = slot >= 0 ? values[slot / SLOT_BYTES] : null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (balance == null) {
+            misses.increment();
+            return null;
+        }
+        // Benign race, deliberately outside the lock: the reference byte is only a
+        // CLOCK hint. It never overlaps a key or a value, so a concurrent shift
+        // can at worst make this store mark the wrong slot, which only gives that
+        // entry an extra round before eviction (copySlot and upsert rewrite the
+        // byte of any slot they fill). Skipping the store when the byte is already
+        // set keeps hot entries from dirtying the cache line on every read.
+        if (table.get(slot + REF_OFFSET) == 0) {
+            table.put(slot + REF_OFFSET, (byte) 1);
+        }
+        hits.increment();
+        return balance;
+    }
+
+    /**
+     * Write-through update after the balance has been stored in RocksDB
+     */
+    public void put(String accountId, BigDecimal balance) {
+        if (!enabled) {
+            return;
+        }
+        int handle = handleRegistry.getOrAssign(accountId);
+        long stamp = lock.writeLock();
+        try {
+            writeEpochs.incrementAndGet(handle & (EPOCH_STRIPES - 1));
+            if (balance == null) {
+                removeHandle(handle);
+            } else {
+                upsert(handle, balance);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Token to take before reading a balance from RocksDB and pass to {@link #populate}.
+     * Accounts that were never written through the cache have no handle and are not populated.
+     */
+    public long populationToken(String accountId) {
+        int handle = enabled ? handleRegistry.handleOf(accountId) : AccountHandleRegistry.NO_HANDLE;
+        return handle == AccountHandleRegistry.NO_HANDLE ? -1 : writeEpochs.get(handle & (EPOCH_STRIPES - 1));
+    }
+
+    /**
+     * Cache a value read from RocksDB outside the state machine, unless the
+     * account was written since the token was taken (the value may be stale)
+     */
+    public void populate(String accountId, BigDecimal balance, long token) {
+        if (!enabled || token < 0 || balance == null) {
+            return;
+        }
+        int handle = handleRegistry.handleOf(accountId);
+        long stamp = lock.writeLock();
+        try {
+            if (writeEpochs.get(handle & (EPOCH_STRIPES - 1)) != token || findSlot(handle) >= 0) {
+                return;
+            }
+            upsert(handle, balance);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void invalidate(String accountId) {
+        if (!enabled) {
+            return;
+        }
+        int handle = handleRegistry.handleOf(accountId);
+        if (handle == AccountHandleRegistry.NO_HANDLE) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            writeEpochs.incrementAndGet(handle & (EPOCH_STRIPES - 1));
+            removeHandle(handle);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        if (!enabled) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            for (int i = 0; i < EPOCH_STRIPES; i++) {
+                writeEpochs.incrementAndGet(i);
+            }
+            for (int slot = 0; slot <= mask; slot++) {
+                table.putLong(slot * SLOT_BYTES + KEY_OFFSET, 0L);
+                values[slot] = null;
+            }
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("capacity", capacity);
+        long stamp = lock.readLock();
+        try {
+            stats.put("size", size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    // ---------------------------------------------------------------------
+    // Open addressing internals (linear probing)
+    // ---------------------------------------------------------------------
+
+    private static int homeIndex(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * Byte offset of the slot holding the handle, or -1
+     */
+    private int findSlot(int handle) {
+        long key = handle + 1L;
+        int index = homeIndex(key, mask);
+        for (int probes = 0; probes <= mask; probes++) {
+            int slot = index * SLOT_BYTES;
+            long slotKey = table.getLong(slot + KEY_OFFSET);
+            if (slotKey == key) {
+                return slot;
+            }
+            if (slotKey == 0) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void upsert(int handle, BigDecimal balance) {
+        int slot = findSlot(handle);
+        if (slot < 0) {
+            if (size >= capacity) {
+                evictOne();
+            }
+            long key = handle + 1L;
+            int index = homeIndex(key, mask);
+            while (table.getLong(index * SLOT_BYTES + KEY_OFFSET) != 0) {
+                index = (index + 1) & mask;
+            }
+            slot = index * SLOT_BYTES;
+            table.putLong(slot + KEY_OFFSET, key);
+            size++;
+        }
+        values[slot / SLOT_BYTES] = balance;
+        table.put(slot + REF_OFFSET, (byte) 1);
+    }
+
+    /**
+     * CLOCK sweep: clear reference bytes until an unreferenced entry is found
+     */
+    private void evictOne() {
+        for (int step = 0; step <= 2 * mask + 1; step++) {
+            int index = clockHand;
+            clockHand = (clockHand + 1) & mask;
+            int slot = index * SLOT_BYTES;
+            if (table.getLong(slot + KEY_OFFSET) == 0) {
+                continue;
+            }
+            if (table.get(slot + REF_OFFSET) != 0) {
+                table.put(slot + REF_OFFSET, (byte) 0);
+                continue;
+            }
+            removeAt(index);
+            evictions.increment();
+            return;
+        }
+    }
+
+    private void removeHandle(int handle) {
+        int slot = findSlot(handle);
+        if (slot >= 0) {
+            removeAt(slot / SLOT_BYTES);
+        }
+    }
+
+    /**
+     * Backward-shift deletion keeps probe sequences intact without tombstones
+     */
+    private void removeAt(int index) {
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (true) {
+            long key = table.getLong(next * SLOT_BYTES + KEY_OFFSET);
+            if (key == 0) {
+                break;
+            }
+            int home = homeIndex(key, mask);
+            // Move the entry into the hole if its home is not cyclically within (hole, next]
+            boolean movable = hole <= next
+                    ? (home <= hole || home > next)
+                    : (home <= hole && home > next);
+            if (movable) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table.putLong(hole * SLOT_BYTES + KEY_OFFSET, 0L);
+        values[hole] = null;
+        size--;
+    }
+
+    private void copySlot(int from, int to) {
+        int src = from * SLOT_BYTES;
+        int dst = to * SLOT_BYTES;
+        table.putLong(dst + KEY_OFFSET, table.getLong(src + KEY_OFFSET));
+        values[to] = values[from];
+        table.put(dst + REF_OFFSET, table.get(src + REF_OFFSET));
+    }
+}
@@ -0,0 +1,251 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bloom filter over every idempotency key with a marker in RocksDB.
+ *
+ * Answers "never seen" without touching RocksDB; a positive answer still needs
+ * a point lookup. Keys are added before their marker is written, so the filter
+ * never misses a stored key. It is sized by configuration, not by history, and
+ * saved under {@code meta:idem-bloom} on a clean shutdown. The saved copy is
+ * deleted once loaded: after a crash it is missing and the filter is rebuilt
+ * from the {@code idem:} keys in the background, reporting every key as
+ * possibly present until the rebuild is done.
+ *
+ * Bits cannot be removed, so after expired markers are purged the filter is
+ * rebuilt into a fresh bit array while the current one keeps answering. Keys
+ * added during the rebuild go into both arrays. The most recently added keys
+ * are re-added before the swap, which covers a marker written just after the
+ * scan started.
+ */
+@Slf4j
+@Component
+public class IdempotencyKeyFilter {
+
+    private static final String FILTER_KEY = "meta:idem-bloom";
+    private static final int FORMAT_VERSION = 1;
+    private static final int RECENT_KEYS = 4096;
+
+    private final RocksDBService rocksDBService;
+
+    @Value("${ledger.idempotency.bloom.expected.keys:10000000}")
+    private long expectedKeys;
+
+    @Value("${ledger.idempotency.bloom.fpp:0.01}")
+    private double falsePositiveRate;
+
+    private long numBits;
+    private int numHashes;
+    private volatile AtomicLongArray words;
+    // Target of a rebuild in progress, also written by add()
+    private volatile AtomicLongArray rebuilding;
+    private final AtomicLong insertions = new AtomicLong();
+    private final AtomicReferenceArray<String> recentKeys = new AtomicReferenceArray<>(RECENT_KEYS);
+    private volatile boolean ready;
+    private volatile Thread rebuildThread;
+
+    public IdempotencyKeyFilter(RocksDBService rocksDBService) {
+        this.rocksDBService = rocksDBService;
+    }
+
+    @PostConstruct
+    public void load() {
+        numBits = Math.max(64, (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2))));
+        numBits = (numBits + 63) & ~63L;
+        numHashes = Math.max(1, (int) Math.round((double) numBits / expectedKeys * Math.log(2)));
+        words = new AtomicLongArray((int) (numBits >>> 6));
+
+        byte[] saved = rocksDBService.getBytes(FILTER_KEY);
+        if (saved != null) {
+            rocksDBService.delete(FILTER_KEY);
+            if (restore(saved)) {
+                ready = true;
+                log.info("Loaded idempotency bloom filter: bits={}, hashes={}, keys={}",
+                        numBits, numHashes, insertions.get());
+                return;
+            }
+        }
+        rebuild(true);
+    }
+
+    /**
+     * Record a key; must be called before its idempotency marker is written
+     */
+    public void add(String key) {
+        long count = insertions.getAndIncrement();
+        recentKeys.set((int) (count % RECENT_KEYS), key);
+        AtomicLongArray target = rebuilding;
+        if (target != null) {
+            setBits(target, key);
+        }
+        setBits(words, key);
+    }
+
+    private void setBits(AtomicLongArray array, String key) {
+        long hash1 = hash1(key);
+        long hash2 = hash2(hash1);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((array.get(word) & mask) == 0) {
+                array.getAndAccumulate(word, mask, (value, m) -> value | m);
+            }
+        }
+    }
+
+    /**
+     * False only if the key has never been added (and the filter is not rebuilding)
+     */
+    public boolean mightContain(String key) {
+        if (!ready) {
+            return true;
+        }
+        AtomicLongArray current = words;
+        long hash1 = hash1(key);
+        long hash2 = hash2(hash1);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((current.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the filter from the stored keys in the background. With
+     * {@code invalidate} (e.g. RocksDB contents were replaced) every key is
+     * reported as possibly present until the rebuild is done; otherwise the
+     * current filter keeps answering until the rebuilt one replaces it.
+     */
+    public synchronized void rebuild(boolean invalidate) {
+        if (invalidate) {
+            ready = false;
+        }
+        if (rebuildThread != null && rebuildThread.isAlive()) {
+            rebuildThread.interrupt();
+        }
+        Thread thread = new Thread(this::rebuildFromStore, "idempotency-bloom-rebuild");
+        thread.setDaemon(true);
+        rebuildThread = thread;
+        thread.start();
+    }
+
+    private void rebuildFromStore() {
+        long start = System.currentTimeMillis();
+        AtomicLongArray fresh = new AtomicLongArray(words.length());
+        rebuilding = fresh;
+        long[] scanned = {0};
+        try {
+            rocksDBService.scanPrefix(IdempotencyMarkers.TRANSFER_PREFIX, (key, value) -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("rebuild superseded");
+                }
+                setBits(fresh, IdempotencyMarkers.idempotentIdOf(key));
+                scanned[0]++;
+            });
+        } catch (Exception e) {
+            log.warn("Idempotency bloom filter rebuild stopped: {}", e.getMessage());
+            synchronized (this) {
+                if (rebuildThread == Thread.currentThread()) {
+                    rebuilding = null;
+                }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (rebuildThread != Thread.currentThread()) {
+                return;
+            }
+            for (int i = 0; i < RECENT_KEYS; i++) {
+                String recent = recentKeys.get(i);
+                if (recent != null) {
+                    setBits(fresh, recent);
+                }
+            }
+            words = fresh;
+            rebuilding = null;
+            insertions.set(scanned[0]);
+            ready = true;
+        }
+        log.info("Rebuilt idempotency bloom filter from {} keys in {} ms",
+                scanned[0], System.currentTimeMillis() - start);
+    }
+
+    private boolean restore(byte[] saved) {
+        ByteBuffer buffer = ByteBuffer.wrap(saved);
+        if (saved.length < 24 || buffer.getInt() != FORMAT_VERSION
+                || buffer.getLong() != numBits || buffer.getInt() != numHashes
+                || buffer.remaining() != 8 + words.length() * 8L) {
+            log.info("Saved idempotency bloom filter does not match the configuration; rebuilding");
+            return false;
+        }
+        insertions.set(buffer.getLong());
+        AtomicLongArray current = words;
+        for (int i = 0; i < current.length(); i++) {
+            current.set(i, buffer.getLong());
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void save() {
+        if (!ready) {
+            return; // the next start rebuilds
+        }
+        AtomicLongArray current = words;
+        ByteBuffer buffer = ByteBuffer.allocate(24 + current.length() * 8);
+        buffer.putInt(FORMAT_VERSION).putLong(numBits).putInt(numHashes).putLong(insertions.get());
+        for (int i = 0; i < current.length(); i++) {
+            buffer.putLong(current.get(i));
+        }
+        rocksDBService.putBytes(FILTER_KEY, buffer.array());
+        log.info("Saved idempotency bloom filter: keys={}", insertions.get());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("bits", numBits);
+        stats.put("hashes", numHashes);
+        stats.put("insertions", insertions.get());
+        return stats;
+    }
+
+    // FNV-1a over the key's chars, finished with a MurmurHash3 mix
+    private static long hash1(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long hash2(long hash1) {
+        return mix(hash1 ^ 0x9e3779b97f4a7c15L) | 1;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
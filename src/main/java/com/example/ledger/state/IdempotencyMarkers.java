@@ -0,0 +1,322 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.CommandOutcome;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * RocksDB layout and retention of idempotency markers.
+ *
+ * Markers are bucketed by UTC day: {@code idem:<yyyyMMdd>:<key>} for transfers
+ * and {@code batch_idem:<yyyyMMdd>:<key>} for batches. A transfer marker's day
+ * comes from the command's proposal time, so every replica writes the same key.
+ * A lookup probes the buckets from one day after the reference time back to the
+ * retention window, newest first. Buckets older than the window plus one day of
+ * grace are removed with a single {@code deleteRange} per key class, including
+ * orphaned {@code :processing} batch markers. The keyspace therefore grows with
+ * the retention window rather than with history.
+ *
+ * Invariant: markers are only ever deleted by applying a
+ * {@code PURGE_IDEMPOTENCY:<transferCutoff>:<batchCutoff>:<proposedAt>} command
+ * at its log position (FIFO queue position in standalone mode). The cutoffs are
+ * computed once, from the proposer's clock, and travel in the command, so every
+ * replica — including one replaying the log days later — holds exactly the same
+ * markers when it applies any given entry, and a retry is a duplicate on all of
+ * them or on none. Nothing may delete markers on a local timer or clock (a
+ * RocksDB compaction filter included), since replicas would then disagree on
+ * whether a retry is a duplicate and apply different balances.
+ *
+ * The same holds for unbucketed markers written by older versions: they are
+ * moved into a day bucket only by a
+ * {@code MIGRATE_IDEMPOTENCY:<day>:<proposedAt>} command, into the day it
+ * carries, so every replica puts a marker in the same bucket whenever it
+ * restarts. Until then lookups also probe the unbucketed key.
+ *
+ * Retention bounds how long a retry is recognised as a duplicate. It must be
+ * longer than any client retry horizon.
+ */
+@Slf4j
+@Component
+public class IdempotencyMarkers {
+
+    public static final String TRANSFER_PREFIX = "idem:";
+    public static final String BATCH_PREFIX = "batch_idem:";
+    public static final String PURGE_OPERATION = "PURGE_IDEMPOTENCY";
+    public static final String MIGRATE_OPERATION = "MIGRATE_IDEMPOTENCY";
+
+    private static final String LAYOUT_KEY = "meta:idem-layout";
+    private static final String LAYOUT_BUCKETED = "2";
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int MIGRATION_BATCH = 1000;
+
+    private final RocksDBService rocksDBService;
+    private final IdempotencyKeyFilter idempotencyKeyFilter;
+
+    @Value("${ledger.idempotency.retention.days:7}")
+    private int transferRetentionDays;
+
+    @Value("${ledger.idempotency.batch.retention.days:7}")
+    private int batchRetentionDays;
+
+    private final AtomicLong purges = new AtomicLong();
+    private volatile String lastPurgedBefore;
+    // Unbucketed markers remain until a MIGRATE_IDEMPOTENCY command is applied
+    private volatile boolean legacyLayout;
+
+    public IdempotencyMarkers(RocksDBService rocksDBService, IdempotencyKeyFilter idempotencyKeyFilter) {
+        this.rocksDBService = rocksDBService;
+        this.idempotencyKeyFilter = idempotencyKeyFilter;
+    }
+
+    @PostConstruct
+    public void start() {
+        reloadLayout();
+    }
+
+    /**
+     * Read the marker layout from RocksDB, e.g. after its contents were replaced.
+     * A store without unbucketed markers is marked bucketed right away; that
+     * moves nothing, so it needs no command.
+     */
+    public void reloadLayout() {
+        if (LAYOUT_BUCKETED.equals(rocksDBService.get(LAYOUT_KEY))) {
+            legacyLayout = false;
+            return;
+        }
+        List<String> legacyKeys = new ArrayList<>();
+        scanLegacyMarkers(legacyKeys::add);
+        legacyLayout = !legacyKeys.isEmpty();
+        if (legacyLayout) {
+            log.info("Found {} unbucketed idempotency markers; they move into a day bucket when "
+                    + MIGRATE_OPERATION + " is applied", legacyKeys.size());
+        } else {
+            rocksDBService.put(LAYOUT_KEY, LAYOUT_BUCKETED);
+        }
+    }
+
+    public static String dayOf(long epochMillis) {
+        return LocalDate.ofEpochDay(Math.floorDiv(epochMillis, DAY_MILLIS)).format(DAY);
+    }
+
+    /**
+     * Marker key of a transfer proposed at {@code proposedAtMillis}
+     */
+    public String transferKey(String idempotentId, long proposedAtMillis) {
+        return TRANSFER_PREFIX + dayOf(proposedAtMillis) + ":" + idempotentId;
+    }
+
+    public String batchKey(String idempotentId, long atMillis) {
+        return BATCH_PREFIX + dayOf(atMillis) + ":" + idempotentId;
+    }
+
+    /**
+     * Stored transfer marker within the retention window around {@code atMillis}, or null
+     */
+    public byte[] findTransfer(String idempotentId, long atMillis) {
+        return find(TRANSFER_PREFIX, idempotentId, atMillis, transferRetentionDays);
+    }
+
+    public byte[] findBatch(String idempotentId, long atMillis) {
+        return find(BATCH_PREFIX, idempotentId, atMillis, batchRetentionDays);
+    }
+
+    private byte[] find(String prefix, String idempotentId, long atMillis, int retentionDays) {
+        long day = Math.floorDiv(atMillis, DAY_MILLIS);
+        // One day ahead tolerates clock skew between the proposer and this node
+        for (long d = day + 1; d >= day - retentionDays; d--) {
+            byte[] value = rocksDBService.getBytes(prefix + LocalDate.ofEpochDay(d).format(DAY) + ":" + idempotentId);
+            if (value != null) {
+                return value;
+            }
+        }
+        return legacyLayout ? rocksDBService.getBytes(prefix + idempotentId) : null;
+    }
+
+    /**
+     * Idempotency key of a transfer marker key (bucketed or legacy)
+     */
+    public static String idempotentIdOf(String markerKey) {
+        String rest = markerKey.substring(TRANSFER_PREFIX.length());
+        return isBucketed(rest) ? rest.substring(9) : rest;
+    }
+
+    private static boolean isBucketed(String rest) {
+        if (rest.length() < 10 || rest.charAt(8) != ':') {
+            return false;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (!Character.isDigit(rest.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * MIGRATE_IDEMPOTENCY command moving unbucketed markers into the day of
+     * {@code nowMillis}, or null when there are none. Called by the proposer only;
+     * the day is fixed here, not by each replica's restart.
+     */
+    public String migrationCommand(long nowMillis) {
+        if (!legacyLayout) {
+            return null;
+        }
+        return MIGRATE_OPERATION + ":" + dayOf(nowMillis) + ":" + nowMillis;
+    }
+
+    /**
+     * PURGE_IDEMPOTENCY command for the buckets that have expired at {@code nowMillis}
+     * (older than the retention window plus one day of grace), or null when there
+     * are none. Called by the proposer only; the cutoffs are fixed here.
+     */
+    public String purgeCommand(long nowMillis) throws RocksDBException {
+        long today = Math.floorDiv(nowMillis, DAY_MILLIS);
+        String transferCutoff = LocalDate.ofEpochDay(today - transferRetentionDays - 1).format(DAY);
+        String batchCutoff = LocalDate.ofEpochDay(today - batchRetentionDays - 1).format(DAY);
+        if (!hasBucketBefore(TRANSFER_PREFIX, transferCutoff) && !hasBucketBefore(BATCH_PREFIX, batchCutoff)) {
+            return null;
+        }
+        return PURGE_OPERATION + ":" + transferCutoff + ":" + batchCutoff + ":" + nowMillis;
+    }
+
+    /**
+     * Apply a PURGE_IDEMPOTENCY command: delete every bucket before the cutoffs it
+     * carries. Called by the state machines at the command's log position only.
+     */
+    public CommandOutcome applyPurge(String command) throws RocksDBException {
+        String[] parts = command.split(":");
+        if (parts.length != 4 || !isDay(parts[1]) || !isDay(parts[2])) {
+            return CommandOutcome.failed("Invalid " + PURGE_OPERATION + " command");
+        }
+        long proposedAt = Long.parseLong(parts[3]);
+        boolean removed = purgeBefore(TRANSFER_PREFIX, parts[1]);
+        removed |= purgeBefore(BATCH_PREFIX, parts[2]);
+        lastPurgedBefore = parts[1];
+        if (removed) {
+            // Expired keys still set bits; rebuild from the keys that remain (in the background)
+            idempotencyKeyFilter.rebuild(false);
+        }
+        return CommandOutcome.completed("Purged idempotency markers before " + parts[1]
+                + " (batches before " + parts[2] + ")", proposedAt);
+    }
+
+    private static boolean isDay(String value) {
+        return value.length() == 8 && value.chars().allMatch(Character::isDigit);
+    }
+
+    private boolean hasBucketBefore(String prefix, String cutoffDay) throws RocksDBException {
+        try (RocksIterator iterator = rocksDBService.newIterator()) {
+            iterator.seek((prefix + "00000000").getBytes());
+            return iterator.isValid() && compare(iterator.key(), (prefix + cutoffDay).getBytes()) < 0;
+        }
+    }
+
+    private boolean purgeBefore(String prefix, String cutoffDay) throws RocksDBException {
+        if (!hasBucketBefore(prefix, cutoffDay)) {
+            return false;
+        }
+        rocksDBService.deleteRange((prefix + "00000000").getBytes(), (prefix + cutoffDay).getBytes());
+        purges.incrementAndGet();
+        log.info("Purged idempotency markers {}* older than {}", prefix, cutoffDay);
+        return true;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Apply a MIGRATE_IDEMPOTENCY command: move unbucketed markers into the day
+     * bucket it carries and drop orphaned batch {@code :processing} markers.
+     * Called by the state machines at the command's log position only; applying
+     * it again (log replay after a crash) moves whatever is left.
+     */
+    public CommandOutcome applyMigration(String command) throws RocksDBException {
+        String[] parts = command.split(":");
+        if (parts.length != 3 || !isDay(parts[1])) {
+            return CommandOutcome.failed("Invalid " + MIGRATE_OPERATION + " command");
+        }
+        String day = parts[1];
+        long proposedAt = Long.parseLong(parts[2]);
+        List<String[]> moves = new ArrayList<>();
+        List<String> drops = new ArrayList<>();
+        scanLegacyMarkers(key -> {
+            boolean transfer = key.startsWith(TRANSFER_PREFIX);
+            String prefix = transfer ? TRANSFER_PREFIX : BATCH_PREFIX;
+            String rest = key.substring(prefix.length());
+            if (!transfer && rest.endsWith(":processing")) {
+                drops.add(key);
+            } else {
+                moves.add(new String[]{key, prefix + day + ":" + rest});
+            }
+        });
+        for (int from = 0; from < moves.size(); from += MIGRATION_BATCH) {
+            try (WriteBatch batch = new WriteBatch()) {
+                for (String[] move : moves.subList(from, Math.min(moves.size(), from + MIGRATION_BATCH))) {
+                    batch.put(move[1].getBytes(), rocksDBService.getBytes(move[0]));
+                    batch.delete(move[0].getBytes());
+                }
+                rocksDBService.write(batch);
+            }
+        }
+        try (WriteBatch batch = new WriteBatch()) {
+            for (String key : drops) {
+                batch.delete(key.getBytes());
+            }
+            batch.put(LAYOUT_KEY.getBytes(), LAYOUT_BUCKETED.getBytes());
+            rocksDBService.write(batch);
+        }
+        legacyLayout = false;
+        log.info("Migrated {} idempotency markers into day bucket {}, dropped {} orphaned processing markers",
+                moves.size(), day, drops.size());
+        return CommandOutcome.completed("Migrated " + moves.size() + " idempotency markers into day bucket " + day,
+                proposedAt);
+    }
+
+    private void scanLegacyMarkers(Consumer<String> visitor) {
+        rocksDBService.scanPrefix(TRANSFER_PREFIX, (key, value) -> {
+            if (!isBucketed(key.substring(TRANSFER_PREFIX.length()))) {
+                visitor.accept(key);
+            }
+        });
+        rocksDBService.scanPrefix(BATCH_PREFIX, (key, value) -> {
+            if (!isBucketed(key.substring(BATCH_PREFIX.length()))) {
+                visitor.accept(key);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("transferRetentionDays", transferRetentionDays);
+        stats.put("batchRetentionDays", batchRetentionDays);
+        stats.put("purges", purges.get());
+        stats.put("lastPurgedBefore", lastPurgedBefore);
+        stats.put("legacyLayout", legacyLayout);
+        return stats;
+    }
+}
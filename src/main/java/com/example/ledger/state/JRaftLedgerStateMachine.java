@@ -10,19 +10,20 @@ import com.alipay.sofa.jraft.storage.snapshot.SnapshotWriter;
 import com.example.ledger.config.DataInitializationConfig;
 import com.example.ledger.config.RocksDBService;
 import com.example.ledger.model.Account;
-import com.example.ledger.model.ProcessedTransaction;
-import com.example.ledger.raft.RaftNodeManager;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.model.TransactionIds;
 import com.example.ledger.service.AsyncMySQLBatchWriter;
+import com.example.ledger.service.BalanceCheckpointer;
+import com.example.ledger.service.MySQLOutbox;
 import com.example.ledger.service.WriteEvent;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.WriteBatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
-import java.time.LocalDateTime;
-import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -30,7 +31,14 @@ import java.util.concurrent.atomic.AtomicLong;
  * This state machine handles distributed consensus for ledger operations
  * Only active when raft.enabled=true
  * 
- * IMPORTANT: Only the LEADER writes to MySQL, all nodes update RocksDB
+ * IMPORTANT: All nodes update RocksDB and stage MySQL rows in their outbox;
+ * only the node that is writing (the leader) drains the outbox into MySQL,
+ * all other nodes only stage and prune
+ *
+ * MySQL rows are derived deterministically from the log entry (transaction ID
+ * from the proposal timestamp and log index, timestamps from the proposal), and every node stages them
+ * in its outbox. A new leader resumes from the MySQL sync checkpoints, so
+ * entries applied around a leadership change are persisted exactly once.
  */
 @Slf4j
 @Component
@@ -39,16 +47,45 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     
     private final RocksDBService rocksDBService;
     private final AtomicLong appliedIndex = new AtomicLong(0);
-    private volatile boolean isLeader = false;
+    
+    // Reusable MySQL write records for the entry being applied (single FSM thread)
+    private final WriteEvent[] pendingWrites = {new WriteEvent(), new WriteEvent(), new WriteEvent()};
+    
+    // Outcome of the entry being applied, handed to its OutcomeClosure (single FSM thread)
+    private CommandOutcome appliedOutcome;
     
     @Autowired
     private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
     
     @Autowired
-    private RaftNodeManager raftNodeManager;
+    private DataInitializationConfig dataInitializationConfig;
+    
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
     
     @Autowired
-    private DataInitializationConfig dataInitializationConfig;
+    private AccountExistenceIndex accountExistenceIndex;
+    
+    @Autowired
+    private AccountRecordCodec accountRecordCodec;
+    
+    @Autowired
+    private MySQLOutbox mySQLOutbox;
+    
+    @Autowired
+    private BalanceCheckpointer balanceCheckpointer;
+    
+    @Autowired
+    private IdempotencyKeyFilter idempotencyKeyFilter;
+    
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+    
+    @Autowired
+    private AccountHistoryIndex accountHistoryIndex;
+    
+    @Autowired
+    private LedgerCommandApplier ledgerCommandApplier;
     
     public JRaftLedgerStateMachine(RocksDBService rocksDBService) {
         this.rocksDBService = rocksDBService;
@@ -56,10 +93,18 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     }
     
     /**
-     * Check if current node is the leader
+     * Proposal timestamp, appended as the last field by LedgerService; entries
+     * written by older nodes have none and fall back to the local clock
      */
-    private boolean isCurrentNodeLeader() {
-        return isLeader && raftNodeManager.getNode() != null && raftNodeManager.getNode().isLeader();
+    private static long proposedAt(String[] parts, int minLength) {
+        if (parts.length >= minLength) {
+            try {
+                return Long.parseLong(parts[parts.length - 1]);
+            } catch (NumberFormatException ignored) {
+                // not a timestamp
+            }
+        }
+        return System.currentTimeMillis();
     }
     
     @Override
@@ -68,6 +113,7 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
             Status status = Status.OK();
             Closure closure = iterator.done();
             ByteBuffer data = iterator.getData();
+            appliedOutcome = null;
             
             try {
                 // Parse command from ByteBuffer
@@ -75,7 +121,7 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
                 log.debug("Processing JRaft command: {}", command);
                 
                 // Process the command
-                boolean success = processCommand(command);
+                boolean success = processCommand(command, iterator.getIndex());
                 
                 if (!success) {
                     status = new Status(RaftError.EINTERNAL, "Failed to process command: " + command);
@@ -91,6 +137,9 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
             
             // Notify completion
             if (closure != null) {
+                if (closure instanceof OutcomeClosure outcomeClosure) {
+                    outcomeClosure.setOutcome(appliedOutcome);
+                }
                 closure.run(status);
             }
             
@@ -101,16 +150,24 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     /**
      * Process individual commands through JRaft consensus
      */
-    private boolean processCommand(String command) {
+    private boolean processCommand(String command, long index) {
         try {
             String[] parts = command.split(":");
             String operation = parts[0];
             
             switch (operation) {
                 case "CREATE_ACCOUNT":
-                    return handleCreateAccount(parts);
+                    return handleCreateAccount(parts, index);
                 case "TRANSFER":
-                    return handleTransfer(parts);
+                    return handleTransfer(parts, index);
+                case BatchTransferCommand.OPERATION:
+                    return handleBatchTransfer(command, index);
+                case BulkCreateAccountsCommand.OPERATION:
+                    return handleBulkCreate(command, index);
+                case IdempotencyMarkers.PURGE_OPERATION:
+                    return handlePurgeIdempotency(command, index);
+                case IdempotencyMarkers.MIGRATE_OPERATION:
+                    return handleMigrateIdempotency(command, index);
                 default:
                     log.warn("Unknown command operation: {}", operation);
                     return false;
@@ -123,9 +180,9 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     
     /**
      * Handle account creation through JRaft consensus
-     * ALL nodes update RocksDB, ONLY leader writes to MySQL
+     * ALL nodes update RocksDB and stage the MySQL row; the writing node drains it
      */
-    private boolean handleCreateAccount(String[] parts) {
+    private boolean handleCreateAccount(String[] parts, long index) {
         if (parts.length < 3) {
             log.error("Invalid CREATE_ACCOUNT command format");
             return false;
@@ -145,34 +202,34 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
                 return true;
             }
             
-            // ALL nodes update RocksDB for fast local reads
-            rocksDBService.put(accountId, "0.0000");
-            
-            // Also store account metadata for existence checks (consistent with SimpleLedgerStateMachine)
-            try {
-                Account account = new Account();
-                account.setAccountId(accountId);
-                account.setUserId(userId);
-                account.setAccountType(accountType);
-                account.setBalance(BigDecimal.ZERO);
-                account.setCreatedAt(LocalDateTime.now());
-                account.setUpdatedAt(LocalDateTime.now());
-                
-                String accountKey = "account:" + accountId;
-                String accountJson = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(account);
-                rocksDBService.put(accountKey, accountJson);
-                
-                log.debug("Stored account metadata for: {}", accountId);
-            } catch (Exception e) {
-                log.error("Failed to store account metadata for {}", accountId, e);
+            // ALL nodes update RocksDB for fast local reads and stage the MySQL outbox
+            // entry (keyed by the log index): balance, binary account record and outbox
+            // entry in one atomic write. ONLY the writing LEADER enqueues it.
+            // With balance checkpointing the account row is created by the next checkpoint
+            WriteEvent[] events = pendingWrites;
+            int count = 0;
+            if (!balanceCheckpointer.isEnabled()) {
+                events[count++].balance(accountId, userId, accountType, BigDecimal.ZERO);
             }
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.put(accountId.getBytes(), "0.0000".getBytes());
+                batch.put(("account:" + accountId).getBytes(),
+                        accountRecordCodec.encode(userId, accountType, proposedAt(parts, 4)));
+                mySQLOutbox.stage(batch, index, events, count);
+                rocksDBService.write(batch);
+            }
+            mySQLOutbox.staged(count);
+            hotBalanceCache.put(accountId, new BigDecimal("0.0000"));
+            accountExistenceIndex.markExists(accountId);
+            balanceCheckpointer.markDirty(accountId);
             
-            // ONLY LEADER writes to MySQL for persistence
-            if (isCurrentNodeLeader()) {
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(accountId, BigDecimal.ZERO));
-                log.info("LEADER created account and queued MySQL write: {}", accountId);
+            if (asyncMySQLBatchWriter.isWriting()) {
+                for (int i = 0; i < count; i++) {
+                    asyncMySQLBatchWriter.enqueue(events[i]);
+                }
+                log.info("Created account and queued MySQL write: {}", accountId);
             } else {
-                log.info("FOLLOWER created account in RocksDB only: {}", accountId);
+                log.info("Created account, MySQL row staged in the outbox only: {}", accountId);
             }
             
             return true;
@@ -183,11 +240,58 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
         }
     }
     
+    /**
+     * Handle bulk account creation: every missing account of the command in one
+     * WriteBatch on every node; the writing node drains the staged rows to MySQL,
+     * other nodes only stage and prune them
+     */
+    private boolean handleBulkCreate(String command, long index) {
+        try {
+            appliedOutcome = ledgerCommandApplier.applyBulkCreate(
+                    BulkCreateAccountsCommand.decode(command), batch -> index);
+            return true;
+        } catch (Exception e) {
+            appliedOutcome = null;
+            log.error("Error processing bulk account creation at index {}", index, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Purge expired idempotency markers at this log position, with the cutoffs
+     * the leader put in the command, so every replica drops the same buckets
+     */
+    private boolean handlePurgeIdempotency(String command, long index) {
+        try {
+            appliedOutcome = idempotencyMarkers.applyPurge(command);
+            return appliedOutcome.isSuccess();
+        } catch (Exception e) {
+            appliedOutcome = null;
+            log.error("Error purging idempotency markers at index {}", index, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Move unbucketed idempotency markers into the day bucket the leader put in
+     * the command, so every replica keeps them in the same bucket
+     */
+    private boolean handleMigrateIdempotency(String command, long index) {
+        try {
+            appliedOutcome = idempotencyMarkers.applyMigration(command);
+            return appliedOutcome.isSuccess();
+        } catch (Exception e) {
+            appliedOutcome = null;
+            log.error("Error migrating idempotency markers at index {}", index, e);
+            return false;
+        }
+    }
+    
     /**
      * Handle transfer through JRaft consensus
-     * ALL nodes update RocksDB, ONLY leader writes to MySQL
+     * ALL nodes update RocksDB and stage the MySQL rows; the writing node drains them
      */
-    private boolean handleTransfer(String[] parts) {
+    private boolean handleTransfer(String[] parts, long index) {
         if (parts.length < 7) {
             log.error("Invalid TRANSFER command format");
             return false;
@@ -208,6 +312,21 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
             String fromAccountId = Account.generateAccountId(fromUserId, fromType);
             String toAccountId = Account.generateAccountId(toUserId, toType);
             
+            // ----------------------------------------------------------------
+            // Raft-embedded IDEMPOTENCY CHECK (idem:<day>:KEY in RocksDB), before
+            // anything is mutated: a duplicate only replays the stored outcome.
+            // Buckets are probed relative to the proposal time, so replicas agree
+            // ----------------------------------------------------------------
+            long proposedAt = proposedAt(parts, 9);
+            if (idempotentId != null && idempotencyKeyFilter.mightContain(idempotentId)) {
+                byte[] stored = idempotencyMarkers.findTransfer(idempotentId, proposedAt);
+                if (stored != null) {
+                    appliedOutcome = CommandOutcome.decode(stored);
+                    log.info("Duplicate idempotent key detected, replaying stored outcome for key {}", idempotentId);
+                    return true;
+                }
+            }
+            
             // Validate transfer
             if (amount.compareTo(BigDecimal.ZERO) <= 0) {
                 log.error("Invalid transfer amount: {}", amount);
@@ -218,68 +337,67 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
             BigDecimal fromBalance = getAccountBalance(fromAccountId);
             BigDecimal toBalance = getAccountBalance(toAccountId);
             
-            // Check sufficient funds
+            // Check sufficient funds; the rejection is part of the replicated
+            // outcome, so a retry on any replica gets the same answer
             if (fromBalance.compareTo(amount) < 0) {
                 log.error("Insufficient funds: {} < {}", fromBalance, amount);
-                return false;
+                appliedOutcome = CommandOutcome.rejected("Insufficient funds in " + fromAccountId, proposedAt);
+                if (idempotentId != null) {
+                    idempotencyKeyFilter.add(idempotentId);
+                    rocksDBService.putBytes(idempotencyMarkers.transferKey(idempotentId, proposedAt),
+                            appliedOutcome.encode());
+                }
+                return true;
             }
             
             // Execute transfer
             BigDecimal newFromBalance = fromBalance.subtract(amount);
             BigDecimal newToBalance = toBalance.add(amount);
             
-            // ALL nodes update RocksDB for consistency and fast reads
-            rocksDBService.put(fromAccountId, newFromBalance.toString());
-            rocksDBService.put(toAccountId, newToBalance.toString());
+            // Rows derived from the log entry only, so every node stages identical ones;
+            // balances are left to the balance checkpointer when it is enabled
+            WriteEvent[] events = pendingWrites;
+            int count = 0;
+            if (!balanceCheckpointer.isEnabled()) {
+                events[count++].balance(fromAccountId, fromUserId, fromType, newFromBalance);
+                events[count++].balance(toAccountId, toUserId, toType, newToBalance);
+            }
+            events[count].transaction(TransactionIds.raft(proposedAt, index, count),
+                    fromAccountId, toAccountId, amount, description, idempotentId, proposedAt);
+            count++;
+            CommandOutcome outcome = CommandOutcome.transferred(newFromBalance, newToBalance, proposedAt);
             
-            // ----------------------------------------------------------------
-            // Raft-embedded IDEMPOTENCY CHECK (prefix idem:KEY in RocksDB)
-            // ----------------------------------------------------------------
-            if (idempotentId != null) {
-                String idemKey = "idem:" + idempotentId;
-                if (rocksDBService.get(idemKey) != null) {
-                    log.info("Duplicate idempotent key detected, skipping transfer for key {}", idempotentId);
-                    return true; // already processed earlier
+            // ALL nodes update RocksDB for consistency and fast reads; balances, the
+            // idempotency marker (holding the outcome) and the outbox entries are written atomically
+            try (WriteBatch batch = new WriteBatch()) {
+                batch.put(fromAccountId.getBytes(), newFromBalance.toString().getBytes());
+                batch.put(toAccountId.getBytes(), newToBalance.toString().getBytes());
+                if (idempotentId != null) {
+                    idempotencyKeyFilter.add(idempotentId); // before the marker, so the filter never misses it
+                    batch.put(idempotencyMarkers.transferKey(idempotentId, proposedAt).getBytes(), outcome.encode());
                 }
+                accountHistoryIndex.stage(batch, index, count - 1, events[count - 1], newFromBalance, newToBalance);
+                mySQLOutbox.stage(batch, index, events, count);
+                rocksDBService.write(batch);
             }
+            mySQLOutbox.staged(count);
+            hotBalanceCache.put(fromAccountId, newFromBalance);
+            hotBalanceCache.put(toAccountId, newToBalance);
+            balanceCheckpointer.markDirty(fromAccountId);
+            balanceCheckpointer.markDirty(toAccountId);
+            appliedOutcome = outcome;
             
-            // ONLY LEADER writes to MySQL for persistence
-            if (isCurrentNodeLeader()) {
-                // Enqueue balance updates for async MySQL write
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(fromAccountId, newFromBalance));
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(toAccountId, newToBalance));
-                
-                // Create and enqueue transaction record
-                ProcessedTransaction transaction = new ProcessedTransaction();
-                transaction.setTransactionId(UUID.randomUUID().toString());
-                transaction.setFromAccountId(fromAccountId);
-                transaction.setToAccountId(toAccountId);
-                transaction.setAmount(amount);
-                transaction.setDescription(description);
-                transaction.setIdempotentId(idempotentId);
-                transaction.setProcessedAt(LocalDateTime.now());
-                transaction.setStatus("COMMITTED");
-                
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forTransaction(transaction));
-                
-                log.info("LEADER completed transfer and queued MySQL writes: {} -> {}, amount: {}", 
+            if (asyncMySQLBatchWriter.isWriting()) {
+                for (int i = 0; i < count; i++) {
+                    asyncMySQLBatchWriter.enqueue(events[i]);
+                }
+                log.info("Completed transfer and queued MySQL writes: {} -> {}, amount: {}", 
                     fromAccountId, toAccountId, amount);
             } else {
-                log.info("FOLLOWER completed transfer in RocksDB only: {} -> {}, amount: {}", 
+                log.info("Completed transfer, MySQL rows staged in the outbox only: {} -> {}, amount: {}", 
                     fromAccountId, toAccountId, amount);
             }
             
-            // ----------------------------------------------------------------
-            // Persist idempotency marker AFTER successful execution
-            // ----------------------------------------------------------------
-            if (idempotentId != null) {
-                try {
-                    rocksDBService.put("idem:" + idempotentId, "1");
-                } catch (Exception e) {
-                    log.error("Failed to store idempotency marker for key {}", idempotentId, e);
-                }
-            }
-            
             return true;
             
         } catch (Exception e) {
@@ -288,18 +406,44 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
         }
     }
     
+    /**
+     * Handle a multi-leg batch transfer through JRaft consensus: the whole batch is
+     * validated against net balance changes and applied in one WriteBatch, or not at all.
+     * Rows and the marker bucket take the proposal time, so every replica derives the same ones
+     */
+    private boolean handleBatchTransfer(String command, long index) {
+        try {
+            BatchTransferCommand batchTransfer = BatchTransferCommand.decode(command);
+            long proposedAt = batchTransfer.getProposedAt();
+            appliedOutcome = ledgerCommandApplier.applyBatchTransfer(batchTransfer, proposedAt,
+                    batch -> index, (position, leg) -> TransactionIds.raft(proposedAt, position, leg));
+            return true;
+        } catch (Exception e) {
+            appliedOutcome = null;
+            log.error("Error processing batch transfer: {}", command, e);
+            return false;
+        }
+    }
+    
     /**
      * Get account balance from RocksDB
      */
     private BigDecimal getAccountBalance(String accountId) {
         try {
+            BigDecimal cached = hotBalanceCache.get(accountId);
+            if (cached != null) {
+                return cached;
+            }
             String balanceStr = rocksDBService.get(accountId);
             if (balanceStr == null) {
                 // Create account with zero balance if not exists
                 rocksDBService.put(accountId, "0.0000");
+                hotBalanceCache.put(accountId, BigDecimal.ZERO);
                 return BigDecimal.ZERO;
             }
-            return new BigDecimal(balanceStr);
+            BigDecimal balance = new BigDecimal(balanceStr);
+            hotBalanceCache.put(accountId, balance);
+            return balance;
         } catch (Exception e) {
             log.error("Error getting balance for account: {}", accountId, e);
             return BigDecimal.ZERO;
@@ -323,6 +467,9 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
         try {
             // TODO: Implement snapshot loading
             // This would typically restore RocksDB state from the snapshot
+            hotBalanceCache.clear();
+            idempotencyKeyFilter.rebuild(true);
+            idempotencyMarkers.reloadLayout();
             return true;
         } catch (Exception e) {
             log.error("Error loading snapshot", e);
@@ -333,7 +480,13 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     @Override
     public void onLeaderStart(long term) {
         log.info("🎖️  JRaft node became LEADER at term: {} - Now responsible for MySQL writes", term);
-        this.isLeader = true;
+        
+        // Resume MySQL persistence from the sync checkpoints before applying anything new
+        try {
+            asyncMySQLBatchWriter.resumeFromCheckpoint();
+        } catch (Exception e) {
+            log.error("❌ Failed to resume MySQL persistence from the outbox", e);
+        }
         
         // Trigger leader-only data initialization if needed
         try {
@@ -348,7 +501,7 @@ public class JRaftLedgerStateMachine extends StateMachineAdapter {
     @Override
     public void onLeaderStop(Status status) {
         log.info("📉 JRaft node stopped being LEADER, status: {} - No longer writing to MySQL", status);
-        this.isLeader = false;
+        asyncMySQLBatchWriter.pauseWriting();
         super.onLeaderStop(status);
     }
     
@@ -0,0 +1,239 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.service.AsyncMySQLBatchWriter;
+import com.example.ledger.service.BalanceCheckpointer;
+import com.example.ledger.service.MySQLOutbox;
+import com.example.ledger.service.WriteEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Apply logic shared by {@link JRaftLedgerStateMachine} and {@link SimpleLedgerStateMachine}
+ * for the multi-row commands (BATCH_TRANSFER, BULK_CREATE), so the two modes
+ * cannot drift apart.
+ *
+ * The modes only differ in where a command's position and transaction IDs come
+ * from (the Raft log index, or the persisted standalone apply sequence), which
+ * the callers pass in. Everything else — validation, the RocksDB WriteBatch,
+ * the outbox, the history index, the cache and checkpointer marks and the MySQL
+ * enqueue — happens here. Called from the single apply thread of either mode.
+ */
+@Slf4j
+@Component
+class LedgerCommandApplier {
+
+    private static final String ZERO_BALANCE = "0.0000";
+
+    /**
+     * Position of the command being applied, assigned while its WriteBatch is built
+     */
+    @FunctionalInterface
+    interface ApplyPosition {
+        long assign(WriteBatch batch) throws RocksDBException;
+    }
+
+    /**
+     * Transaction ID of the row at {@code leg} of the command at {@code position}
+     */
+    @FunctionalInterface
+    interface TransactionIdGenerator {
+        String idOf(long position, int leg);
+    }
+
+    private final RocksDBService rocksDBService;
+
+    @Autowired
+    private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
+
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
+
+    @Autowired
+    private AccountExistenceIndex accountExistenceIndex;
+
+    @Autowired
+    private AccountRecordCodec accountRecordCodec;
+
+    @Autowired
+    private MySQLOutbox mySQLOutbox;
+
+    @Autowired
+    private BalanceCheckpointer balanceCheckpointer;
+
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+
+    @Autowired
+    private AccountHistoryIndex accountHistoryIndex;
+
+    LedgerCommandApplier(RocksDBService rocksDBService) {
+        this.rocksDBService = rocksDBService;
+    }
+
+    /**
+     * Apply a BATCH_TRANSFER all or nothing: every leg is validated against the
+     * net balance changes, then all balances, one transaction row per leg, the
+     * statement entries and the batch idempotency marker go into one WriteBatch.
+     *
+     * @param appliedAt time of the rows and of the marker's bucket (the proposal
+     *                  time with Raft, so replicas agree)
+     */
+    CommandOutcome applyBatchTransfer(BatchTransferCommand batchTransfer, long appliedAt,
+                                      ApplyPosition position, TransactionIdGenerator ids) throws RocksDBException {
+        String idempotentId = batchTransfer.getIdempotentId();
+
+        // Batch-level idempotency, checked before anything is mutated
+        byte[] stored = idempotencyMarkers.findBatch(idempotentId, appliedAt);
+        if (stored != null) {
+            log.info("Duplicate batch idempotent key detected, replaying stored outcome for key {}", idempotentId);
+            return CommandOutcome.decode(stored);
+        }
+        String markerKey = idempotencyMarkers.batchKey(idempotentId, appliedAt);
+
+        Map<String, BigDecimal> newBalances = new LinkedHashMap<>();
+        String rejection = batchTransfer.resolve(this::existingBalance, newBalances);
+        if (rejection != null) {
+            log.error("Rejected batch transfer {}: {}", idempotentId, rejection);
+            CommandOutcome rejected = CommandOutcome.rejected(rejection, appliedAt);
+            rocksDBService.putBytes(markerKey, rejected.encode());
+            return rejected;
+        }
+
+        // One balance row per touched account (unless checkpointed), one transaction row per leg
+        List<BatchTransferCommand.Leg> legs = batchTransfer.getLegs();
+        WriteEvent[] events = new WriteEvent[legs.size() + newBalances.size()];
+        int count = 0;
+        if (!balanceCheckpointer.isEnabled()) {
+            for (Map.Entry<String, BigDecimal> entry : newBalances.entrySet()) {
+                String accountId = entry.getKey();
+                int separator = accountId.lastIndexOf(':');
+                events[count++] = new WriteEvent().balance(accountId, accountId.substring(0, separator),
+                        Account.AccountType.fromValue(accountId.substring(separator + 1)), entry.getValue());
+            }
+        }
+        int firstTransaction = count;
+        for (BatchTransferCommand.Leg leg : legs) {
+            events[count++] = new WriteEvent().transaction(null, leg.fromAccountId(), leg.toAccountId(),
+                    leg.amount(), leg.description(), idempotentId, appliedAt);
+        }
+        CommandOutcome outcome = CommandOutcome.completed(
+                "Batch transfer completed successfully (" + legs.size() + " legs)", appliedAt);
+
+        try (WriteBatch batch = new WriteBatch()) {
+            long at = position.assign(batch);
+            // Statement entries carry the running balance after each leg
+            Map<String, BigDecimal> running = batchTransfer.startingBalances(newBalances);
+            for (int i = firstTransaction; i < count; i++) {
+                WriteEvent tx = events[i];
+                tx.setTransactionId(ids.idOf(at, i));
+                BigDecimal fromAfter = running.merge(tx.getFromAccountId(), tx.getAmount().negate(), BigDecimal::add);
+                BigDecimal toAfter = running.merge(tx.getToAccountId(), tx.getAmount(), BigDecimal::add);
+                accountHistoryIndex.stage(batch, at, i, tx, fromAfter, toAfter);
+            }
+            for (Map.Entry<String, BigDecimal> entry : newBalances.entrySet()) {
+                batch.put(entry.getKey().getBytes(), entry.getValue().toString().getBytes());
+            }
+            batch.put(markerKey.getBytes(), outcome.encode());
+            mySQLOutbox.stage(batch, at, events, count);
+            rocksDBService.write(batch);
+        }
+        mySQLOutbox.staged(count);
+        for (Map.Entry<String, BigDecimal> entry : newBalances.entrySet()) {
+            hotBalanceCache.put(entry.getKey(), entry.getValue());
+            balanceCheckpointer.markDirty(entry.getKey());
+        }
+        enqueue(events, count);
+
+        log.info("Batch transfer completed: {} ({} legs)", idempotentId, legs.size());
+        return outcome;
+    }
+
+    /**
+     * Apply a BULK_CREATE: every account of the command that does not exist yet
+     * (balance key, account record and outbox entries) in one WriteBatch
+     */
+    CommandOutcome applyBulkCreate(BulkCreateAccountsCommand bulkCreate, ApplyPosition position) throws RocksDBException {
+        long proposedAt = bulkCreate.getProposedAt();
+
+        // Skip accounts that exist, or appear twice in the command
+        Map<String, BulkCreateAccountsCommand.NewAccount> missing = new LinkedHashMap<>();
+        for (BulkCreateAccountsCommand.NewAccount account : bulkCreate.getAccounts()) {
+            String accountId = account.accountId();
+            if (!missing.containsKey(accountId) && rocksDBService.get(accountId) == null) {
+                missing.put(accountId, account);
+            }
+        }
+
+        WriteEvent[] events = new WriteEvent[missing.size()];
+        int count = 0;
+        try (WriteBatch batch = new WriteBatch()) {
+            long at = position.assign(batch);
+            for (Map.Entry<String, BulkCreateAccountsCommand.NewAccount> entry : missing.entrySet()) {
+                BulkCreateAccountsCommand.NewAccount account = entry.getValue();
+                batch.put(entry.getKey().getBytes(), ZERO_BALANCE.getBytes());
+                batch.put(("account:" + entry.getKey()).getBytes(),
+                        accountRecordCodec.encode(account.userId(), account.accountType(), proposedAt));
+                // With balance checkpointing the account rows are created by the next checkpoint
+                if (!balanceCheckpointer.isEnabled()) {
+                    events[count++] = new WriteEvent().balance(entry.getKey(), account.userId(),
+                            account.accountType(), BigDecimal.ZERO);
+                }
+            }
+            mySQLOutbox.stage(batch, at, events, count);
+            rocksDBService.write(batch);
+        }
+        mySQLOutbox.staged(count);
+        for (String accountId : missing.keySet()) {
+            hotBalanceCache.put(accountId, new BigDecimal(ZERO_BALANCE));
+            accountExistenceIndex.markExists(accountId);
+            balanceCheckpointer.markDirty(accountId);
+        }
+        // The writer coalesces the balance rows into multi-row INSERTs
+        enqueue(events, count);
+
+        log.info("Bulk-created {} of {} accounts", missing.size(), bulkCreate.getAccounts().size());
+        return CommandOutcome.completed("Created " + missing.size() + " accounts, "
+                + (bulkCreate.getAccounts().size() - missing.size()) + " already existed", missing.size(), proposedAt);
+    }
+
+    /**
+     * Current balance of an account, or null if it does not exist. The cache only
+     * holds accounts whose balance key has been written.
+     */
+    private BigDecimal existingBalance(String accountId) {
+        BigDecimal cached = hotBalanceCache.get(accountId);
+        if (cached != null) {
+            return cached;
+        }
+        String stored = rocksDBService.get(accountId);
+        if (stored == null) {
+            return null;
+        }
+        BigDecimal balance = new BigDecimal(stored);
+        hotBalanceCache.put(accountId, balance);
+        return balance;
+    }
+
+    /**
+     * Hand the staged rows to the MySQL writer: always in standalone mode, only on
+     * the writing leader with Raft (followers keep them in the outbox)
+     */
+    private void enqueue(WriteEvent[] events, int count) {
+        if (asyncMySQLBatchWriter.isWriting()) {
+            for (int i = 0; i < count; i++) {
+                asyncMySQLBatchWriter.enqueue(events[i]);
+            }
+        }
+    }
+}
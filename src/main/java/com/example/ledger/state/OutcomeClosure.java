@@ -0,0 +1,22 @@
+package com.example.ledger.state;
+
+import com.alipay.sofa.jraft.Closure;
+import com.example.ledger.model.CommandOutcome;
+
+/**
+ * Task closure that receives the {@link CommandOutcome} of its log entry.
+ * The state machine sets the outcome before running the closure, on the leader
+ * that proposed the entry.
+ */
+public abstract class OutcomeClosure implements Closure {
+
+    private volatile CommandOutcome outcome;
+
+    public CommandOutcome getOutcome() {
+        return outcome;
+    }
+
+    void setOutcome(CommandOutcome outcome) {
+        this.outcome = outcome;
+    }
+}
@@ -2,34 +2,83 @@ package com.example.ledger.state;
 
 import com.example.ledger.config.RocksDBService;
 import com.example.ledger.model.Account;
-import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.model.TransactionIds;
 import com.example.ledger.service.AsyncMySQLBatchWriter;
+import com.example.ledger.service.BalanceCheckpointer;
+import com.example.ledger.service.MySQLOutbox;
 import com.example.ledger.service.WriteEvent;
 import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteBatch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.UUID;
 
 @Slf4j
 @Component
 public class SimpleLedgerStateMachine {
     
+    private static final String APPLY_SEQUENCE_KEY = "meta:apply-seq";
+    
     private final RocksDBService rocksDBService;
     
     @Autowired
     private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
     
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
+    
+    @Autowired
+    private AccountExistenceIndex accountExistenceIndex;
+    
+    @Autowired
+    private AccountRecordCodec accountRecordCodec;
+    
+    @Autowired
+    private MySQLOutbox mySQLOutbox;
+    
+    @Autowired
+    private BalanceCheckpointer balanceCheckpointer;
+    
+    @Autowired
+    private IdempotencyKeyFilter idempotencyKeyFilter;
+    
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+    
+    @Autowired
+    private AccountHistoryIndex accountHistoryIndex;
+    
+    @Autowired
+    private LedgerCommandApplier ledgerCommandApplier;
+    
+    // Position of the last applied command, persisted with each mutation (outbox key prefix)
+    private long applySequence;
+    
+    // Reusable MySQL write records for the command being applied (single apply thread)
+    private final WriteEvent[] pendingWrites = {new WriteEvent(), new WriteEvent(), new WriteEvent()};
+    
     public SimpleLedgerStateMachine(RocksDBService rocksDBService) {
         this.rocksDBService = rocksDBService;
-        log.info("SimpleLedgerStateMachine initialized");
+        String persisted = rocksDBService.get(APPLY_SEQUENCE_KEY);
+        this.applySequence = persisted != null ? Long.parseLong(persisted) : 0L;
+        log.info("SimpleLedgerStateMachine initialized at apply sequence {}", applySequence);
     }
     
-    public void processTransfer(String data) {
+    private long nextApplySequence(WriteBatch batch) throws RocksDBException {
+        applySequence++;
+        batch.put(APPLY_SEQUENCE_KEY.getBytes(), Long.toString(applySequence).getBytes());
+        return applySequence;
+    }
+    
+    /**
+     * Apply a TRANSFER command; returns its outcome, or null if the command is malformed
+     */
+    public CommandOutcome processTransfer(String data) {
         try {
-            // 格式: TRANSFER:fromUserId:fromType:toUserId:toType:amount:description:idempotentId
+            // 格式: TRANSFER:fromUserId:fromType:toUserId:toType:amount:description:idempotentId[:proposedAt]
             String[] parts = data.split(":");
             if (parts.length >= 7) {
                 String fromUserId = parts[1];
@@ -40,10 +89,14 @@ public class SimpleLedgerStateMachine {
                 String description = parts[6];
                 String idempotentId = (parts.length > 7 && parts[7] != null && !parts[7].isEmpty()) ? parts[7] : null;
                 
-                // Idempotency check using RocksDB (idem:ID)
-                if (idempotentId != null && rocksDBService.get("idem:" + idempotentId) != null) {
-                    log.info("[Standalone] Duplicate idempotent key detected, skipping: {}", idempotentId);
-                    return;
+                // Idempotency check using RocksDB (idem:<day>:ID): a duplicate replays the stored outcome
+                long now = System.currentTimeMillis();
+                if (idempotentId != null && idempotencyKeyFilter.mightContain(idempotentId)) {
+                    byte[] stored = idempotencyMarkers.findTransfer(idempotentId, now);
+                    if (stored != null) {
+                        log.info("[Standalone] Duplicate idempotent key detected, skipping: {}", idempotentId);
+                        return CommandOutcome.decode(stored);
+                    }
                 }
                 
                 String fromAccountId = Account.generateAccountId(fromUserId, fromType);
@@ -54,7 +107,12 @@ public class SimpleLedgerStateMachine {
                 if (fromBalance.compareTo(amount) < 0) {
                     log.error("Insufficient balance for transfer: {} has {}, needs {}", 
                         fromAccountId, fromBalance, amount);
-                    return;
+                    CommandOutcome rejected = CommandOutcome.rejected("Insufficient funds in " + fromAccountId, now);
+                    if (idempotentId != null) {
+                        idempotencyKeyFilter.add(idempotentId);
+                        rocksDBService.putBytes(idempotencyMarkers.transferKey(idempotentId, now), rejected.encode());
+                    }
+                    return rejected;
                 }
                 
                 // 执行转账
@@ -62,47 +120,78 @@ public class SimpleLedgerStateMachine {
                 BigDecimal toBalance = getAccountBalance(toAccountId);
                 BigDecimal newToBalance = toBalance.add(amount);
                 
-                // Update RocksDB (fast local storage)
-                rocksDBService.put(fromAccountId, newFromBalance.toString());
-                rocksDBService.put(toAccountId, newToBalance.toString());
-                
-                // Enqueue balance updates for async MySQL write
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(fromAccountId, newFromBalance));
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forBalance(toAccountId, newToBalance));
+                // MySQL rows: both balances (unless checkpointed) and the transaction record
+                WriteEvent[] events = pendingWrites;
+                int count = 0;
+                if (!balanceCheckpointer.isEnabled()) {
+                    events[count++].balance(fromAccountId, fromUserId, fromType, newFromBalance);
+                    events[count++].balance(toAccountId, toUserId, toType, newToBalance);
+                }
+                WriteEvent tx = events[count++].transaction(null, fromAccountId, toAccountId, amount,
+                        description, idempotentId, System.currentTimeMillis());
                 
-                // Create and enqueue transaction record
-                ProcessedTransaction transaction = new ProcessedTransaction();
-                transaction.setTransactionId(UUID.randomUUID().toString());
-                transaction.setFromAccountId(fromAccountId);
-                transaction.setToAccountId(toAccountId);
-                transaction.setAmount(amount);
-                transaction.setDescription(description);
-                transaction.setIdempotentId(idempotentId);
-                transaction.setProcessedAt(LocalDateTime.now());
-                transaction.setStatus("COMMITTED");
+                CommandOutcome outcome = CommandOutcome.transferred(newFromBalance, newToBalance,
+                        tx.getProcessedAtMillis());
                 
-                asyncMySQLBatchWriter.enqueue(WriteEvent.forTransaction(transaction));
+                // Update RocksDB (fast local storage): balances, idempotency marker (holding
+                // the outcome) and MySQL outbox entries are written atomically
+                try (WriteBatch batch = new WriteBatch()) {
+                    long position = nextApplySequence(batch);
+                    // Time-ordered ID from the apply position, so inserts append to the primary key
+                    tx.setTransactionId(TransactionIds.standalone(tx.getProcessedAtMillis(), position, count - 1));
+                    batch.put(fromAccountId.getBytes(), newFromBalance.toString().getBytes());
+                    batch.put(toAccountId.getBytes(), newToBalance.toString().getBytes());
+                    if (idempotentId != null) {
+                        idempotencyKeyFilter.add(idempotentId); // before the marker, so the filter never misses it
+                        batch.put(idempotencyMarkers.transferKey(idempotentId, now).getBytes(), outcome.encode());
+                    }
+                    accountHistoryIndex.stage(batch, position, count - 1, tx, newFromBalance, newToBalance);
+                    mySQLOutbox.stage(batch, position, events, count);
+                    rocksDBService.write(batch);
+                }
+                mySQLOutbox.staged(count);
+                hotBalanceCache.put(fromAccountId, newFromBalance);
+                hotBalanceCache.put(toAccountId, newToBalance);
+                balanceCheckpointer.markDirty(fromAccountId);
+                balanceCheckpointer.markDirty(toAccountId);
                 
-                // Store idempotency marker after successful commit
-                if (idempotentId != null) {
-                    try {
-                        rocksDBService.put("idem:" + idempotentId, "1");
-                    } catch (Exception e) {
-                        log.error("Failed to store idempotency marker {}", idempotentId, e);
+                // Hand the staged events to the async MySQL writer (paused: they wait in the outbox)
+                if (asyncMySQLBatchWriter.isWriting()) {
+                    for (int i = 0; i < count; i++) {
+                        asyncMySQLBatchWriter.enqueue(events[i]);
                     }
                 }
                 
                 log.info("Transfer completed: {} -> {}, amount: {}", 
                     fromAccountId, toAccountId, amount);
+                return outcome;
             }
         } catch (Exception e) {
             log.error("Failed to process transfer: {}", data, e);
+            return CommandOutcome.failed("Transfer failed: " + e.getMessage());
+        }
+        return null;
+    }
+    
+    /**
+     * Apply a BATCH_TRANSFER command all or nothing: every leg is validated against
+     * the net balance changes, then all balances, transaction rows and the batch
+     * idempotency marker are written in one WriteBatch
+     */
+    public CommandOutcome processBatchTransfer(String data) {
+        try {
+            long now = System.currentTimeMillis();
+            return ledgerCommandApplier.applyBatchTransfer(BatchTransferCommand.decode(data), now,
+                    this::nextApplySequence, (position, leg) -> TransactionIds.standalone(now, position, leg));
+        } catch (Exception e) {
+            log.error("Failed to process batch transfer: {}", data, e);
+            return CommandOutcome.failed("Batch transfer failed: " + e.getMessage());
         }
     }
     
     public void processCreateAccount(String data) {
         try {
-            // 格式: CREATE_ACCOUNT:userId:accountType
+            // 格式: CREATE_ACCOUNT:userId:accountType[:proposedAt]
             String[] parts = data.split(":");
             if (parts.length >= 3) {
                 String userId = parts[1];
@@ -115,8 +204,18 @@ public class SimpleLedgerStateMachine {
     }
     
     public BigDecimal getAccountBalance(String accountId) {
+        BigDecimal cached = hotBalanceCache.get(accountId);
+        if (cached != null) {
+            return cached;
+        }
         String balanceStr = rocksDBService.get(accountId);
-        return balanceStr != null ? new BigDecimal(balanceStr) : BigDecimal.ZERO;
+        if (balanceStr == null) {
+            return BigDecimal.ZERO;
+        }
+        // Only the state machine thread writes balances, so the loaded value can be cached directly
+        BigDecimal balance = new BigDecimal(balanceStr);
+        hotBalanceCache.put(accountId, balance);
+        return balance;
     }
     
     public void createAccountIfNotExists(String userId, Account.AccountType accountType) {
@@ -127,30 +226,70 @@ public class SimpleLedgerStateMachine {
             userId, accountType, accountId, accountKey);
         
         if (rocksDBService.get(accountId) == null) {
-            // Store balance
-            rocksDBService.put(accountId, "0.00");
-            log.debug("Stored balance for accountId: {} -> 0.00", accountId);
-            
-            // Also store account object for existence checks
-            try {
-                Account account = new Account();
-                account.setAccountId(accountId);
-                account.setUserId(userId);
-                account.setAccountType(accountType);
-                account.setBalance(BigDecimal.ZERO);
-                account.setCreatedAt(LocalDateTime.now());
-                account.setUpdatedAt(LocalDateTime.now());
-                
-                String accountJson = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(account);
-                rocksDBService.put(accountKey, accountJson);
-                log.debug("Stored account metadata for accountKey: {} -> {}", accountKey, accountJson);
-            } catch (Exception e) {
-                log.error("Failed to store account object for {}", accountId, e);
+            // Store balance, binary account record (for existence checks) and the
+            // MySQL outbox entry atomically
+            WriteEvent[] events = pendingWrites;
+            int count = 0;
+            if (!balanceCheckpointer.isEnabled()) {
+                events[count++].balance(accountId, userId, accountType, BigDecimal.ZERO);
+            }
+            try (WriteBatch batch = new WriteBatch()) {
+                long position = nextApplySequence(batch);
+                batch.put(accountId.getBytes(), "0.00".getBytes());
+                batch.put(accountKey.getBytes(),
+                        accountRecordCodec.encode(userId, accountType, System.currentTimeMillis()));
+                mySQLOutbox.stage(batch, position, events, count);
+                rocksDBService.write(batch);
+            } catch (RocksDBException e) {
+                throw new RuntimeException("Failed to create account " + accountId, e);
+            }
+            mySQLOutbox.staged(count);
+            hotBalanceCache.put(accountId, new BigDecimal("0.00"));
+            accountExistenceIndex.markExists(accountId);
+            balanceCheckpointer.markDirty(accountId);
+            if (asyncMySQLBatchWriter.isWriting()) {
+                for (int i = 0; i < count; i++) {
+                    asyncMySQLBatchWriter.enqueue(events[i]);
+                }
             }
+            log.debug("Stored balance and account metadata for accountId: {} -> 0.00", accountId);
             
             log.info("Created account: {} with balance key: {} and metadata key: {}", accountId, accountId, accountKey);
         } else {
             log.debug("Account already exists: {}", accountId);
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Apply a BULK_CREATE command: every missing account in one WriteBatch
+     */
+    public CommandOutcome processBulkCreate(String data) {
+        try {
+            return ledgerCommandApplier.applyBulkCreate(BulkCreateAccountsCommand.decode(data), this::nextApplySequence);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to apply bulk account creation", e);
+        }
+    }
+    
+    /**
+     * Apply a PURGE_IDEMPOTENCY command at its queue position
+     */
+    public CommandOutcome processPurgeIdempotency(String data) {
+        try {
+            return idempotencyMarkers.applyPurge(data);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to purge idempotency markers", e);
+        }
+    }
+    
+    /**
+     * Apply a MIGRATE_IDEMPOTENCY command at its queue position
+     */
+    public CommandOutcome processMigrateIdempotency(String data) {
+        try {
+            return idempotencyMarkers.applyMigration(data);
+        } catch (RocksDBException e) {
+            throw new RuntimeException("Failed to migrate idempotency markers", e);
+        }
+    }
+}
@@ -113,6 +113,19 @@ CREATE TABLE IF NOT EXISTS balance_snapshot (
     FOREIGN KEY (account_id) REFERENCES account(account_id)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='余额快照表';
 
+-- ============================================================================
+-- MySQL sync checkpoints - last persisted command position per writer partition
+-- ============================================================================
+CREATE TABLE IF NOT EXISTS ledger_sync_checkpoint (
+    partition_count INT NOT NULL COMMENT '写入分区总数',
+    partition_id INT NOT NULL COMMENT '写入分区编号',
+    last_index BIGINT NOT NULL DEFAULT 0 COMMENT '已持久化的最后Raft日志索引(单机模式为应用序号)',
+    last_leg INT NOT NULL DEFAULT -1 COMMENT '该索引内已持久化的最后一条记录序号',
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    
+    PRIMARY KEY (partition_count, partition_id)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='MySQL同步检查点表';
+
 -- ============================================================================
 -- Insert sample data for testing
 -- ============================================================================
@@ -0,0 +1,146 @@
+package com.example.ledger.integration;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.example.ledger.LedgerApplication;
+import com.example.ledger.mapper.AccountMapper;
+import com.example.ledger.mapper.ProcessedTransactionMapper;
+import com.example.ledger.model.Account;
+import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.service.BalanceCheckpointer;
+import com.example.ledger.service.LedgerService;
+import com.example.ledger.service.PersistenceSink;
+import com.example.ledger.service.RocksDBInitializationService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+
+/**
+ * Standalone ledger with {@code mysql.balance.mode=checkpoint}: balances reach
+ * MySQL only through balance checkpoints, which the tests trigger directly.
+ * Runs in its own context (RocksDB directory and H2 database).
+ */
+@SpringBootTest(classes = LedgerApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class BalanceCheckpointIntegrationTest {
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private RocksDBInitializationService rocksDBInitializationService;
+
+    @Autowired
+    private BalanceCheckpointer balanceCheckpointer;
+
+    @Autowired
+    private AccountMapper accountMapper;
+
+    @Autowired
+    private ProcessedTransactionMapper processedTransactionMapper;
+
+    // Real sink; a test makes one checkpoint fail
+    @SpyBean
+    private PersistenceSink persistenceSink;
+
+    @DynamicPropertySource
+    static void checkpointProperties(DynamicPropertyRegistry registry) {
+        registry.add("raft.rocksdb.path", () -> tempDir("ledger-checkpoint-rocksdb"));
+        registry.add("mysql.writer.segment.dir", () -> tempDir("ledger-checkpoint-segments"));
+        registry.add("spring.datasource.url",
+                () -> "jdbc:h2:mem:checkpointdb;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+        registry.add("mysql.balance.mode", () -> "checkpoint");
+        // Only the tests trigger checkpoints
+        registry.add("mysql.balance.checkpoint.interval.ms", () -> "3600000");
+    }
+
+    private static String tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @BeforeAll
+    void loadAccounts() throws Exception {
+        rocksDBInitializationService.initializeFromMySQL();
+        // Flush the marks taken at startup so each test sees only its own changes
+        balanceCheckpointer.checkpoint();
+    }
+
+    @Test
+    public void testCheckpointWritesCurrentBalances() throws Exception {
+        assertTrue(balanceCheckpointer.isEnabled());
+        BigDecimal initialA = ledgerService.getBalance("UserA", Account.AccountType.AVAILABLE);
+        BigDecimal initialB = ledgerService.getBalance("UserB", Account.AccountType.AVAILABLE);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(ledgerService.transfer("UserA", Account.AccountType.AVAILABLE,
+                    "UserB", Account.AccountType.AVAILABLE, new BigDecimal("10.00"),
+                    "Checkpoint test " + i).get(5, TimeUnit.SECONDS));
+        }
+
+        // Transfers do not stream balance rows in checkpoint mode
+        awaitTransactionRow("Checkpoint test 2");
+        assertEquals(0, initialA.compareTo(dbBalance("UserA:available")));
+
+        // One checkpoint writes one row per touched account, with the latest balance
+        assertEquals(2, balanceCheckpointer.checkpoint());
+        assertEquals(0, initialA.subtract(new BigDecimal("30.00")).compareTo(dbBalance("UserA:available")));
+        assertEquals(0, initialB.add(new BigDecimal("30.00")).compareTo(dbBalance("UserB:available")));
+        assertEquals(0, balanceCheckpointer.checkpoint(), "Nothing is dirty after a checkpoint");
+    }
+
+    @Test
+    public void testFailedCheckpointMarksAccountsAgain() throws Exception {
+        BigDecimal initialBank = ledgerService.getBalance("Bank", Account.AccountType.AVAILABLE);
+        assertTrue(ledgerService.transfer("Bank", Account.AccountType.AVAILABLE,
+                "Exchange", Account.AccountType.AVAILABLE, new BigDecimal("5.00"),
+                "Failed checkpoint test").get(5, TimeUnit.SECONDS));
+        // Stub only once the writer is idle: the spy must not be called while it is being stubbed
+        awaitTransactionRow("Failed checkpoint test");
+
+        doThrow(new IllegalStateException("Simulated sink failure")).when(persistenceSink).upsertBalances(anyList());
+        try {
+            assertThrows(IllegalStateException.class, () -> balanceCheckpointer.checkpoint());
+        } finally {
+            reset(persistenceSink);
+        }
+        assertEquals(0, initialBank.compareTo(dbBalance("Bank:available")));
+
+        // The drained accounts were marked again, so the next checkpoint writes them
+        assertEquals(2, balanceCheckpointer.checkpoint());
+        assertEquals(0, initialBank.subtract(new BigDecimal("5.00")).compareTo(dbBalance("Bank:available")));
+    }
+
+    private void awaitTransactionRow(String description) throws InterruptedException {
+        QueryWrapper<ProcessedTransaction> query = new QueryWrapper<ProcessedTransaction>().eq("description", description);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (processedTransactionMapper.selectCount(query) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Transaction row not written: " + description);
+            Thread.sleep(50);
+        }
+    }
+
+    private BigDecimal dbBalance(String accountId) {
+        Account account = accountMapper.selectById(accountId);
+        assertNotNull(account, "Account row should exist: " + accountId);
+        return account.getBalance();
+    }
+}
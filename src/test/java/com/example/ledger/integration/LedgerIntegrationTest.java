@@ -1,17 +1,31 @@
 package com.example.ledger.integration;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.example.ledger.LedgerApplication;
+import com.example.ledger.config.RocksDBService;
 import com.example.ledger.mapper.AccountMapper;
 import com.example.ledger.mapper.ProcessedTransactionMapper;
 import com.example.ledger.model.Account;
+import com.example.ledger.model.CommandOutcome;
+import com.example.ledger.model.LedgerOperation;
 import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.model.Transaction;
+import com.example.ledger.service.AccountBusinessService;
+import com.example.ledger.service.AdmissionControl;
+import com.example.ledger.service.IdempotencyService;
 import com.example.ledger.service.LedgerService;
 import com.example.ledger.service.RocksDBInitializationService;
+import com.example.ledger.state.BulkCreateAccountsCommand;
+import com.example.ledger.state.HotBalanceCache;
+import com.example.ledger.state.IdempotencyMarkers;
+import com.example.ledger.state.SimpleLedgerStateMachine;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpEntity;
@@ -23,11 +37,16 @@ import org.springframework.test.context.ActiveProfiles;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.reset;
 
 @SpringBootTest(classes = LedgerApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -46,12 +65,38 @@ public class LedgerIntegrationTest {
     @Autowired(required = false)
     private RocksDBInitializationService rocksDBInitializationService;
 
+    @Autowired
+    private AccountBusinessService accountBusinessService;
+
     @Autowired
     private AccountMapper accountMapper;
 
+    // Real state machine; individual tests stub a command to force a failed apply
+    @SpyBean
+    private SimpleLedgerStateMachine ledgerStateMachine;
+
+    // Real admission control; a test saturates it
+    @SpyBean
+    private AdmissionControl admissionControl;
+
     @Autowired
     private ProcessedTransactionMapper processedTransactionMapper;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RocksDBService rocksDBService;
+
+    @Autowired
+    private IdempotencyMarkers idempotencyMarkers;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private HotBalanceCache hotBalanceCache;
+
     private String baseUrl;
 
     @BeforeEach
@@ -101,6 +146,80 @@ public class LedgerIntegrationTest {
         assertEquals(0, balance.compareTo(BigDecimal.ZERO));
     }
 
+    @Test
+    public void testBulkCreateAccounts() throws Exception {
+        String cohort = "Cohort" + System.currentTimeMillis() + "-";
+        List<BulkCreateAccountsCommand.NewAccount> accounts = List.of(
+            new BulkCreateAccountsCommand.NewAccount(cohort + "1", Account.AccountType.AVAILABLE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "1", Account.AccountType.BROKERAGE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "2", Account.AccountType.AVAILABLE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "2", Account.AccountType.AVAILABLE)
+        );
+        
+        LedgerService.BulkCreateResult result = ledgerService.bulkCreateAccounts(accounts).get(10, TimeUnit.SECONDS);
+        assertEquals(4, result.getRequested());
+        assertEquals(3, result.getProposed());
+        assertEquals(3, result.getCreated());
+        assertEquals(1, result.getCommands());
+        assertTrue(result.isSuccess());
+        assertTrue(accountBusinessService.accountExists(cohort + "1:brokerage"));
+        assertTrue(accountBusinessService.accountExists(cohort + "2:available"));
+        assertEquals(0, ledgerService.getBalance(cohort + "1", Account.AccountType.AVAILABLE).compareTo(BigDecimal.ZERO));
+        
+        // Existing accounts are not proposed again
+        LedgerService.BulkCreateResult again = ledgerService.bulkCreateAccounts(accounts).get(10, TimeUnit.SECONDS);
+        assertEquals(3, again.getAlreadyExisting());
+        assertEquals(0, again.getProposed());
+    }
+
+    @Test
+    public void testBulkCreateReportsFailedCommands() throws Exception {
+        String cohort = "FailedCohort" + System.currentTimeMillis() + "-";
+        doReturn(CommandOutcome.failed("Simulated apply failure"))
+            .when(ledgerStateMachine).processBulkCreate(anyString());
+        
+        LedgerService.BulkCreateResult result = ledgerService.bulkCreateAccounts(List.of(
+            new BulkCreateAccountsCommand.NewAccount(cohort + "1", Account.AccountType.AVAILABLE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "2", Account.AccountType.AVAILABLE)
+        )).get(10, TimeUnit.SECONDS);
+        assertFalse(result.isSuccess(), "A failed BULK_CREATE command must not be reported as created");
+        assertEquals(2, result.getProposed());
+        assertEquals(0, result.getCreated());
+        assertEquals(1, result.getFailedCommands());
+        assertEquals("Simulated apply failure", result.getError());
+        assertFalse(accountBusinessService.accountExists(cohort + "1:available"));
+        
+        // The REST endpoint maps the failed command to a non-2xx response
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Content-Type", "application/json");
+        String body = "{\"accounts\":[{\"userId\":\"" + cohort + "3\",\"accountType\":\"AVAILABLE\"}]}";
+        ResponseEntity<String> response = restTemplate.exchange(baseUrl + "/api/balance/create/bulk",
+            HttpMethod.POST, new HttpEntity<>(body, headers), String.class);
+        assertEquals(400, response.getStatusCodeValue());
+        assertTrue(response.getBody().contains("\"failedCommands\":1"));
+        assertTrue(response.getBody().contains("\"created\":0"));
+    }
+
+    @Test
+    public void testBulkCreateCountsOnlyAccountsItCreated() throws Exception {
+        String cohort = "RacedCohort" + System.currentTimeMillis() + "-";
+        // Another command creates one account between the existence check and the apply
+        doAnswer(invocation -> {
+            ledgerStateMachine.createAccountIfNotExists(cohort + "1", Account.AccountType.AVAILABLE);
+            return invocation.callRealMethod();
+        }).when(ledgerStateMachine).processBulkCreate(anyString());
+
+        LedgerService.BulkCreateResult result = ledgerService.bulkCreateAccounts(List.of(
+            new BulkCreateAccountsCommand.NewAccount(cohort + "1", Account.AccountType.AVAILABLE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "2", Account.AccountType.AVAILABLE),
+            new BulkCreateAccountsCommand.NewAccount(cohort + "3", Account.AccountType.AVAILABLE)
+        )).get(10, TimeUnit.SECONDS);
+        assertTrue(result.isSuccess());
+        assertEquals(3, result.getProposed());
+        assertEquals(2, result.getCreated(), "The account created concurrently must not be reported as created");
+        assertTrue(accountBusinessService.accountExists(cohort + "3:available"));
+    }
+
     @Test
     public void testExistingAccountBalances() {
         // Test with existing accounts from the database
@@ -320,6 +439,33 @@ public class LedgerIntegrationTest {
         assertTrue(response.getBody().contains("success"));
     }
 
+    @Test
+    public void testRestApiStreamTransfers() throws Exception {
+        ledgerService.createAccount("StreamA", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount("StreamB", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Content-Type", "application/x-ndjson");
+        String key = "test-stream-" + System.currentTimeMillis();
+        String requestBody =
+            "{\"fromUserId\":\"StreamA\",\"fromType\":\"AVAILABLE\",\"toUserId\":\"StreamB\",\"toType\":\"AVAILABLE\",\"amount\":1000000,\"idempotencyKey\":\"" + key + "\"}\n"
+            + "{\"fromUserId\":\"StreamA\",\"fromType\":\"AVAILABLE\",\"toUserId\":\"StreamB\",\"toType\":\"AVAILABLE\",\"amount\":-1}\n"
+            + "{\"fromUserId\":\"StreamMissing\",\"fromType\":\"AVAILABLE\",\"toUserId\":\"StreamB\",\"toType\":\"AVAILABLE\",\"amount\":1}\n";
+        
+        ResponseEntity<String> response = restTemplate.postForEntity(
+            baseUrl + "/api/transfer/stream", new HttpEntity<>(requestBody, headers), String.class);
+        
+        assertEquals(200, response.getStatusCodeValue());
+        String[] lines = response.getBody().trim().split("\n");
+        assertEquals(4, lines.length, response.getBody());
+        // One result per record in input order, then the summary
+        assertTrue(lines[0].contains("\"record\":1") && lines[0].contains("\"status\":400"), lines[0]);
+        assertTrue(lines[1].contains("\"record\":2") && lines[1].contains("Amount must be positive"), lines[1]);
+        assertTrue(lines[2].contains("\"record\":3") && lines[2].contains("\"status\":404"), lines[2]);
+        assertTrue(lines[3].contains("\"summary\":true") && lines[3].contains("\"records\":3")
+            && lines[3].contains("\"failed\":3"), lines[3]);
+    }
+
     @Test
     public void testIdempotentTransfer() {
         HttpHeaders headers = new HttpHeaders();
@@ -353,6 +499,122 @@ public class LedgerIntegrationTest {
         assertNotNull(response2.getBody());
     }
 
+    @Test
+    public void testIdempotentOutcomeIsReplayedFromMarker() throws Exception {
+        String prefix = "Replay" + System.currentTimeMillis();
+        ledgerService.createAccount(prefix + "A", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount(prefix + "B", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        seedBalance(prefix + "A", "100.0000");
+        
+        String key = "test-replay-" + prefix;
+        ResponseEntity<String> first = postTransfer(prefix + "A", prefix + "B", "30.00", key);
+        assertEquals(200, first.getStatusCodeValue());
+        
+        // Drop the cached result: the retry is answered from the replicated idem: marker
+        idempotencyService.discard(key);
+        ResponseEntity<String> retry = postTransfer(prefix + "A", prefix + "B", "30.00", key);
+        assertEquals(200, retry.getStatusCodeValue());
+        assertEquals(first.getBody(), retry.getBody());
+        
+        // Proposed again, the state machine replays the stored outcome instead of applying it
+        CommandOutcome replayed = ledgerService.transferWithOutcome(prefix + "A", Account.AccountType.AVAILABLE,
+                prefix + "B", Account.AccountType.AVAILABLE, new BigDecimal("30.00"), "Replay test", key)
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(replayed.isReplayed());
+        assertTrue(replayed.isSuccess());
+        assertEquals(0, new BigDecimal("70").compareTo(replayed.getFromBalance()));
+        assertEquals(0, new BigDecimal("70").compareTo(ledgerService.getBalance(prefix + "A", Account.AccountType.AVAILABLE)));
+        assertEquals(0, new BigDecimal("30").compareTo(ledgerService.getBalance(prefix + "B", Account.AccountType.AVAILABLE)));
+        
+        // Rejections are stored and replayed the same way
+        String rejectedKey = "test-replay-rejected-" + prefix;
+        ResponseEntity<String> rejected = postTransfer(prefix + "A", prefix + "B", "500.00", rejectedKey);
+        assertEquals(400, rejected.getStatusCodeValue());
+        idempotencyService.discard(rejectedKey);
+        ResponseEntity<String> rejectedRetry = postTransfer(prefix + "A", prefix + "B", "500.00", rejectedKey);
+        assertEquals(400, rejectedRetry.getStatusCodeValue());
+        assertEquals(rejected.getBody(), rejectedRetry.getBody());
+    }
+
+    @Test
+    public void testConcurrentDuplicatesApplyOnce() throws Exception {
+        String prefix = "Coalesce" + System.currentTimeMillis();
+        ledgerService.createAccount(prefix + "A", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount(prefix + "B", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        seedBalance(prefix + "A", "100.0000");
+        
+        // Duplicates racing the first request wait for it, or read its stored result
+        String key = "test-coalesce-" + prefix;
+        List<CompletableFuture<ResponseEntity<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            responses.add(CompletableFuture.supplyAsync(() -> postTransfer(prefix + "A", prefix + "B", "10.00", key)));
+        }
+        for (CompletableFuture<ResponseEntity<String>> response : responses) {
+            assertEquals(200, response.get(10, TimeUnit.SECONDS).getStatusCodeValue());
+        }
+        assertEquals(0, new BigDecimal("90").compareTo(ledgerService.getBalance(prefix + "A", Account.AccountType.AVAILABLE)));
+        assertEquals(0, new BigDecimal("10").compareTo(ledgerService.getBalance(prefix + "B", Account.AccountType.AVAILABLE)));
+    }
+
+    @Test
+    public void testTransfersBetweenNewAccountsDoNotStallTheWriter() throws Exception {
+        // New accounts referenced across writer partitions: each batch references account
+        // rows that another partition has not committed yet
+        String prefix = "CrossPartition" + System.currentTimeMillis() + "-";
+        int pairs = 16;
+        List<BulkCreateAccountsCommand.NewAccount> accounts = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            accounts.add(new BulkCreateAccountsCommand.NewAccount(prefix + "A" + i, Account.AccountType.AVAILABLE));
+            accounts.add(new BulkCreateAccountsCommand.NewAccount(prefix + "B" + i, Account.AccountType.AVAILABLE));
+        }
+        double retriesBefore = meterRegistry.get("ledger.mysql.writer.retries").functionCounter().count();
+        assertTrue(ledgerService.bulkCreateAccounts(accounts).get(10, TimeUnit.SECONDS).isSuccess());
+        for (int i = 0; i < pairs; i++) {
+            seedBalance(prefix + "A" + i, "100.0000");
+            seedBalance(prefix + "B" + i, "100.0000");
+        }
+
+        List<CompletableFuture<Boolean>> transfers = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            transfers.add(ledgerService.transfer(prefix + "A" + i, Account.AccountType.AVAILABLE,
+                    prefix + "B" + i, Account.AccountType.AVAILABLE, new BigDecimal("5.00"), prefix + "AB" + i));
+            transfers.add(ledgerService.transfer(prefix + "B" + i, Account.AccountType.AVAILABLE,
+                    prefix + "A" + i, Account.AccountType.AVAILABLE, new BigDecimal("1.00"), prefix + "BA" + i));
+        }
+        for (CompletableFuture<Boolean> transfer : transfers) {
+            assertTrue(transfer.get(10, TimeUnit.SECONDS));
+        }
+
+        QueryWrapper<ProcessedTransaction> rows = new QueryWrapper<ProcessedTransaction>().likeRight("description", prefix);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (processedTransactionMapper.selectCount(rows) < 2L * pairs) {
+            assertTrue(System.currentTimeMillis() < deadline, "Writer stalled on cross-partition account rows");
+            Thread.sleep(50);
+        }
+        assertEquals(retriesBefore, meterRegistry.get("ledger.mysql.writer.retries").functionCounter().count(),
+                "No lock waits between writer partitions");
+    }
+
+    @Test
+    public void testSaturatedLedgerReturns429() throws Exception {
+        String prefix = "Overload" + System.currentTimeMillis();
+        ledgerService.createAccount(prefix + "A", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount(prefix + "B", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        seedBalance(prefix + "A", "100.0000");
+        
+        String key = "test-overload-" + prefix;
+        doReturn(false).when(admissionControl).tryAcquire();
+        ResponseEntity<String> rejected = postTransfer(prefix + "A", prefix + "B", "10.00", key);
+        assertEquals(429, rejected.getStatusCodeValue());
+        assertNotNull(rejected.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        
+        // Nothing was applied, and the same key is processed once the ledger has capacity again
+        reset(admissionControl);
+        assertEquals(0, new BigDecimal("100").compareTo(ledgerService.getBalance(prefix + "A", Account.AccountType.AVAILABLE)));
+        assertEquals(200, postTransfer(prefix + "A", prefix + "B", "10.00", key).getStatusCodeValue());
+        assertEquals(0, new BigDecimal("90").compareTo(ledgerService.getBalance(prefix + "A", Account.AccountType.AVAILABLE)));
+    }
+
     @Test
     public void testBatchTransfer() throws Exception {
         // Create test accounts if they don't exist
@@ -389,6 +651,125 @@ public class LedgerIntegrationTest {
         assertTrue(duplicateBatchResult.get(10, TimeUnit.SECONDS), "Duplicate batch transfer should return success (idempotent)");
     }
 
+    @Test
+    public void testBatchTransferIsAtomic() throws Exception {
+        String prefix = "Atomic" + System.currentTimeMillis();
+        for (String user : List.of(prefix + "A", prefix + "B", prefix + "C")) {
+            ledgerService.createAccount(user, Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        }
+        
+        // The first two legs net to zero; the third overdraws B, so nothing may be applied
+        List<LedgerService.TransferRequest> overdraw = List.of(
+            new LedgerService.TransferRequest(prefix + "A", Account.AccountType.AVAILABLE,
+                                            prefix + "B", Account.AccountType.AVAILABLE, new BigDecimal("5.00"), "Leg 1"),
+            new LedgerService.TransferRequest(prefix + "B", Account.AccountType.AVAILABLE,
+                                            prefix + "A", Account.AccountType.AVAILABLE, new BigDecimal("5.00"), "Leg 2"),
+            new LedgerService.TransferRequest(prefix + "B", Account.AccountType.AVAILABLE,
+                                            prefix + "C", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), "Leg 3")
+        );
+        String rejectedId = "test-batch-atomic-" + prefix;
+        CommandOutcome rejected = ledgerService.batchTransferWithOutcome(overdraw, rejectedId).get(10, TimeUnit.SECONDS);
+        assertFalse(rejected.isSuccess());
+        assertEquals(400, rejected.getStatusCode());
+        assertTrue(rejected.getMessage().contains("Insufficient funds in " + prefix + "B:available"), rejected.getMessage());
+        for (String user : List.of(prefix + "A", prefix + "B", prefix + "C")) {
+            assertEquals(0, BigDecimal.ZERO.compareTo(ledgerService.getBalance(user, Account.AccountType.AVAILABLE)));
+        }
+        
+        // The rejection is stored under the batch key and replayed
+        CommandOutcome replayed = ledgerService.batchTransferWithOutcome(overdraw, rejectedId).get(10, TimeUnit.SECONDS);
+        assertTrue(replayed.isReplayed());
+        assertEquals(400, replayed.getStatusCode());
+        
+        // Without the overdrawing leg the batch applies as a whole
+        CommandOutcome applied = ledgerService.batchTransferWithOutcome(overdraw.subList(0, 2),
+                "test-batch-atomic-ok-" + prefix).get(10, TimeUnit.SECONDS);
+        assertTrue(applied.isSuccess(), applied.getMessage());
+        assertEquals(0, BigDecimal.ZERO.compareTo(ledgerService.getBalance(prefix + "B", Account.AccountType.AVAILABLE)));
+    }
+
+    @Test
+    public void testJournalPosting() throws Exception {
+        ledgerService.createAccount("JournalA", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount("JournalB", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount("JournalC", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        BigDecimal balanceA = ledgerService.getBalance("JournalA", Account.AccountType.AVAILABLE);
+        
+        // Entries are netted per account: A pays out more than it holds but receives it back
+        BigDecimal overdraw = balanceA.add(new BigDecimal("5.00"));
+        Transaction cycle = Transaction.create("Netted cycle", List.of(
+            new Transaction.DoubleEntry("JournalA", Account.AccountType.AVAILABLE,
+                    "JournalB", Account.AccountType.AVAILABLE, overdraw, null),
+            new Transaction.DoubleEntry("JournalB", Account.AccountType.AVAILABLE,
+                    "JournalC", Account.AccountType.AVAILABLE, overdraw, null),
+            new Transaction.DoubleEntry("JournalC", Account.AccountType.AVAILABLE,
+                    "JournalA", Account.AccountType.AVAILABLE, overdraw, "Settle")
+        ));
+        assertTrue(cycle.isBalanced());
+        String cycleId = "test-journal-cycle-" + System.currentTimeMillis();
+        CommandOutcome posted = ledgerService.postJournal(LedgerOperation.applyTransaction(cycle), cycleId)
+                .get(10, TimeUnit.SECONDS);
+        assertTrue(posted.isSuccess(), posted.getMessage());
+        assertEquals(0, balanceA.compareTo(ledgerService.getBalance("JournalA", Account.AccountType.AVAILABLE)));
+        
+        // Replaying the same key returns the stored outcome
+        assertTrue(ledgerService.postJournal(LedgerOperation.applyTransaction(cycle), cycleId)
+                .get(10, TimeUnit.SECONDS).isReplayed());
+        
+        // A net overdraft rejects the whole journal
+        Transaction overdraft = Transaction.create("Overdraft", List.of(
+            new Transaction.DoubleEntry("JournalA", Account.AccountType.AVAILABLE,
+                    "JournalB", Account.AccountType.AVAILABLE, overdraw, null),
+            new Transaction.DoubleEntry("JournalB", Account.AccountType.AVAILABLE,
+                    "JournalC", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), null)
+        ));
+        CommandOutcome rejected = ledgerService.postJournal(LedgerOperation.applyTransaction(overdraft),
+                "test-journal-overdraft-" + System.currentTimeMillis()).get(10, TimeUnit.SECONDS);
+        assertFalse(rejected.isSuccess());
+        assertEquals(400, rejected.getStatusCode());
+        assertEquals(0, balanceA.compareTo(ledgerService.getBalance("JournalA", Account.AccountType.AVAILABLE)));
+        
+        // An entry from an account to itself makes the journal unbalanced
+        Transaction selfEntry = Transaction.create("Invalid", List.of(
+            new Transaction.DoubleEntry("JournalA", Account.AccountType.AVAILABLE,
+                    "JournalA", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), null)));
+        assertFalse(selfEntry.isBalanced());
+    }
+
+    @Test
+    public void testAccountHistoryPaging() throws Exception {
+        ledgerService.createAccount("HistoryA", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount("HistoryB", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        BigDecimal amount = ledgerService.getBalance("HistoryA", Account.AccountType.AVAILABLE).add(new BigDecimal("1.00"));
+        
+        // Three netted cycles A -> B -> A: two history entries per cycle on each account
+        for (int i = 0; i < 3; i++) {
+            Transaction cycle = Transaction.create("History " + i, List.of(
+                new Transaction.DoubleEntry("HistoryA", Account.AccountType.AVAILABLE,
+                        "HistoryB", Account.AccountType.AVAILABLE, amount, null),
+                new Transaction.DoubleEntry("HistoryB", Account.AccountType.AVAILABLE,
+                        "HistoryA", Account.AccountType.AVAILABLE, amount, null)));
+            assertTrue(ledgerService.postJournal(LedgerOperation.applyTransaction(cycle),
+                    "test-history-" + System.nanoTime()).get(10, TimeUnit.SECONDS).isSuccess());
+        }
+        
+        String url = baseUrl + "/api/account/HistoryA:available/history?limit=4";
+        ResponseEntity<String> first = restTemplate.getForEntity(url, String.class);
+        assertEquals(200, first.getStatusCodeValue());
+        // Newest first: the last entry posted is the credit back from B
+        assertTrue(first.getBody().indexOf("History 2") < first.getBody().indexOf("History 1"), first.getBody());
+        
+        String cursor = first.getBody().replaceAll(".*\"nextCursor\":\"([0-9a-f]+)\".*", "$1");
+        ResponseEntity<String> second = restTemplate.getForEntity(url + "&cursor=" + cursor, String.class);
+        assertEquals(200, second.getStatusCodeValue());
+        assertTrue(second.getBody().contains("History 0"), second.getBody());
+        assertFalse(second.getBody().contains("History 2"), second.getBody());
+        assertTrue(second.getBody().contains("\"nextCursor\":null"), second.getBody());
+        
+        assertEquals(404, restTemplate.getForEntity(
+                baseUrl + "/api/account/NoSuchUser:available/history", String.class).getStatusCodeValue());
+    }
+
     @Test
     public void testRealWorldScenario() throws Exception {
         System.out.println("=== Real World Scenario Test ===");
@@ -442,6 +823,59 @@ public class LedgerIntegrationTest {
         assertTrue(response.getBody().contains("totalEntries"));
     }
 
+    @Test
+    public void testOverlongDescriptionIsRejected() {
+        String description = "x".repeat(LedgerService.MAX_DESCRIPTION_LENGTH + 1);
+
+        ExecutionException single = assertThrows(ExecutionException.class, () -> ledgerService.transfer(
+                "UserA", Account.AccountType.AVAILABLE, "UserB", Account.AccountType.AVAILABLE,
+                new BigDecimal("1.00"), description).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, single.getCause());
+
+        LedgerService.TransferRequest leg = new LedgerService.TransferRequest("UserA", Account.AccountType.AVAILABLE,
+                "UserB", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), description);
+        ExecutionException batch = assertThrows(ExecutionException.class, () -> ledgerService.batchTransfer(
+                List.of(leg), "overlong-" + System.currentTimeMillis()).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, batch.getCause());
+    }
+
+    @Test
+    public void testPurgeKeepsMarkersInRetentionWindow() throws Exception {
+        ledgerService.createAccount("PurgeA", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        ledgerService.createAccount("PurgeB", Account.AccountType.AVAILABLE).get(5, TimeUnit.SECONDS);
+        long now = System.currentTimeMillis();
+        
+        // A marker in today's bucket (a rejected transfer stores its outcome too)
+        String recentKey = "test-purge-recent-" + now;
+        CommandOutcome first = ledgerService.transferWithOutcome("PurgeA", Account.AccountType.AVAILABLE,
+                "PurgeB", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), "Purge test", recentKey)
+                .get(5, TimeUnit.SECONDS);
+        assertNotNull(idempotencyMarkers.findTransfer(recentKey, now));
+        
+        // Markers from well before the retention window
+        long expiredAt = now - TimeUnit.DAYS.toMillis(30);
+        String expiredKey = "test-purge-expired-" + now;
+        rocksDBService.putBytes(idempotencyMarkers.transferKey(expiredKey, expiredAt), first.encode());
+        rocksDBService.putBytes(idempotencyMarkers.batchKey(expiredKey, expiredAt), first.encode());
+        
+        CommandOutcome purged = ledgerService.purgeExpiredIdempotencyMarkers(now).get(5, TimeUnit.SECONDS);
+        assertNotNull(purged, "Expired buckets should produce a purge command");
+        assertTrue(purged.isSuccess(), purged.getMessage());
+        assertNull(idempotencyMarkers.findTransfer(expiredKey, expiredAt));
+        assertNull(idempotencyMarkers.findBatch(expiredKey, expiredAt));
+        
+        // The in-window marker survives and still answers a retry
+        assertNotNull(idempotencyMarkers.findTransfer(recentKey, now));
+        CommandOutcome retried = ledgerService.transferWithOutcome("PurgeA", Account.AccountType.AVAILABLE,
+                "PurgeB", Account.AccountType.AVAILABLE, new BigDecimal("1.00"), "Purge test", recentKey)
+                .get(5, TimeUnit.SECONDS);
+        assertTrue(retried.isReplayed());
+        assertEquals(first.getStatusCode(), retried.getStatusCode());
+        
+        // Nothing left to expire, so nothing is proposed
+        assertNull(ledgerService.purgeExpiredIdempotencyMarkers(now).get(5, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testSystemHealthAfterOperations() {
         // Verify system is still healthy after all operations
@@ -670,4 +1104,21 @@ public class LedgerIntegrationTest {
         System.out.println("- Balance consistency maintained across all nodes");
         System.out.println("- Failed operations (if any) failed cleanly with insufficient funds");
     }
-} 
\ No newline at end of file
+
+    // Opening balance for a test account, written to RocksDB the way the MySQL loader seeds it
+    private void seedBalance(String userId, String balance) {
+        String accountId = Account.generateAccountId(userId, Account.AccountType.AVAILABLE);
+        rocksDBService.put(accountId, balance);
+        hotBalanceCache.put(accountId, new BigDecimal(balance));
+    }
+
+    private ResponseEntity<String> postTransfer(String fromUserId, String toUserId, String amount, String idempotencyKey) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Content-Type", "application/json");
+        headers.set("Idempotency-Key", idempotencyKey);
+        String body = "{\"fromUserId\":\"" + fromUserId + "\",\"fromType\":\"AVAILABLE\","
+            + "\"toUserId\":\"" + toUserId + "\",\"toType\":\"AVAILABLE\","
+            + "\"amount\":" + amount + ",\"description\":\"Idempotency test\"}";
+        return restTemplate.postForEntity(baseUrl + "/api/transfer/single", new HttpEntity<>(body, headers), String.class);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.ledger.integration;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.example.ledger.LedgerApplication;
+import com.example.ledger.mapper.ProcessedTransactionMapper;
+import com.example.ledger.model.Account;
+import com.example.ledger.model.ProcessedTransaction;
+import com.example.ledger.service.AsyncMySQLBatchWriter;
+import com.example.ledger.service.LedgerService;
+import com.example.ledger.service.MySQLDeadLetterStore;
+import com.example.ledger.service.PersistenceSink;
+import com.example.ledger.service.RocksDBInitializationService;
+import com.example.ledger.service.WriteEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.reset;
+
+/**
+ * Failure handling of the MySQL writer: transient errors are retried, a row
+ * MySQL rejects is isolated by bisection and dead-lettered while the rest of
+ * its batch commits, and dead letters can be replayed. Runs in its own context
+ * (RocksDB directory and H2 database) so the dead-letter store starts empty.
+ */
+@SpringBootTest(classes = LedgerApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MySQLWriterFailureIntegrationTest {
+
+    @Autowired
+    private LedgerService ledgerService;
+
+    @Autowired
+    private RocksDBInitializationService rocksDBInitializationService;
+
+    @Autowired
+    private AsyncMySQLBatchWriter asyncMySQLBatchWriter;
+
+    @Autowired
+    private MySQLDeadLetterStore mySQLDeadLetterStore;
+
+    @Autowired
+    private ProcessedTransactionMapper processedTransactionMapper;
+
+    // Real sink; the test makes it reject specific rows
+    @SpyBean
+    private PersistenceSink persistenceSink;
+
+    @DynamicPropertySource
+    static void writerProperties(DynamicPropertyRegistry registry) {
+        registry.add("raft.rocksdb.path", () -> tempDir("ledger-writer-rocksdb"));
+        registry.add("mysql.writer.segment.dir", () -> tempDir("ledger-writer-segments"));
+        registry.add("spring.datasource.url",
+                () -> "jdbc:h2:mem:writerfailuredb;MODE=MySQL;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+        registry.add("mysql.writer.retry.base.backoff.ms", () -> "5");
+        registry.add("mysql.writer.retry.max.backoff.ms", () -> "20");
+    }
+
+    private static String tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix).toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @BeforeAll
+    void loadAccounts() throws Exception {
+        rocksDBInitializationService.initializeFromMySQL();
+    }
+
+    @Test
+    public void testPoisonRowIsDeadLetteredAndReplayed() throws Exception {
+        transfer("Writer warmup");
+        // Stub only once the writer is idle: the spy must not be called while it is being stubbed
+        awaitTransactionRow("Writer warmup");
+
+        AtomicInteger transientFailures = new AtomicInteger();
+        doAnswer(invocation -> {
+            List<WriteEvent> rows = invocation.getArgument(0);
+            for (WriteEvent row : rows) {
+                if ("Writer poison".equals(row.getDescription())) {
+                    throw new DataIntegrityViolationException("Simulated constraint violation");
+                }
+                if ("Writer transient".equals(row.getDescription()) && transientFailures.getAndIncrement() == 0) {
+                    throw new TransientDataAccessResourceException("Simulated lock wait timeout");
+                }
+            }
+            return invocation.callRealMethod();
+        }).when(persistenceSink).insertTransactions(anyList());
+
+        try {
+            transfer("Writer before poison");
+            transfer("Writer poison");
+            transfer("Writer transient");
+            transfer("Writer after poison");
+
+            // The rest of the batch commits around the rejected row
+            awaitTransactionRow("Writer before poison");
+            awaitTransactionRow("Writer transient");
+            awaitTransactionRow("Writer after poison");
+            assertEquals(0, transactionRows("Writer poison"));
+            assertTrue(transientFailures.get() >= 2, "Transient failure was retried");
+
+            List<MySQLDeadLetterStore.DeadLetter> deadLetters = mySQLDeadLetterStore.list(10);
+            assertEquals(1, deadLetters.size());
+            assertEquals("Writer poison", deadLetters.get(0).event().getDescription());
+            assertTrue(deadLetters.get(0).reason().contains("Simulated constraint violation"),
+                    deadLetters.get(0).reason());
+        } finally {
+            reset(persistenceSink);
+        }
+
+        // Once the cause is fixed the dead letter is written and removed
+        Map<String, Object> result = asyncMySQLBatchWriter.replayDeadLetters(10);
+        assertEquals(1, result.get("replayed"));
+        assertEquals(0L, result.get("remaining"));
+        assertEquals(1, transactionRows("Writer poison"));
+    }
+
+    private void transfer(String description) throws Exception {
+        assertTrue(ledgerService.transfer("UserA", Account.AccountType.AVAILABLE,
+                "UserB", Account.AccountType.AVAILABLE, new BigDecimal("1.00"),
+                description).get(5, TimeUnit.SECONDS));
+    }
+
+    private long transactionRows(String description) {
+        return processedTransactionMapper.selectCount(
+                new QueryWrapper<ProcessedTransaction>().eq("description", description));
+    }
+
+    private void awaitTransactionRow(String description) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transactionRows(description) == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "Transaction row not written: " + description);
+            Thread.sleep(50);
+        }
+    }
+}
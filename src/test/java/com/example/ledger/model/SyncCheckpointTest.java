@@ -0,0 +1,38 @@
+package com.example.ledger.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncCheckpointTest {
+
+    @Test
+    public void testCoversUpToTheLegAtTheCheckpointPosition() {
+        SyncCheckpoint checkpoint = checkpoint(42, 1);
+
+        assertTrue(checkpoint.covers(41, Integer.MAX_VALUE), "Every leg of an earlier position");
+        assertTrue(checkpoint.covers(42, 0));
+        assertTrue(checkpoint.covers(42, 1));
+        assertFalse(checkpoint.covers(42, 2), "Later leg of a partly persisted command");
+        assertFalse(checkpoint.covers(43, 0));
+    }
+
+    @Test
+    public void testInitialCheckpointCoversNothing() {
+        // Rows created by ensureCheckpoint start at (0, -1)
+        SyncCheckpoint checkpoint = checkpoint(0, -1);
+
+        assertFalse(checkpoint.covers(0, 0), "The first leg of position 0 is still pending");
+        assertFalse(checkpoint.covers(1, 0));
+        assertTrue(checkpoint.covers(-1, 0));
+    }
+
+    private static SyncCheckpoint checkpoint(long lastIndex, int lastLeg) {
+        SyncCheckpoint checkpoint = new SyncCheckpoint();
+        checkpoint.setPartitionCount(4);
+        checkpoint.setPartitionId(0);
+        checkpoint.setLastIndex(lastIndex);
+        checkpoint.setLastLeg(lastLeg);
+        return checkpoint;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.ledger.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionIdsTest {
+
+    private static final String CROCKFORD = "[0-9A-HJKMNP-TV-Z]+";
+
+    @Test
+    public void testFixedWidthCrockfordEncoding() {
+        String id = TransactionIds.raft(1_700_000_000_000L, 42, 3);
+        assertEquals(TransactionIds.LENGTH, id.length());
+        assertTrue(id.matches(CROCKFORD), id);
+        assertEquals(id, TransactionIds.raft(1_700_000_000_000L, 42, 3), "Replicas derive the same ID");
+        assertEquals(TransactionIds.LENGTH, TransactionIds.standalone(0, 0, 0).length());
+    }
+
+    @Test
+    public void testIdsSortByTimeThenPositionThenLeg() {
+        long t = 1_700_000_000_000L;
+        List<String> ordered = List.of(
+            TransactionIds.raft(t, 1000, 0),
+            TransactionIds.raft(t, 1000, 1),
+            TransactionIds.raft(t, 1001, 0),
+            TransactionIds.raft(t + 1, 5, 0),
+            TransactionIds.raft(t + 1, 5, TransactionIds.MAX_LEGS - 1),
+            TransactionIds.raft(t + 86_400_000L, 1, 0)
+        );
+        List<String> sorted = new ArrayList<>(ordered);
+        sorted.sort(null);
+        assertEquals(ordered, sorted);
+    }
+
+    @Test
+    public void testModesDoNotCollide() {
+        assertNotEquals(TransactionIds.raft(1_000L, 7, 0), TransactionIds.standalone(1_000L, 7, 0));
+    }
+
+    @Test
+    public void testRejectsOutOfRangePositionAndLeg() {
+        assertThrows(IllegalArgumentException.class, () -> TransactionIds.raft(0, -1, 0));
+        assertThrows(IllegalArgumentException.class, () -> TransactionIds.raft(0, 1L << 48, 0));
+        assertThrows(IllegalArgumentException.class, () -> TransactionIds.raft(0, 1, -1));
+        assertThrows(IllegalArgumentException.class, () -> TransactionIds.standalone(0, 1, TransactionIds.MAX_LEGS));
+        assertDoesNotThrow(() -> TransactionIds.raft(0, (1L << 48) - 1, TransactionIds.MAX_LEGS - 1));
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.ledger.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveBatchControllerTest {
+
+    private static final long FAST = 10_000_000L;  // 10 ms
+    private static final long IDLE = 1_000_000L;   // 1 ms, under half the target
+    private static final long SLOW = 80_000_000L;  // 80 ms, above the 50 ms target
+
+    private AdaptiveBatchController controller() {
+        return new AdaptiveBatchController(0, true, 64, 256, 5, 20, 50);
+    }
+
+    @Test
+    public void testFullBatchGrowsAdditivelyUpToMax() {
+        AdaptiveBatchController controller = controller();
+        assertEquals(64, controller.getBatchSize());
+
+        controller.onBatchCommitted(64, FAST, 0.0);
+        assertEquals(128, controller.getBatchSize());
+        controller.onBatchCommitted(128, FAST, 0.0);
+        assertEquals(192, controller.getBatchSize());
+        controller.onBatchCommitted(192, FAST, 0.0);
+        controller.onBatchCommitted(256, FAST, 0.0);
+        assertEquals(256, controller.getBatchSize());
+        controller.onBatchCommitted(256, FAST, 0.0);
+        assertEquals(256, controller.getBatchSize(), "Clamped at the maximum");
+    }
+
+    @Test
+    public void testBacklogGrowsPartialBatch() {
+        AdaptiveBatchController controller = controller();
+        controller.onBatchCommitted(10, FAST, 0.6);
+        assertEquals(128, controller.getBatchSize());
+
+        // Neither full nor backlogged: unchanged
+        controller.onBatchCommitted(100, FAST, 0.1);
+        assertEquals(128, controller.getBatchSize());
+    }
+
+    @Test
+    public void testLatencyAboveTargetHalvesDownToMin() {
+        AdaptiveBatchController controller = controller();
+        for (int i = 0; i < 3; i++) {
+            controller.onBatchCommitted(controller.getBatchSize(), FAST, 0.0);
+        }
+        assertEquals(256, controller.getBatchSize());
+
+        // Decrease wins over a full batch and a backlog
+        controller.onBatchCommitted(256, SLOW, 0.9);
+        assertEquals(128, controller.getBatchSize());
+        controller.onBatchCommitted(128, SLOW, 0.0);
+        assertEquals(64, controller.getBatchSize());
+        controller.onBatchCommitted(64, SLOW, 0.0);
+        assertEquals(64, controller.getBatchSize(), "Clamped at the minimum");
+        assertEquals(3L, controller.getSetpoints().get("decreases"));
+    }
+
+    @Test
+    public void testLingerLengthensWhenIdleAndHalvesUnderBacklog() {
+        AdaptiveBatchController controller = controller();
+        assertEquals(5, controller.getLingerMs());
+
+        // Small, fast batches: linger grows by one step up to the maximum
+        controller.onBatchCommitted(1, IDLE, 0.0);
+        assertEquals(10, controller.getLingerMs());
+        controller.onBatchCommitted(1, IDLE, 0.0);
+        controller.onBatchCommitted(1, IDLE, 0.0);
+        assertEquals(20, controller.getLingerMs());
+        controller.onBatchCommitted(1, IDLE, 0.0);
+        assertEquals(20, controller.getLingerMs(), "Clamped at the maximum");
+
+        // Backlog: halved down to the minimum
+        controller.onBatchCommitted(1, IDLE, 0.9);
+        assertEquals(10, controller.getLingerMs());
+        controller.onBatchCommitted(1, IDLE, 0.9);
+        assertEquals(5, controller.getLingerMs());
+        controller.onBatchCommitted(1, IDLE, 0.9);
+        assertEquals(5, controller.getLingerMs(), "Clamped at the minimum");
+    }
+
+    @Test
+    public void testFixedControllerKeepsSetpoints() {
+        AdaptiveBatchController controller = AdaptiveBatchController.fixed(0, 1000);
+        controller.onBatchCommitted(1000, SLOW, 0.9);
+        controller.onBatchCommitted(1, IDLE, 0.0);
+        assertEquals(1000, controller.getBatchSize());
+        assertEquals(0, controller.getLingerMs());
+    }
+}
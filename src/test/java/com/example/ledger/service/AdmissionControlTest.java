@@ -0,0 +1,66 @@
+package com.example.ledger.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControlTest {
+
+    private AsyncMySQLBatchWriter writer;
+    private AdmissionControl admissionControl;
+
+    @BeforeEach
+    void setUp() {
+        writer = mock(AsyncMySQLBatchWriter.class);
+        admissionControl = new AdmissionControl();
+        ReflectionTestUtils.setField(admissionControl, "maxPendingProposals", 2);
+        ReflectionTestUtils.setField(admissionControl, "retryAfterSeconds", 3L);
+        ReflectionTestUtils.setField(admissionControl, "writerLagThreshold", 1000L);
+        ReflectionTestUtils.setField(admissionControl, "writerLagMaxDelayMs", 200L);
+        ReflectionTestUtils.setField(admissionControl, "asyncMySQLBatchWriter", writer);
+        ReflectionTestUtils.setField(admissionControl, "meterRegistry", new SimpleMeterRegistry());
+        admissionControl.registerMetrics();
+    }
+
+    @Test
+    public void testPendingProposalsAreBounded() {
+        assertTrue(admissionControl.tryAcquire());
+        assertTrue(admissionControl.tryAcquire());
+        assertFalse(admissionControl.tryAcquire());
+        assertEquals(2, admissionControl.getPendingProposals());
+
+        admissionControl.release();
+        assertTrue(admissionControl.tryAcquire());
+        assertEquals(1L, admissionControl.getMetrics().get("rejected"));
+        assertEquals(3L, admissionControl.getMetrics().get("admitted"));
+    }
+
+    @Test
+    public void testRejectionCarriesRetryAfter() {
+        LedgerOverloadException rejected = admissionControl.reject("queue full");
+        assertEquals("queue full", rejected.getMessage());
+        assertEquals(3L, rejected.getRetryAfterSeconds());
+        assertEquals(1L, admissionControl.getMetrics().get("rejected"));
+    }
+
+    @Test
+    public void testThrottleDelayGrowsWithWriterLag() {
+        when(writer.getPendingEventCount()).thenReturn(1000L);
+        assertEquals(0, admissionControl.throttleDelayMs());
+
+        when(writer.getPendingEventCount()).thenReturn(1001L);
+        assertEquals(1, admissionControl.throttleDelayMs());
+
+        when(writer.getPendingEventCount()).thenReturn(1500L);
+        assertEquals(100, admissionControl.throttleDelayMs());
+
+        when(writer.getPendingEventCount()).thenReturn(1_000_000L);
+        assertEquals(200, admissionControl.throttleDelayMs());
+        assertEquals(3L, admissionControl.getMetrics().get("throttled"));
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.ledger.service;
+
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.Account;
+import com.example.ledger.model.SyncCheckpoint;
+import com.example.ledger.state.AccountHandleRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncMySQLBatchWriterTest {
+
+    private static final int PARTITIONS = 4;
+
+    private AsyncMySQLBatchWriter writer;
+    private PersistenceSink sink;
+    private MeterRegistry meterRegistry;
+    private final List<List<WriteEvent>> upserts = new ArrayList<>();
+    private final List<List<WriteEvent>> inserts = new ArrayList<>();
+    private long sequence;
+    private long position;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        sink = mock(PersistenceSink.class);
+        when(sink.name()).thenReturn("mock");
+        when(sink.inTransaction(any())).thenAnswer(invocation -> ((Supplier<Object>) invocation.getArgument(0)).get());
+        SyncCheckpoint checkpoint = new SyncCheckpoint();
+        checkpoint.setLastIndex(-1L);
+        checkpoint.setLastLeg(-1);
+        when(sink.lockCheckpoint(anyInt(), anyInt())).thenReturn(checkpoint);
+        // The writer hands sub-lists of its own buffers to the sink
+        doAnswer(invocation -> upserts.add(new ArrayList<>(invocation.<List<WriteEvent>>getArgument(0))))
+                .when(sink).upsertBalances(anyList());
+        doAnswer(invocation -> inserts.add(new ArrayList<>(invocation.<List<WriteEvent>>getArgument(0))))
+                .when(sink).insertTransactions(anyList());
+
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new AsyncMySQLBatchWriter();
+        ReflectionTestUtils.setField(writer, "persistenceSink", sink);
+        ReflectionTestUtils.setField(writer, "mySQLOutbox", mock(MySQLOutbox.class));
+        ReflectionTestUtils.setField(writer, "mySQLDeadLetterStore", mock(MySQLDeadLetterStore.class));
+        ReflectionTestUtils.setField(writer, "rocksDBService", mock(RocksDBService.class));
+        ReflectionTestUtils.setField(writer, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(writer, "accountHandleRegistry", new AccountHandleRegistry(mock(RocksDBService.class)));
+        ReflectionTestUtils.setField(writer, "batchSize", 100);
+        ReflectionTestUtils.setField(writer, "batchIntervalMs", 100L);
+        ReflectionTestUtils.setField(writer, "adaptiveBatching", false);
+        ReflectionTestUtils.setField(writer, "writerThreadCount", PARTITIONS);
+        ReflectionTestUtils.setField(writer, "useRingBuffer", false);
+        ReflectionTestUtils.setField(writer, "queueCapacity", 1000);
+        ReflectionTestUtils.setField(writer, "statementRows", 2);
+        ReflectionTestUtils.setField(writer, "maxRetryBackoffMs", 10L);
+        ReflectionTestUtils.setField(writer, "retryBaseBackoffMs", 1L);
+        writer.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        writer.stop();
+    }
+
+    @Test
+    public void testBatchIsWrittenWithMultiRowStatements() {
+        List<WriteEvent> batch = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            batch.add(balance("U" + i, "10.0000"));
+        }
+        for (int i = 0; i < 3; i++) {
+            batch.add(transaction("T" + i, "U" + i, "U" + (i + 1)));
+        }
+
+        writer.processBatch(batch, 0);
+
+        // At most statementRows rows per statement, every row written once
+        assertEquals(List.of(2, 2, 1), upserts.stream().map(List::size).toList());
+        assertEquals(List.of(2, 1), inserts.stream().map(List::size).toList());
+        // Placeholder account rows, then the whole batch with its checkpoint
+        verify(sink, times(2)).inTransaction(any());
+        verify(sink).advanceCheckpoint(PARTITIONS, 0, position, 0);
+    }
+
+    @Test
+    public void testLastBalanceOfEachAccountWins() {
+        writer.processBatch(List.of(
+                balance("A", "10.0000"),
+                balance("B", "5.0000"),
+                balance("A", "20.0000"),
+                balance("A", "15.0000")), 0);
+
+        assertEquals(1, upserts.size());
+        List<WriteEvent> rows = upserts.get(0);
+        assertEquals(2, rows.size());
+        assertEquals("A:available", rows.get(0).getAccountId());
+        assertEquals(new BigDecimal("15.0000"), rows.get(0).getBalance());
+        assertEquals("B:available", rows.get(1).getAccountId());
+        assertEquals(new BigDecimal("5.0000"), rows.get(1).getBalance());
+    }
+
+    @Test
+    public void testCoalescingRatioGauge() {
+        assertEquals(0.0, coalescingRatio());
+
+        // 4 events for 2 accounts: half of them superseded
+        writer.processBatch(List.of(
+                balance("A", "1.0000"),
+                balance("A", "2.0000"),
+                balance("B", "1.0000"),
+                balance("B", "2.0000")), 0);
+        assertEquals(0.5, coalescingRatio(), 1e-9);
+
+        // Nothing coalesces across batches: 6 events, 4 rows
+        writer.processBatch(List.of(balance("A", "3.0000"), balance("C", "1.0000")), 0);
+        assertEquals(1.0 - 4.0 / 6.0, coalescingRatio(), 1e-9);
+        assertEquals(writer.getBalanceCoalescingRatio(), coalescingRatio());
+    }
+
+    @Test
+    public void testEveryEventOfAnAccountGoesToOnePartition() {
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            WriteEvent balance = balance("User" + i, "1.0000");
+            int partition = writer.partitionOf(balance);
+            assertTrue(partition >= 0 && partition < PARTITIONS);
+            assertEquals(partition, writer.partitionOf(balance("User" + i, "2.0000")));
+            // Transactions follow their source account, whatever the destination
+            assertEquals(partition, writer.partitionOf(transaction("T" + i, "User" + i, "Other" + i)));
+            assertEquals(partition, writer.partitionOf(transaction("T" + i + "b", "User" + i, "User" + (i + 1))));
+            used.add(partition);
+        }
+        assertEquals(PARTITIONS, used.size(), "Accounts spread over all partitions");
+
+        // Stable across writer instances (restarts): String hashes, no per-instance state
+        AsyncMySQLBatchWriter other = new AsyncMySQLBatchWriter();
+        ReflectionTestUtils.setField(other, "writerThreadCount", PARTITIONS);
+        for (int i = 0; i < 100; i++) {
+            WriteEvent balance = balance("User" + i, "1.0000");
+            assertEquals(writer.partitionOf(balance), other.partitionOf(balance));
+        }
+    }
+
+    private double coalescingRatio() {
+        return meterRegistry.get("ledger.mysql.writer.balance.coalescing.ratio").gauge().value();
+    }
+
+    private WriteEvent balance(String userId, String amount) {
+        WriteEvent event = new WriteEvent().balance(userId + ":available", userId,
+                Account.AccountType.AVAILABLE, new BigDecimal(amount));
+        return staged(event);
+    }
+
+    private WriteEvent transaction(String transactionId, String fromUserId, String toUserId) {
+        WriteEvent event = new WriteEvent().transaction(transactionId, fromUserId + ":available",
+                toUserId + ":available", new BigDecimal("1.0000"), null, null, 1_700_000_000_000L);
+        return staged(event);
+    }
+
+    private WriteEvent staged(WriteEvent event) {
+        event.setSequence(++sequence);
+        event.setOutboxPosition(++position);
+        event.setOutboxLeg(0);
+        return event;
+    }
+}
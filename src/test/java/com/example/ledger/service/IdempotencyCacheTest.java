@@ -0,0 +1,120 @@
+package com.example.ledger.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyCacheTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Test
+    public void testPutGetRemove() {
+        IdempotencyCache cache = new IdempotencyCache(100, 4, 60_000, NOW);
+        IdempotencyService.IdempotencyResult result = result(false);
+        cache.put("k1", result, NOW);
+
+        assertSame(result, cache.get("k1", NOW + 1));
+        assertNull(cache.get("missing", NOW));
+        assertEquals(1, cache.size());
+
+        cache.remove("k1");
+        assertNull(cache.get("k1", NOW));
+        assertEquals(0, cache.size());
+        assertEquals(1L, cache.counters().get("hits"));
+    }
+
+    @Test
+    public void testLookupNeverReturnsExpiredEntry() {
+        IdempotencyCache cache = new IdempotencyCache(100, 1, 60_000, NOW);
+        cache.put("k1", result(false), NOW);
+
+        // Past its deadline before the wheel has fired
+        assertNull(cache.get("k1", NOW + 60_000));
+        assertEquals(1L, cache.counters().get("expirations"));
+    }
+
+    @Test
+    public void testReplacementKeepsOriginalExpiry() {
+        IdempotencyCache cache = new IdempotencyCache(100, 1, 60_000, NOW);
+        cache.put("k1", result(true), NOW);
+        IdempotencyService.IdempotencyResult completed = result(false);
+        cache.put("k1", completed, NOW + 50_000);
+
+        assertSame(completed, cache.get("k1", NOW + 59_999));
+        assertNull(cache.get("k1", NOW + 60_000));
+    }
+
+    @Test
+    public void testTimingWheelExpiresAcrossLevels() {
+        long ttl = TimeUnit.HOURS.toMillis(2);
+        IdempotencyCache cache = new IdempotencyCache(1000, 2, ttl, NOW);
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, result(false), NOW + i * 1000L);
+        }
+
+        cache.expire(NOW + ttl - 1);
+        assertEquals(100, cache.size());
+        cache.expire(NOW + ttl + 50_000);
+        assertEquals(49, cache.size());
+        cache.expire(NOW + ttl + 100_000);
+        assertEquals(0, cache.size());
+        assertEquals(100L, cache.counters().get("expirations"));
+    }
+
+    @Test
+    public void testSizeIsBoundedByCapacity() {
+        IdempotencyCache cache = new IdempotencyCache(200, 1, 60_000, NOW);
+        for (int i = 0; i < 5000; i++) {
+            cache.put("k" + i, result(false), NOW);
+        }
+        assertEquals(200, cache.size());
+        assertEquals(4800L, cache.counters().get("evictions"));
+    }
+
+    @Test
+    public void testFrequentKeysSurviveScan() {
+        IdempotencyCache cache = new IdempotencyCache(200, 1, 60_000, NOW);
+        for (int i = 0; i < 100; i++) {
+            cache.put("warm" + i, result(false), NOW);
+            for (int j = 0; j < 5; j++) {
+                cache.get("warm" + i, NOW);
+            }
+        }
+        // One-off keys lose admission against the popular entries; plain LRU would keep none
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, result(false), NOW);
+        }
+        int survivors = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get("warm" + i, NOW) != null) {
+                survivors++;
+            }
+        }
+        assertTrue(survivors >= 90, "Only " + survivors + " frequent keys survived the scan");
+        assertTrue(cache.counters().get("admissionRejections") > 0);
+        assertEquals(200, cache.size());
+    }
+
+    @Test
+    public void testProcessingCount() {
+        IdempotencyCache cache = new IdempotencyCache(100, 4, 60_000, NOW);
+        cache.put("k1", result(true), NOW);
+        cache.put("k2", result(true), NOW);
+        assertEquals(2, cache.processingCount());
+
+        cache.put("k1", result(false), NOW);
+        cache.remove("k2");
+        assertEquals(0, cache.processingCount());
+    }
+
+    private static IdempotencyService.IdempotencyResult result(boolean processing) {
+        IdempotencyService.IdempotencyResult result = new IdempotencyService.IdempotencyResult();
+        result.setProcessing(processing);
+        result.setSuccess(!processing);
+        result.setStatusCode(processing ? 202 : 200);
+        return result;
+    }
+}
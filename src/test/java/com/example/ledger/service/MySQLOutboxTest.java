@@ -0,0 +1,56 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.Account;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MySQLOutboxTest {
+
+    @Test
+    public void testKeysSortByPositionThenLeg() {
+        byte[] first = MySQLOutbox.key(41, 65_535);
+        byte[] second = MySQLOutbox.key(42, 0);
+        byte[] third = MySQLOutbox.key(42, 1);
+        assertTrue(Arrays.compareUnsigned(first, second) < 0);
+        assertTrue(Arrays.compareUnsigned(second, third) < 0);
+        assertEquals(42, MySQLOutbox.positionOf(third));
+        assertEquals(1, MySQLOutbox.legOf(third));
+    }
+
+    @Test
+    public void testTransactionRoundTrip() {
+        WriteEvent event = new WriteEvent().transaction("T1", "A:available", "B:brokerage",
+                new BigDecimal("12.3400"), null, "idem-1", 1_700_000_000_000L);
+        event.setEventTime(123L);
+
+        WriteEvent decoded = MySQLOutbox.decode(MySQLOutbox.key(9, 2), MySQLOutbox.encode(event));
+        assertEquals(WriteEvent.Type.TRANSACTION, decoded.getType());
+        assertEquals("T1", decoded.getTransactionId());
+        assertEquals("B:brokerage", decoded.getToAccountId());
+        assertEquals(new BigDecimal("12.3400"), decoded.getAmount());
+        assertNull(decoded.getDescription());
+        assertEquals("idem-1", decoded.getIdempotentId());
+        assertEquals(1_700_000_000_000L, decoded.getProcessedAtMillis());
+        assertEquals(WriteEvent.COMMITTED, decoded.getStatus());
+        assertEquals(123L, decoded.getEventTime());
+        assertEquals(9, decoded.getOutboxPosition());
+        assertEquals(2, decoded.getOutboxLeg());
+    }
+
+    @Test
+    public void testBalanceRoundTripRestoresAccountFields() {
+        WriteEvent event = new WriteEvent().balance("user:with:colons:exchange", "user:with:colons",
+                Account.AccountType.EXCHANGE, new BigDecimal("0.0001"));
+
+        WriteEvent decoded = MySQLOutbox.decode(MySQLOutbox.key(1, 0), MySQLOutbox.encode(event));
+        assertEquals(WriteEvent.Type.BALANCE, decoded.getType());
+        assertEquals("user:with:colons", decoded.getUserId());
+        assertEquals(Account.AccountType.EXCHANGE, decoded.getAccountType());
+        assertEquals(new BigDecimal("0.0001"), decoded.getBalance());
+        assertTrue(decoded.isStaged());
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.SyncCheckpoint;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentFilePersistenceSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testBlockRoundTripKeepsNullColumns() throws Exception {
+        WriteEvent full = row(7, 0, "T1", "desc", "idem-1");
+        WriteEvent sparse = row(7, 1, "T2", null, null);
+        sparse.setAmount(null);
+        Path segment = dir.resolve("segment.lseg");
+        Files.write(segment, SegmentFilePersistenceSink.encodeBlock(List.of(full, sparse)));
+
+        List<WriteEvent> rows = readAll(segment);
+        assertEquals(2, rows.size());
+        WriteEvent first = rows.get(0);
+        assertEquals(WriteEvent.Type.TRANSACTION, first.getType());
+        assertEquals(7, first.getOutboxPosition());
+        assertEquals(0, first.getOutboxLeg());
+        assertEquals("T1", first.getTransactionId());
+        assertEquals("A:available", first.getFromAccountId());
+        assertEquals("B:available", first.getToAccountId());
+        assertEquals(new BigDecimal("12.3400"), first.getAmount());
+        assertEquals("desc", first.getDescription());
+        assertEquals("idem-1", first.getIdempotentId());
+        assertEquals(1_700_000_000_000L, first.getProcessedAtMillis());
+        assertEquals(WriteEvent.COMMITTED, first.getStatus());
+
+        WriteEvent second = rows.get(1);
+        assertEquals(1, second.getOutboxLeg());
+        assertNull(second.getAmount());
+        assertNull(second.getDescription());
+        assertNull(second.getIdempotentId());
+    }
+
+    @Test
+    public void testTornFinalBlockIsIgnored() throws Exception {
+        Path segment = twoBlocks();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 10);
+        }
+        assertEquals(List.of("T1"), transactionIds(readAll(segment)));
+
+        // Only the length prefix of the last block made it to disk
+        byte[] first = SegmentFilePersistenceSink.encodeBlock(List.of(row(1, 0, "T1", "a", null)));
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(first.length + 4);
+        }
+        assertEquals(List.of("T1"), transactionIds(readAll(segment)));
+    }
+
+    @Test
+    public void testBlockWithBadChecksumIsIgnored() throws Exception {
+        Path segment = twoBlocks();
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long last = file.length() - 1;
+            file.seek(last);
+            int value = file.read();
+            file.seek(last);
+            file.write(value ^ 0xFF);
+        }
+        assertEquals(List.of("T1"), transactionIds(readAll(segment)));
+    }
+
+    @Test
+    public void testSegmentsRollAtMaxBytesAndCheckpointSurvivesRestart() throws Exception {
+        SegmentFilePersistenceSink sink = sink(1);
+        for (int i = 1; i <= 3; i++) {
+            writeBatch(sink, List.of(row(i, 0, "T" + i + "a", null, null), row(i, 1, "T" + i + "b", null, null)));
+        }
+        sink.close();
+
+        List<Path> segments = sink.segments();
+        assertEquals(3, segments.size(), "One block per segment once the size limit is reached");
+        List<WriteEvent> rows = new ArrayList<>();
+        for (Path segment : segments) {
+            SegmentFilePersistenceSink.read(segment, rows::add);
+        }
+        assertEquals(List.of("T1a", "T1b", "T2a", "T2b", "T3a", "T3b"), transactionIds(rows));
+
+        SyncCheckpoint checkpoint = sink(1).findCheckpoint(4, 0);
+        assertEquals(3L, checkpoint.getLastIndex());
+        assertEquals(1, checkpoint.getLastLeg());
+        assertFalse(Files.exists(dir.resolve("partition-4-0").resolve("checkpoint.tmp")));
+    }
+
+    @Test
+    public void testLargeSegmentLimitKeepsAppending() throws Exception {
+        SegmentFilePersistenceSink sink = sink(1 << 20);
+        for (int i = 1; i <= 3; i++) {
+            writeBatch(sink, List.of(row(i, 0, "T" + i, null, null)));
+        }
+        sink.close();
+        assertEquals(1, sink.segments().size());
+    }
+
+    @Test
+    public void testOversizedValueIsTruncatedInsteadOfFailingTheBlock() throws Exception {
+        String description = "长".repeat(30_000);
+        Path segment = dir.resolve("segment.lseg");
+        Files.write(segment, SegmentFilePersistenceSink.encodeBlock(List.of(row(1, 0, "T1", description, null))));
+
+        String stored = readAll(segment).get(0).getDescription();
+        assertEquals(21_845, stored.length(), "65535 bytes of three-byte characters");
+        assertTrue(description.startsWith(stored));
+        assertTrue(stored.getBytes(StandardCharsets.UTF_8).length <= 65_535);
+        assertEquals("short", SegmentFilePersistenceSink.fitUtf("short"));
+    }
+
+    private Path twoBlocks() throws IOException {
+        Path segment = dir.resolve("segment.lseg");
+        Files.write(segment, SegmentFilePersistenceSink.encodeBlock(List.of(row(1, 0, "T1", "a", null))));
+        Files.write(segment, SegmentFilePersistenceSink.encodeBlock(List.of(row(2, 0, "T2", "b", null))),
+                StandardOpenOption.APPEND);
+        assertEquals(List.of("T1", "T2"), transactionIds(readAll(segment)));
+        return segment;
+    }
+
+    private SegmentFilePersistenceSink sink(long maxSegmentBytes) {
+        SegmentFilePersistenceSink sink = new SegmentFilePersistenceSink();
+        ReflectionTestUtils.setField(sink, "segmentDir", dir.toString());
+        ReflectionTestUtils.setField(sink, "maxSegmentBytes", maxSegmentBytes);
+        return sink;
+    }
+
+    private static void writeBatch(SegmentFilePersistenceSink sink, List<WriteEvent> rows) {
+        sink.inTransaction(() -> {
+            sink.lockCheckpoint(4, 0);
+            sink.insertTransactions(rows);
+            WriteEvent last = rows.get(rows.size() - 1);
+            sink.advanceCheckpoint(4, 0, last.getOutboxPosition(), last.getOutboxLeg());
+            return null;
+        });
+    }
+
+    private static WriteEvent row(long position, int leg, String transactionId, String description, String idempotentId) {
+        WriteEvent event = new WriteEvent().transaction(transactionId, "A:available", "B:available",
+                new BigDecimal("12.3400"), description, idempotentId, 1_700_000_000_000L);
+        event.setOutboxPosition(position);
+        event.setOutboxLeg(leg);
+        return event;
+    }
+
+    private static List<WriteEvent> readAll(Path segment) throws IOException {
+        List<WriteEvent> rows = new ArrayList<>();
+        SegmentFilePersistenceSink.read(segment, rows::add);
+        return rows;
+    }
+
+    private static List<String> transactionIds(List<WriteEvent> rows) {
+        return rows.stream().map(WriteEvent::getTransactionId).toList();
+    }
+}
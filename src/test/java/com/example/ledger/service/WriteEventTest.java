@@ -0,0 +1,50 @@
+package com.example.ledger.service;
+
+import com.example.ledger.model.Account;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteEventTest {
+
+    @Test
+    public void testReusedRecordKeepsNoStaleFields() {
+        WriteEvent event = new WriteEvent().transaction("T1", "A:available", "B:available",
+                new BigDecimal("5.00"), "desc", "idem-1", 1_700_000_000_000L);
+        event.setSequence(7);
+        event.setOutboxPosition(42);
+        event.setOutboxLeg(1);
+        assertTrue(event.isStaged());
+
+        // The scratch record is refilled for the next row
+        BigDecimal balance = new BigDecimal("10.00");
+        assertSame(event, event.balance("A:available", "A", Account.AccountType.AVAILABLE, balance));
+        assertEquals(WriteEvent.Type.BALANCE, event.getType());
+        assertSame(balance, event.getBalance(), "Values are referenced, not copied");
+        assertNull(event.getTransactionId());
+        assertNull(event.getAmount());
+        assertNull(event.getIdempotentId());
+        assertNull(event.getStatus());
+        assertEquals(0L, event.getSequence());
+        assertFalse(event.isStaged());
+    }
+
+    @Test
+    public void testCopyFromCopiesEveryField() {
+        WriteEvent source = new WriteEvent().transaction("T1", "A:available", "B:available",
+                new BigDecimal("5.00"), "desc", "idem-1", 1_700_000_000_000L);
+        source.setSequence(7);
+        source.setOutboxPosition(42);
+        source.setOutboxLeg(1);
+
+        WriteEvent slot = new WriteEvent().balance("C:available", "C", Account.AccountType.AVAILABLE, BigDecimal.ONE);
+        slot.copyFrom(source);
+        assertEquals(source, slot);
+        assertEquals(WriteEvent.COMMITTED, slot.getStatus());
+        assertEquals(1_700_000_000_000L, slot.getProcessedAt()
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class AccountExistenceIndexTest {
+
+    private final RocksDBService rocksDBService = mock(RocksDBService.class);
+    private final AccountHandleRegistry handleRegistry = new AccountHandleRegistry(rocksDBService);
+
+    @Test
+    public void testMarkAndCheck() {
+        AccountExistenceIndex index = new AccountExistenceIndex(rocksDBService, handleRegistry);
+        assertFalse(index.exists("A:available"));
+
+        index.markExists("A:available");
+        index.markExists("A:available");
+        assertTrue(index.exists("A:available"));
+        assertEquals(1, index.size());
+
+        // A handle alone (assigned by another structure) does not make an account exist
+        handleRegistry.getOrAssign("B:available");
+        assertFalse(index.exists("B:available"));
+    }
+
+    @Test
+    public void testGrowsPastInitialWords() {
+        AccountExistenceIndex index = new AccountExistenceIndex(rocksDBService, handleRegistry);
+        for (int i = 0; i < 10_000; i++) {
+            index.markExists("acct" + i + ":available");
+        }
+        assertEquals(10_000, index.size());
+        assertTrue(index.exists("acct9999:available"));
+        assertFalse(index.exists("acct10000:available"));
+    }
+
+    @Test
+    public void testRebuildFromAccountKeys() {
+        doAnswer(invocation -> {
+            BiConsumer<byte[], byte[]> visitor = invocation.getArgument(1);
+            visitor.accept("account:A:available".getBytes(), new byte[0]);
+            visitor.accept("account:B:brokerage".getBytes(), new byte[0]);
+            return null;
+        }).when(rocksDBService).scanPrefixBytes(eq("account:"), any());
+
+        AccountExistenceIndex index = new AccountExistenceIndex(rocksDBService, handleRegistry);
+        index.rebuild();
+        assertEquals(2, index.size());
+        assertTrue(index.exists("B:brokerage"));
+        assertFalse(index.exists("B:available"));
+    }
+}
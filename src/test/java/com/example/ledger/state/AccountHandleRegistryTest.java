@@ -0,0 +1,50 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AccountHandleRegistryTest {
+
+    private RocksDBService rocksDBService;
+    private AccountHandleRegistry handleRegistry;
+
+    @BeforeEach
+    void setUp() {
+        rocksDBService = mock(RocksDBService.class);
+        handleRegistry = new AccountHandleRegistry(rocksDBService);
+    }
+
+    @Test
+    public void testHandlesAreDensePersistedAndReloaded() {
+        assertEquals(AccountHandleRegistry.NO_HANDLE, handleRegistry.handleOf("A:available"));
+        assertEquals(0, handleRegistry.getOrAssign("A:available"));
+        assertEquals(1, handleRegistry.getOrAssign("B:available"));
+        assertEquals(0, handleRegistry.getOrAssign("A:available"));
+        assertEquals("B:available", handleRegistry.accountIdOf(1));
+        assertNull(handleRegistry.accountIdOf(2));
+        assertEquals(2, handleRegistry.getHandleLimit());
+        verify(rocksDBService).put("handle:B:available", "1");
+
+        // A restarted registry continues after the persisted handles
+        doAnswer(invocation -> {
+            BiConsumer<String, String> visitor = invocation.getArgument(1);
+            visitor.accept("handle:A:available", "0");
+            visitor.accept("handle:B:available", "1");
+            return null;
+        }).when(rocksDBService).scanPrefix(eq("handle:"), any());
+        AccountHandleRegistry reloaded = new AccountHandleRegistry(rocksDBService);
+        reloaded.loadHandles();
+        assertEquals(1, reloaded.handleOf("B:available"));
+        assertEquals(2, reloaded.getOrAssign("C:available"));
+    }
+}
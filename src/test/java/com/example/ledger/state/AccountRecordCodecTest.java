@@ -0,0 +1,60 @@
+package com.example.ledger.state;
+
+import com.example.ledger.model.Account;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountRecordCodecTest {
+
+    private final AccountRecordCodec codec = new AccountRecordCodec(new ObjectMapper().findAndRegisterModules());
+
+    @Test
+    public void testBinaryRoundTrip() {
+        long createdAt = 1_700_000_000_123L;
+        byte[] record = codec.encode("用户-42", Account.AccountType.BROKERAGE, createdAt);
+
+        assertEquals(AccountRecordCodec.FORMAT_VERSION, record[0]);
+        assertEquals(AccountRecordCodec.FLAG_NONE, record[1]);
+        assertEquals(11 + "用户-42".getBytes(StandardCharsets.UTF_8).length, record.length);
+        assertFalse(codec.isLegacy(record));
+
+        Account account = codec.decode("用户-42:brokerage", record);
+        assertEquals("用户-42:brokerage", account.getAccountId());
+        assertEquals("用户-42", account.getUserId());
+        assertEquals(Account.AccountType.BROKERAGE, account.getAccountType());
+        assertNull(account.getBalance(), "The balance lives under its own key");
+        assertEquals(account.getCreatedAt(), codec.decode("x", codec.encode(account)).getCreatedAt());
+    }
+
+    @Test
+    public void testLegacyJsonIsDecodedAndMigrated() {
+        byte[] legacy = ("{\"accountId\":\"UserA:available\",\"userId\":\"UserA\",\"accountType\":\"AVAILABLE\","
+                + "\"balance\":100.0000,\"createdAt\":\"2024-01-02T03:04:05\"}").getBytes(StandardCharsets.UTF_8);
+        assertTrue(codec.isLegacy(legacy));
+
+        Account account = codec.decode("UserA:available", legacy);
+        assertEquals("UserA", account.getUserId());
+        assertEquals(Account.AccountType.AVAILABLE, account.getAccountType());
+        assertNull(account.getBalance());
+
+        byte[] migrated = codec.migrate(legacy);
+        assertEquals(AccountRecordCodec.FLAG_MIGRATED, migrated[1]);
+        Account decoded = codec.decode("UserA:available", migrated);
+        assertEquals("UserA", decoded.getUserId());
+        assertEquals(LocalDateTime.of(2024, 1, 2, 3, 4, 5), decoded.getCreatedAt());
+    }
+
+    @Test
+    public void testRejectsUnknownVersionAndCorruptLegacyRecords() {
+        byte[] record = codec.encode("UserA", Account.AccountType.AVAILABLE, 0);
+        record[0] = 9;
+        assertThrows(IllegalArgumentException.class, () -> codec.decode("UserA:available", record));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decode("UserA:available", "{not json".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.ledger.state;
+
+import com.example.ledger.model.Account;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTransferCommandTest {
+
+    private static final Account.AccountType AVAILABLE = Account.AccountType.AVAILABLE;
+
+    @Test
+    public void testEncodeDecodeRoundTrip() {
+        BatchTransferCommand command = new BatchTransferCommand("batch:1;a,b", 1_700_000_000_000L, List.of(
+            leg("A", "B", "10.50", "rent: june; split, half"),
+            new BatchTransferCommand.Leg("B", AVAILABLE, "C", Account.AccountType.BROKERAGE,
+                    new BigDecimal("0.0001"), null)
+        ));
+
+        String encoded = command.encode();
+        assertTrue(encoded.startsWith(BatchTransferCommand.OPERATION + ":"));
+        BatchTransferCommand decoded = BatchTransferCommand.decode(encoded);
+
+        assertEquals("batch:1;a,b", decoded.getIdempotentId());
+        assertEquals(1_700_000_000_000L, decoded.getProposedAt());
+        assertEquals(2, decoded.getLegs().size());
+        assertEquals(command.getLegs().get(0), decoded.getLegs().get(0));
+        assertEquals("C:brokerage", decoded.getLegs().get(1).toAccountId());
+        assertEquals("", decoded.getLegs().get(1).description());
+    }
+
+    @Test
+    public void testDecodeRejectsMalformedCommands() {
+        assertThrows(IllegalArgumentException.class, () -> BatchTransferCommand.decode("BATCH_TRANSFER:id:1:"));
+        assertThrows(IllegalArgumentException.class, () -> BatchTransferCommand.decode("TRANSFER:id:1:x"));
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchTransferCommand.decode("BATCH_TRANSFER:id:1:A,available,B,available,1"));
+    }
+
+    @Test
+    public void testFundsAreCheckedAgainstNetChanges() {
+        // A pays out more than it holds, but receives it back within the batch
+        BatchTransferCommand command = new BatchTransferCommand("net", 0, List.of(
+            leg("A", "B", "150", null),
+            leg("B", "A", "100", null)
+        ));
+        Map<String, BigDecimal> newBalances = new LinkedHashMap<>();
+        assertNull(command.resolve(balances("A:available", "60", "B:available", "0"), newBalances));
+        assertEquals(0, new BigDecimal("10").compareTo(newBalances.get("A:available")));
+        assertEquals(0, new BigDecimal("50").compareTo(newBalances.get("B:available")));
+
+        Map<String, BigDecimal> net = command.netChanges();
+        assertEquals(List.of("A:available", "B:available"), List.copyOf(net.keySet()));
+        assertEquals(0, new BigDecimal("-50").compareTo(net.get("A:available")));
+    }
+
+    @Test
+    public void testInsufficientNetFundsRejectsTheWholeBatch() {
+        BatchTransferCommand command = new BatchTransferCommand("short", 0, List.of(
+            leg("A", "B", "10", null),
+            leg("B", "C", "30", null)
+        ));
+        Map<String, BigDecimal> newBalances = new LinkedHashMap<>();
+        String rejection = command.resolve(
+                balances("A:available", "100", "B:available", "5", "C:available", "0"), newBalances);
+
+        assertNotNull(rejection);
+        assertTrue(rejection.startsWith("Insufficient funds in B:available"), rejection);
+        assertFalse(newBalances.containsKey("B:available"));
+    }
+
+    @Test
+    public void testRejectsMissingAccountsEmptyBatchesAndNonPositiveAmounts() {
+        Map<String, BigDecimal> newBalances = new HashMap<>();
+        assertEquals("Account does not exist: B:available",
+                new BatchTransferCommand("missing", 0, List.of(leg("A", "B", "1", null)))
+                        .resolve(balances("A:available", "10"), newBalances));
+        assertEquals("Batch transfer has no legs",
+                new BatchTransferCommand("empty", 0, List.of()).resolve(balances(), newBalances));
+        assertTrue(new BatchTransferCommand("zero", 0, List.of(leg("A", "B", "0", null)))
+                .resolve(balances("A:available", "10", "B:available", "0"), newBalances)
+                .startsWith("Invalid amount in leg 0"));
+    }
+
+    @Test
+    public void testStartingBalancesInvertResolve() {
+        BatchTransferCommand command = new BatchTransferCommand("start", 0, List.of(
+            leg("A", "B", "25", null),
+            leg("A", "C", "5", null)
+        ));
+        Map<String, BigDecimal> newBalances = new LinkedHashMap<>();
+        assertNull(command.resolve(balances("A:available", "40", "B:available", "1", "C:available", "2"), newBalances));
+
+        Map<String, BigDecimal> starting = command.startingBalances(newBalances);
+        assertEquals(0, new BigDecimal("40").compareTo(starting.get("A:available")));
+        assertEquals(0, new BigDecimal("1").compareTo(starting.get("B:available")));
+        assertEquals(0, new BigDecimal("2").compareTo(starting.get("C:available")));
+    }
+
+    private static BatchTransferCommand.Leg leg(String from, String to, String amount, String description) {
+        return new BatchTransferCommand.Leg(from, AVAILABLE, to, AVAILABLE, new BigDecimal(amount), description);
+    }
+
+    // accountId, balance, accountId, balance, ...
+    private static Function<String, BigDecimal> balances(String... pairs) {
+        Map<String, BigDecimal> balances = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            balances.put(pairs[i], new BigDecimal(pairs[i + 1]));
+        }
+        return balances::get;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.ledger.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirtyAccountSetTest {
+
+    @Test
+    public void testDrainReturnsMarkedHandlesInOrderAndClears() {
+        DirtyAccountSet set = new DirtyAccountSet();
+        set.mark(70_000);
+        set.mark(3);
+        set.mark(64);
+        set.mark(3);
+        set.mark(-1);
+
+        assertEquals(3, set.cardinality());
+        assertArrayEquals(new int[]{3, 64, 70_000}, set.drain());
+        assertEquals(0, set.cardinality());
+        assertArrayEquals(new int[0], set.drain());
+    }
+
+    @Test
+    public void testDrainGrowsPastInitialCapacity() {
+        DirtyAccountSet set = new DirtyAccountSet();
+        for (int handle = 0; handle < 1000; handle++) {
+            set.mark(handle * 7);
+        }
+        int[] drained = set.drain();
+        assertEquals(1000, drained.length);
+        for (int i = 0; i < drained.length; i++) {
+            assertEquals(i * 7, drained[i]);
+        }
+    }
+
+    @Test
+    public void testConcurrentMarksAreNotLost() throws Exception {
+        DirtyAccountSet set = new DirtyAccountSet();
+        int threads = 4;
+        int perThread = 50_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                executor.submit(() -> {
+                    start.await();
+                    // Interleaved handles: threads share words and race chunk growth
+                    for (int i = 0; i < perThread; i++) {
+                        set.mark(i * threads + offset);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+
+            // Draining concurrently must report every handle exactly once overall
+            boolean[] seen = new boolean[threads * perThread];
+            int total = 0;
+            executor.shutdown();
+            while (!executor.isTerminated()) {
+                total += record(set.drain(), seen);
+                executor.awaitTermination(1, TimeUnit.MILLISECONDS);
+            }
+            total += record(set.drain(), seen);
+            assertEquals(threads * perThread, total);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int record(int[] handles, boolean[] seen) {
+        for (int handle : handles) {
+            assertFalse(seen[handle], "Handle drained twice: " + handle);
+            seen[handle] = true;
+        }
+        return handles.length;
+    }
+}
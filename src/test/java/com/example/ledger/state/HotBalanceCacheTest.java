@@ -0,0 +1,120 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class HotBalanceCacheTest {
+
+    private RocksDBService rocksDBService;
+    private AccountHandleRegistry handleRegistry;
+
+    @BeforeEach
+    void setUp() {
+        rocksDBService = mock(RocksDBService.class);
+        handleRegistry = new AccountHandleRegistry(rocksDBService);
+    }
+
+    @Test
+    public void testHitReturnsStoredInstance() {
+        HotBalanceCache cache = cache(16);
+        BigDecimal balance = new BigDecimal("12.3400");
+        cache.put("A:available", balance);
+
+        assertSame(balance, cache.get("A:available"));
+        assertNull(cache.get("B:available"), "Account without a handle is a miss");
+
+        cache.put("A:available", null);
+        assertNull(cache.get("A:available"));
+        assertEquals(0, cache.getStats().get("size"));
+    }
+
+    @Test
+    public void testEvictionKeepsRemainingEntriesReachable() {
+        HotBalanceCache cache = cache(12);
+        for (int i = 0; i < 100; i++) {
+            cache.put("acct" + i + ":available", BigDecimal.valueOf(i));
+        }
+
+        assertEquals(12, cache.getStats().get("size"));
+        assertEquals(88L, cache.getStats().get("evictions"));
+        int cached = 0;
+        for (int i = 0; i < 100; i++) {
+            BigDecimal balance = cache.get("acct" + i + ":available");
+            if (balance != null) {
+                assertEquals(BigDecimal.valueOf(i), balance, "Wrong balance for acct" + i);
+                cached++;
+            }
+        }
+        assertEquals(12, cached);
+    }
+
+    @Test
+    public void testRandomUpdatesMatchReferenceMap() {
+        // Capacity above the key count: no evictions, so every removal is a backward shift
+        HotBalanceCache cache = cache(256);
+        Map<String, BigDecimal> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            String accountId = "acct" + random.nextInt(150) + ":available";
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    cache.invalidate(accountId);
+                    expected.remove(accountId);
+                }
+                case 1 -> {
+                    cache.put(accountId, null);
+                    expected.remove(accountId);
+                }
+                default -> {
+                    BigDecimal balance = BigDecimal.valueOf(i);
+                    cache.put(accountId, balance);
+                    expected.put(accountId, balance);
+                }
+            }
+        }
+        for (int i = 0; i < 150; i++) {
+            String accountId = "acct" + i + ":available";
+            assertEquals(expected.get(accountId), cache.get(accountId), accountId);
+        }
+        assertEquals(expected.size(), cache.getStats().get("size"));
+    }
+
+    @Test
+    public void testPopulateSkipsValuesReadBeforeAWrite() {
+        HotBalanceCache cache = cache(16);
+        cache.put("A:available", new BigDecimal("1"));
+        cache.invalidate("A:available");
+
+        // A read-through that raced a write must not cache its stale value
+        long token = cache.populationToken("A:available");
+        cache.put("A:available", new BigDecimal("2"));
+        cache.invalidate("A:available");
+        cache.populate("A:available", new BigDecimal("1"), token);
+        assertNull(cache.get("A:available"));
+
+        token = cache.populationToken("A:available");
+        cache.populate("A:available", new BigDecimal("2"), token);
+        assertEquals(new BigDecimal("2"), cache.get("A:available"));
+
+        // Accounts never written through the cache are not populated
+        assertEquals(-1, cache.populationToken("B:available"));
+    }
+
+    private HotBalanceCache cache(int capacity) {
+        HotBalanceCache cache = new HotBalanceCache(handleRegistry);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "capacity", capacity);
+        cache.allocate();
+        return cache;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBConfig;
+import com.example.ledger.config.RocksDBService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyKeyFilterTest {
+
+    @TempDir
+    Path dataDir;
+
+    private RocksDBConfig config;
+    private RocksDBService rocksDBService;
+
+    @BeforeEach
+    void setUp() {
+        config = new RocksDBConfig();
+        ReflectionTestUtils.setField(config, "rocksdbPath", dataDir.toString());
+        ReflectionTestUtils.setField(config, "createIfMissing", true);
+        ReflectionTestUtils.setField(config, "maxOpenFiles", 100);
+        ReflectionTestUtils.setField(config, "writeBufferSize", 4L << 20);
+        ReflectionTestUtils.setField(config, "maxWriteBufferNumber", 2);
+        rocksDBService = new RocksDBService(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        config.cleanup();
+    }
+
+    @Test
+    public void testRebuildsFromStoredMarkersWhenNothingSaved() throws Exception {
+        rocksDBService.put("idem:20240101:bucketed-key", "1");
+        rocksDBService.put("idem:legacy-key", "1");
+
+        IdempotencyKeyFilter filter = filter(1000);
+        awaitRebuild(filter);
+
+        assertEquals(true, filter.getStats().get("ready"));
+        assertEquals(2L, filter.getStats().get("insertions"));
+        assertTrue(filter.mightContain("bucketed-key"));
+        assertTrue(filter.mightContain("legacy-key"));
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filter.mightContain("unknown-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50, falsePositives + " false positives");
+    }
+
+    @Test
+    public void testSavedFilterIsLoadedOnceAndDeleted() throws Exception {
+        IdempotencyKeyFilter filter = filter(1000);
+        awaitRebuild(filter);
+        filter.add("k1");
+        filter.add("k2");
+        filter.save();
+        assertNotNull(rocksDBService.getBytes("meta:idem-bloom"));
+
+        IdempotencyKeyFilter loaded = filter(1000);
+        assertEquals(true, loaded.getStats().get("ready"), "Restored without a rebuild");
+        assertEquals(2L, loaded.getStats().get("insertions"));
+        assertTrue(loaded.mightContain("k1"));
+        assertTrue(loaded.mightContain("k2"));
+        // A crash after this point must not load a copy that misses later keys
+        assertNull(rocksDBService.getBytes("meta:idem-bloom"));
+    }
+
+    @Test
+    public void testSavedFilterOfAnotherSizeIsRebuilt() throws Exception {
+        rocksDBService.put("idem:20240101:stored", "1");
+        IdempotencyKeyFilter filter = filter(1000);
+        awaitRebuild(filter);
+        filter.save();
+
+        IdempotencyKeyFilter resized = filter(5000);
+        assertTrue(resized.mightContain("anything"), "Every key is possibly present until rebuilt");
+        awaitRebuild(resized);
+        assertTrue(resized.mightContain("stored"));
+        assertNull(rocksDBService.getBytes("meta:idem-bloom"));
+    }
+
+    @Test
+    public void testRebuildDropsPurgedKeysAndKeepsRecentOnes() throws Exception {
+        rocksDBService.put("idem:20240101:expired", "1");
+        IdempotencyKeyFilter filter = filter(1000);
+        awaitRebuild(filter);
+        assertTrue(filter.mightContain("expired"));
+
+        rocksDBService.delete("idem:20240101:expired");
+        // Added before its marker is written, which the rebuild scan may not see
+        filter.add("in-flight");
+        filter.rebuild(false);
+        assertEquals(true, filter.getStats().get("ready"), "The current filter keeps answering");
+        awaitRebuild(filter);
+
+        assertFalse(filter.mightContain("expired"));
+        assertTrue(filter.mightContain("in-flight"));
+    }
+
+    private IdempotencyKeyFilter filter(long expectedKeys) {
+        IdempotencyKeyFilter filter = new IdempotencyKeyFilter(rocksDBService);
+        ReflectionTestUtils.setField(filter, "expectedKeys", expectedKeys);
+        ReflectionTestUtils.setField(filter, "falsePositiveRate", 0.01);
+        filter.load();
+        return filter;
+    }
+
+    private static void awaitRebuild(IdempotencyKeyFilter filter) throws InterruptedException {
+        Thread thread = (Thread) ReflectionTestUtils.getField(filter, "rebuildThread");
+        if (thread != null) {
+            thread.join(10_000);
+            assertFalse(thread.isAlive(), "Rebuild did not finish");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.ledger.state;
+
+import com.example.ledger.config.RocksDBConfig;
+import com.example.ledger.config.RocksDBService;
+import com.example.ledger.model.CommandOutcome;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class IdempotencyMarkersTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long NOW = Instant.parse("2024-03-05T12:00:00Z").toEpochMilli();
+
+    @TempDir
+    Path dataDir;
+
+    private final List<RocksDBConfig> configs = new ArrayList<>();
+    private RocksDBService rocksDBService;
+    private IdempotencyKeyFilter idempotencyKeyFilter;
+
+    @BeforeEach
+    void setUp() {
+        rocksDBService = openStore("node1");
+        idempotencyKeyFilter = mock(IdempotencyKeyFilter.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        configs.forEach(RocksDBConfig::cleanup);
+    }
+
+    @Test
+    public void testKeysAreBucketedByUtcDay() {
+        IdempotencyMarkers markers = markers();
+        assertEquals("idem:20240305:k1",
+                markers.transferKey("k1", Instant.parse("2024-03-05T23:59:59.999Z").toEpochMilli()));
+        assertEquals("batch_idem:20240306:b1",
+                markers.batchKey("b1", Instant.parse("2024-03-06T00:00:00Z").toEpochMilli()));
+        assertEquals("19691231", IdempotencyMarkers.dayOf(-1));
+
+        assertEquals("k:with:colons", IdempotencyMarkers.idempotentIdOf("idem:20240305:k:with:colons"));
+        assertEquals("legacy", IdempotencyMarkers.idempotentIdOf("idem:legacy"));
+        assertEquals("2024030x:k", IdempotencyMarkers.idempotentIdOf("idem:2024030x:k"));
+    }
+
+    @Test
+    public void testLookupProbesTheRetentionWindow() {
+        IdempotencyMarkers markers = markers();
+        rocksDBService.put(markers.transferKey("oldest", NOW - 7 * DAY), "1");
+        rocksDBService.put(markers.transferKey("expired", NOW - 8 * DAY), "1");
+        rocksDBService.put(markers.transferKey("skewed", NOW + DAY), "1");
+        rocksDBService.put(markers.transferKey("future", NOW + 2 * DAY), "1");
+
+        assertNotNull(markers.findTransfer("oldest", NOW));
+        assertNull(markers.findTransfer("expired", NOW));
+        assertNotNull(markers.findTransfer("skewed", NOW), "One day ahead tolerates proposer clock skew");
+        assertNull(markers.findTransfer("future", NOW));
+        assertNull(markers.findBatch("oldest", NOW), "Batches use their own key class");
+    }
+
+    @Test
+    public void testLegacyMarkersAreFoundUntilTheMigrationIsApplied() throws Exception {
+        seedLegacyMarkers(rocksDBService);
+
+        IdempotencyMarkers markers = markers();
+        // Nothing moves at startup: the bucket must not depend on this node's restart day
+        assertEquals("1", rocksDBService.get("idem:legacy-transfer"));
+        assertNotNull(markers.findTransfer("legacy-transfer", NOW));
+        assertNotNull(markers.findBatch("legacy-batch", NOW));
+
+        String command = markers.migrationCommand(NOW);
+        assertEquals(IdempotencyMarkers.MIGRATE_OPERATION + ":20240305:" + NOW, command);
+        CommandOutcome outcome = markers.applyMigration(command);
+        assertTrue(outcome.isSuccess());
+        assertEquals(NOW, outcome.getAppliedAtMillis());
+
+        assertNull(rocksDBService.get("idem:legacy-transfer"));
+        assertEquals("1", rocksDBService.get("idem:20240305:legacy-transfer"));
+        assertEquals("done", rocksDBService.get("batch_idem:20240305:legacy-batch"));
+        assertNull(rocksDBService.get("batch_idem:orphan:processing"));
+        assertNull(rocksDBService.get("batch_idem:20240305:orphan:processing"));
+        assertEquals("1", rocksDBService.get("idem:20240101:already-bucketed"));
+        assertNotNull(markers.findTransfer("legacy-transfer", NOW));
+        assertNull(markers.migrationCommand(NOW));
+
+        // The layout is recorded, so a restart neither probes nor migrates again
+        assertNull(markers().migrationCommand(NOW));
+        assertFalse(markers.applyMigration(IdempotencyMarkers.MIGRATE_OPERATION + ":2024:" + NOW).isSuccess());
+    }
+
+    @Test
+    public void testStoreWithoutLegacyMarkersNeedsNoMigration() {
+        rocksDBService.put("idem:20240101:already-bucketed", "1");
+        IdempotencyMarkers markers = markers();
+        assertNull(markers.migrationCommand(NOW));
+        assertEquals(false, markers.getStats().get("legacyLayout"));
+    }
+
+    @Test
+    public void testReplicasRestartedOnDifferentDaysPurgeTheSameMarkers() throws Exception {
+        RocksDBService otherStore = openStore("node2");
+        seedLegacyMarkers(rocksDBService);
+        seedLegacyMarkers(otherStore);
+
+        // The leader proposes the migration; node2 restarts days later and applies the
+        // same entry when it catches up
+        IdempotencyMarkers node1 = markers();
+        String migration = node1.migrationCommand(NOW - 10 * DAY);
+        node1.applyMigration(migration);
+        IdempotencyMarkers node2 = markers(otherStore);
+        node2.applyMigration(migration);
+        assertEquals(markerKeys(rocksDBService), markerKeys(otherStore));
+
+        String purge = node1.purgeCommand(NOW);
+        assertNotNull(purge);
+        node1.applyPurge(purge);
+        node2.applyPurge(purge);
+
+        // Both drop the migrated bucket, so a retry is a duplicate on neither
+        assertEquals(List.of(), markerKeys(rocksDBService));
+        assertEquals(List.of(), markerKeys(otherStore));
+        assertNull(node1.findTransfer("legacy-transfer", NOW));
+        assertNull(node2.findTransfer("legacy-transfer", NOW));
+    }
+
+    @Test
+    public void testPurgeRemovesOnlyBucketsBeforeTheCutoff() throws Exception {
+        IdempotencyMarkers markers = markers();
+        assertNull(markers.purgeCommand(NOW), "Nothing to purge in an empty store");
+
+        rocksDBService.put(markers.transferKey("expired", NOW - 9 * DAY), "1");
+        rocksDBService.put(markers.transferKey("grace", NOW - 8 * DAY), "1");
+        rocksDBService.put(markers.transferKey("current", NOW), "1");
+        rocksDBService.put(markers.batchKey("expired-batch", NOW - 9 * DAY), "done");
+
+        String command = markers.purgeCommand(NOW);
+        assertEquals(IdempotencyMarkers.PURGE_OPERATION + ":20240226:20240226:" + NOW, command);
+
+        CommandOutcome outcome = markers.applyPurge(command);
+        assertTrue(outcome.isSuccess());
+        assertEquals(NOW, outcome.getAppliedAtMillis());
+        assertNull(rocksDBService.get(markers.transferKey("expired", NOW - 9 * DAY)));
+        assertNull(rocksDBService.get(markers.batchKey("expired-batch", NOW - 9 * DAY)));
+        assertEquals("1", rocksDBService.get(markers.transferKey("grace", NOW - 8 * DAY)));
+        assertEquals("1", rocksDBService.get(markers.transferKey("current", NOW)));
+        verify(idempotencyKeyFilter).rebuild(false);
+        assertNull(markers.purgeCommand(NOW));
+    }
+
+    @Test
+    public void testMalformedPurgeCommandIsRejected() throws Exception {
+        IdempotencyMarkers markers = markers();
+        rocksDBService.put(markers.transferKey("expired", NOW - 9 * DAY), "1");
+
+        assertFalse(markers.applyPurge(IdempotencyMarkers.PURGE_OPERATION + ":2024:20240226:" + NOW).isSuccess());
+        assertFalse(markers.applyPurge(IdempotencyMarkers.PURGE_OPERATION + ":20240226").isSuccess());
+        assertEquals("1", rocksDBService.get(markers.transferKey("expired", NOW - 9 * DAY)));
+        verify(idempotencyKeyFilter, never()).rebuild(false);
+    }
+
+    private RocksDBService openStore(String name) {
+        Path path = dataDir.resolve(name);
+        assertTrue(path.toFile().mkdirs());
+        RocksDBConfig config = new RocksDBConfig();
+        ReflectionTestUtils.setField(config, "rocksdbPath", path.toString());
+        ReflectionTestUtils.setField(config, "createIfMissing", true);
+        ReflectionTestUtils.setField(config, "maxOpenFiles", 100);
+        ReflectionTestUtils.setField(config, "writeBufferSize", 4L << 20);
+        ReflectionTestUtils.setField(config, "maxWriteBufferNumber", 2);
+        configs.add(config);
+        return new RocksDBService(config);
+    }
+
+    private static void seedLegacyMarkers(RocksDBService store) {
+        store.put("idem:legacy-transfer", "1");
+        store.put("batch_idem:legacy-batch", "done");
+        store.put("batch_idem:orphan:processing", "x");
+        store.put("idem:20240101:already-bucketed", "1");
+    }
+
+    private static List<String> markerKeys(RocksDBService store) {
+        List<String> keys = new ArrayList<>();
+        store.scanPrefix(IdempotencyMarkers.TRANSFER_PREFIX, (key, value) -> keys.add(key));
+        store.scanPrefix(IdempotencyMarkers.BATCH_PREFIX, (key, value) -> keys.add(key));
+        return keys;
+    }
+
+    private IdempotencyMarkers markers() {
+        return markers(rocksDBService);
+    }
+
+    private IdempotencyMarkers markers(RocksDBService store) {
+        IdempotencyMarkers markers = new IdempotencyMarkers(store, idempotencyKeyFilter);
+        ReflectionTestUtils.setField(markers, "transferRetentionDays", 7);
+        ReflectionTestUtils.setField(markers, "batchRetentionDays", 7);
+        markers.start();
+        return markers;
+    }
+}
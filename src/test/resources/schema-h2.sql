@@ -63,6 +63,18 @@ CREATE INDEX IF NOT EXISTS idx_processed_at ON processed_transaction(processed_a
 CREATE INDEX IF NOT EXISTS idx_status ON processed_transaction(status);
 CREATE INDEX IF NOT EXISTS idx_idempotent_id ON processed_transaction(idempotent_id);
 
+-- ============================================================================
+-- MySQL sync checkpoints - last persisted command position per writer partition
+-- ============================================================================
+CREATE TABLE IF NOT EXISTS ledger_sync_checkpoint (
+    partition_count INT NOT NULL,
+    partition_id INT NOT NULL,
+    last_index BIGINT NOT NULL DEFAULT 0,
+    last_leg INT NOT NULL DEFAULT -1,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (partition_count, partition_id)
+);
+
 -- ============================================================================
 -- Sample data for testing
 -- ============================================================================